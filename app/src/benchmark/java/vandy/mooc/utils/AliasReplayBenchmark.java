@@ -0,0 +1,165 @@
+package vandy.mooc.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Fetches saved by canonicalizing location queries and resolving them through the aliases learnt from earlier
+ * results, on a replayed query log. The log asks for cities with Zipf-distributed popularity, each time in one of the
+ * spellings users type: the name in any case and spacing, with or without the country, or the numeric city id.
+ * Results never expire here, so every fetch counted is one a cache key failed to save.
+ *
+ * Run with ./gradlew testDebug -Pbenchmarks.
+ */
+public class AliasReplayBenchmark {
+	private static final int CITIES = 500;
+	private static final int QUERIES = 100000;
+	private static final double ZIPF_EXPONENT = 1.0;
+	private static final int MAX_ALIASES = 1024;
+	private static final String[] COUNTRIES = { "GB", "US", "FR", "DE", "IT", "ES", "JP", "BR" };
+
+	@Test
+	public void aliasesSaveFetchesOnAReplayedLog() {
+		List<City> cities = new ArrayList<>(CITIES);
+		for (int i = 0; i < CITIES; i++) {
+			cities.add(new City(2000000 + i * 7, (i % 3 == 0 ? "Port " : "") + "Town" + i, COUNTRIES[i % COUNTRIES.length]));
+		}
+		List<String> log = generateLog(cities, new Random(42));
+
+		long raw = replayRaw(log, cities);
+		AliasIndex aliases = new AliasIndex(MAX_ALIASES);
+		long canonical = replayCanonical(log, cities, aliases);
+
+		System.out.println("Fetches for " + QUERIES + " queries of " + CITIES + " cities, keeping at most " + MAX_ALIASES + " aliases as Utils does");
+		System.out.println("keys                      fetches");
+		System.out.printf(Locale.US, "trim().toLowerCase()  %11d%n", raw);
+		System.out.printf(Locale.US, "canonical + aliases   %11d%n", canonical);
+		System.out.printf(Locale.US, "saved                 %10.1f%%  (%d lookups resolved through an alias)%n", 100.0 * (raw - canonical) / raw, aliases.getResolvedCount());
+	}
+
+	/**
+	 * Replay @a log with results cached under each query trimmed and lower-cased, as Utils used to.
+	 *
+	 * @return The number of fetches made.
+	 */
+	private static long replayRaw(List<String> log, List<City> cities) {
+		Set<String> cached = new HashSet<>();
+		long fetches = 0;
+		for (String location : log) {
+			if (cached.add(location.trim().toLowerCase(Locale.US))) {
+				lookUp(location, cities);
+				fetches++;
+			}
+		}
+		return fetches;
+	}
+
+	/**
+	 * Replay @a log with results cached under the city they resolved to, and each canonical query, and the city's
+	 * name and country, recorded in @a aliases as Utils.storeResults() does.
+	 *
+	 * @return The number of fetches made.
+	 */
+	private static long replayCanonical(List<String> log, List<City> cities, AliasIndex aliases) {
+		Set<String> cached = new HashSet<>();
+		long fetches = 0;
+		for (String location : log) {
+			String query = LocationKeys.normalize(location);
+			if (cached.contains(aliases.resolve(query))) {
+				continue;
+			}
+			City city = lookUp(location, cities);
+			fetches++;
+			String cityKey = LocationKeys.cityIdKey(city.mId);
+			cached.add(cityKey);
+			aliases.put(query, cityKey);
+			aliases.put(LocationKeys.normalize(city.mName + "," + city.mCountry), cityKey);
+		}
+		return fetches;
+	}
+
+	/**
+	 * @return The city named by @a location, as the Weather Service resolves it.
+	 */
+	private static City lookUp(String location, List<City> cities) {
+		String query = LocationKeys.normalize(location);
+		for (City city : cities) {
+			String name = city.mName.toLowerCase(Locale.US);
+			if (query.equals(Long.toString(city.mId)) || query.equals(name) || query.equals(name + "," + city.mCountry.toLowerCase(Locale.US))) {
+				return city;
+			}
+		}
+		throw new AssertionError("No city named " + location);
+	}
+
+	/**
+	 * @return A log of QUERIES queries of @a cities, drawn with Zipf-distributed popularity.
+	 */
+	private static List<String> generateLog(List<City> cities, Random random) {
+		double[] cumulative = new double[cities.size()];
+		double total = 0;
+		for (int i = 0; i < cumulative.length; i++) {
+			total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+			cumulative[i] = total;
+		}
+
+		List<String> log = new ArrayList<>(QUERIES);
+		for (int i = 0; i < QUERIES; i++) {
+			int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+			log.add(spell(cities.get(rank < 0 ? -rank - 1 : rank), random));
+		}
+		return log;
+	}
+
+	/**
+	 * @return @a city spelt as a user might type it.
+	 */
+	private static String spell(City city, Random random) {
+		String name = city.mName;
+		switch (random.nextInt(4)) {
+			case 0:
+				break;
+			case 1:
+				name = name.toLowerCase(Locale.US);
+				break;
+			case 2:
+				name = name.toUpperCase(Locale.US);
+				break;
+			default:
+				name = name.replace(" ", "  ");
+		}
+		switch (random.nextInt(6)) {
+			case 0:
+				return name;
+			case 1:
+				return " " + name + " ";
+			case 2:
+				return name + "," + city.mCountry;
+			case 3:
+				return name + ", " + city.mCountry.toLowerCase(Locale.US);
+			case 4:
+				return name + " ," + city.mCountry;
+			default:
+				return Long.toString(city.mId);
+		}
+	}
+
+	private static class City {
+		final long mId;
+		final String mName;
+		final String mCountry;
+
+		City(long id, String name, String country) {
+			mId = id;
+			mName = name;
+			mCountry = country;
+		}
+	}
+}
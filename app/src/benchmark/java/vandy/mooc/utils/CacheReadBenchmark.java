@@ -0,0 +1,116 @@
+package vandy.mooc.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+
+/**
+ * Throughput of cache hits from 1, 4 and 16 threads, standing in for binder threads, through the read path Utils has
+ * now and the one it had before. That one was a synchronized method over a WeakHashMap, flagging the shared
+ * WeatherData as cached on every read. This one canonicalizes the location, resolves it through the aliases, reads
+ * the WeatherCache without a lock and flags a copy.
+ *
+ * Run with ./gradlew testDebug -Pbenchmarks.
+ */
+public class CacheReadBenchmark {
+	private static final int[] THREADS = { 1, 4, 16 };
+	private static final int CITIES = 1000;
+	private static final long TTL = 600000;
+
+	@Test
+	public void hitsScaleWithReaderThreads() throws Exception {
+		final String[] locations = new String[CITIES];
+		final Synchronized before = new Synchronized();
+		final Snapshots after = new Snapshots();
+		for (int i = 0; i < CITIES; i++) {
+			locations[i] = "Town" + i + ",GB";
+			WeatherData data = new WeatherData("Town" + i, "04d", 4.1, 230, 12.5, 1012, 81, 1431405600L, 1431461400L);
+			before.put(locations[i], data);
+			after.put(locations[i], 2000000 + i, data);
+		}
+
+		System.out.println("Cache hits per second, " + Runtime.getRuntime().availableProcessors() + " cores");
+		System.out.println("threads  synchronized   lock-free");
+		for (int threads : THREADS) {
+			double locked = Throughput.measure(threads, new Throughput.Operation() {
+				@Override
+				public void run(int thread) {
+					check(before.get(locations[ThreadLocalRandom.current().nextInt(CITIES)]));
+				}
+			});
+			double lockFree = Throughput.measure(threads, new Throughput.Operation() {
+				@Override
+				public void run(int thread) {
+					check(after.get(locations[ThreadLocalRandom.current().nextInt(CITIES)]));
+				}
+			});
+			System.out.printf(Locale.US, "%7d  %12.0f  %10.0f%n", threads, locked, lockFree);
+		}
+	}
+
+	private static void check(WeatherData data) {
+		if (data == null || !data.mCached) {
+			throw new AssertionError("Miss");
+		}
+	}
+
+	/**
+	 * Hits as Utils.getResultFromCache() served them before the cache was made lock-free.
+	 */
+	private static class Synchronized {
+		private final Map<String, CacheEntry> mCache = new WeakHashMap<>();
+
+		/**
+		 * The keys put, held so the collector does not clear their entries in the middle of a run, as it could the
+		 * old cache's.
+		 */
+		private final List<String> mKeys = new ArrayList<>();
+
+		synchronized void put(String location, WeatherData data) {
+			String key = location.trim().toLowerCase(Locale.US);
+			mKeys.add(key);
+			mCache.put(key, new CacheEntry(System.currentTimeMillis(), data));
+		}
+
+		synchronized WeatherData get(String location) {
+			CacheEntry entry = mCache.get(location.trim().toLowerCase(Locale.US));
+			if (entry == null || System.currentTimeMillis() - entry.getTimestamp() >= TTL) {
+				return null;
+			}
+			entry.getData().mCached = true;
+			return entry.getData();
+		}
+	}
+
+	/**
+	 * Hits as Utils serves them now.
+	 */
+	private static class Snapshots {
+		private final AliasIndex mAliases = new AliasIndex(CITIES * 2);
+		private final WeatherCache mCache = new WeatherCache(CITIES * 2, TTL);
+
+		void put(String location, long id, WeatherData data) {
+			String key = LocationKeys.cityIdKey(id);
+			mCache.put(key, data);
+			mAliases.put(LocationKeys.normalize(location), key);
+		}
+
+		WeatherData get(String location) {
+			CacheEntry entry = mCache.get(mAliases.resolve(LocationKeys.normalize(location)));
+			if (entry == null) {
+				return null;
+			}
+			WeatherData data = new WeatherData(entry.getData());
+			data.mCached = true;
+			data.mAge = mCache.getAge(entry);
+			return data;
+		}
+	}
+}
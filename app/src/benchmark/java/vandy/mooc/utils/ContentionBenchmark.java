@@ -0,0 +1,125 @@
+package vandy.mooc.utils;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+import vandy.mooc.jsonweather.WeatherFields;
+
+/**
+ * Throughput of lookups against the number of client threads, through the per-location coalescing Utils does now,
+ * and through one global lock held across the fetch as Utils.getResults() used to. Lookups hit a set of warm cities,
+ * except that one in MISS_RATIO misses and fetches from a StubWeatherFetcher taking FETCH_MILLIS.
+ *
+ * Run with ./gradlew testDebug -Pbenchmarks.
+ */
+public class ContentionBenchmark {
+	private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+	private static final int WARM_CITIES = 100;
+	private static final int MISS_RATIO = 20;
+	private static final long FETCH_MILLIS = 20;
+	private static final long TTL = 600000;
+
+	@Test
+	public void lookupsScaleWithClientThreads() throws Exception {
+		System.out.println("Lookups per second, 1 miss in " + MISS_RATIO + " fetching for " + FETCH_MILLIS + " ms");
+		System.out.println("threads   global lock    coalescing");
+		for (int threads : THREADS) {
+			StubWeatherFetcher fetcher = new StubWeatherFetcher(42, Clock.SYSTEM);
+			double global = Throughput.measure(threads, lookups(new GlobalLock(fetcher), fetcher));
+			fetcher = new StubWeatherFetcher(42, Clock.SYSTEM);
+			double coalesced = Throughput.measure(threads, lookups(new Coalescing(fetcher), fetcher));
+			System.out.printf(Locale.US, "%7d  %12.0f  %12.0f%n", threads, global, coalesced);
+		}
+	}
+
+	/**
+	 * Warm @a lookup up with the cities, then slow @a fetcher, which it fetches from, down.
+	 */
+	private static Throughput.Operation lookups(final Lookup lookup, StubWeatherFetcher fetcher) throws Exception {
+		for (int i = 0; i < WARM_CITIES; i++) {
+			lookup.get("city " + i);
+		}
+		fetcher.setLatency(FETCH_MILLIS, 0);
+		return new Throughput.Operation() {
+			private final long[] mMisses = new long[THREADS[THREADS.length - 1]];
+
+			@Override
+			public void run(int thread) throws Exception {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				if (random.nextInt(MISS_RATIO) == 0) {
+					lookup.get("cold " + thread + " " + mMisses[thread]++);
+				} else {
+					lookup.get("city " + random.nextInt(WARM_CITIES));
+				}
+			}
+		};
+	}
+
+	private interface Lookup {
+		WeatherData get(String location) throws Exception;
+	}
+
+	/**
+	 * Lookups as Utils.getResults() made them before coalescing: a static synchronized method holding its lock
+	 * across the fetch.
+	 */
+	private static class GlobalLock implements Lookup {
+		private final Map<String, CacheEntry> mCache = new WeakHashMap<>();
+		private final WeatherFetcher mFetcher;
+
+		GlobalLock(WeatherFetcher fetcher) {
+			mFetcher = fetcher;
+		}
+
+		@Override
+		public synchronized WeatherData get(String location) throws Exception {
+			CacheEntry entry = mCache.get(location);
+			if (entry != null && System.currentTimeMillis() - entry.getTimestamp() < TTL) {
+				return entry.getData();
+			}
+			WeatherData data = toWeatherData(mFetcher.fetch(location, null, FetchPriority.INTERACTIVE).getFields());
+			mCache.put(location, new CacheEntry(System.currentTimeMillis(), data));
+			return data;
+		}
+	}
+
+	/**
+	 * Lookups as Utils.getResults() makes them now: a lock-free cache read, and a miss coalesced with any other miss
+	 * of the same location.
+	 */
+	private static class Coalescing implements Lookup {
+		private final WeatherCache mCache = new WeatherCache(WARM_CITIES * 100, TTL);
+		private final SingleFlight<String, WeatherData> mInFlight = new SingleFlight<>();
+		private final WeatherFetcher mFetcher;
+
+		Coalescing(WeatherFetcher fetcher) {
+			mFetcher = fetcher;
+		}
+
+		@Override
+		public WeatherData get(final String location) {
+			CacheEntry entry = mCache.get(location);
+			if (entry != null) {
+				return entry.getData();
+			}
+			return mInFlight.execute(location, new Callable<WeatherData>() {
+				@Override
+				public WeatherData call() throws Exception {
+					WeatherData data = toWeatherData(mFetcher.fetch(location, null, FetchPriority.INTERACTIVE).getFields());
+					mCache.put(location, data);
+					return data;
+				}
+			});
+		}
+	}
+
+	static WeatherData toWeatherData(WeatherFields fields) {
+		return new WeatherData(fields.getName(), fields.getIcon(), fields.getSpeed(), fields.getDeg(), fields.getTemp(), fields.getPressure(), fields.getHumidity(), fields.getSunrise(), fields.getSunset());
+	}
+}
@@ -0,0 +1,91 @@
+package vandy.mooc.utils;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+
+/**
+ * Memory held by the object-based WeatherCache and by the PackedWeatherStore for 10k, 100k and 1M cities: the heap
+ * they retain, measured after collecting garbage, plus the direct memory of the store's slots. Every city has its own
+ * name, and one of the Weather Service's icon codes, as a real cache would, and is measured with and without an ETag
+ * of its own.
+ *
+ * Run with ./gradlew testDebug -Pbenchmarks.
+ */
+public class FootprintBenchmark {
+	private static final int[] CITIES = { 10000, 100000, 1000000 };
+	private static final String[] ICONS = { "01d", "01n", "02d", "02n", "03d", "03n", "04d", "04n", "09d", "09n", "10d", "10n", "11d", "11n", "13d", "13n", "50d", "50n" };
+	private static final long TTL = 600000;
+
+	@Test
+	public void packedStoreWithValidators() {
+		measure(true);
+	}
+
+	/**
+	 * Entries without an ETag, as responses sent without one are cached, leave the store only the names to intern.
+	 */
+	@Test
+	public void packedStoreWithoutValidators() {
+		measure(false);
+	}
+
+	private static void measure(boolean validators) {
+		System.out.println("Bytes retained per city, " + (validators ? "each with its own ETag" : "without validators"));
+		System.out.println("  cities  WeatherCache  PackedWeatherStore");
+		for (int cities : CITIES) {
+			long before = used();
+			WeatherCache cache = new WeatherCache(cities, TTL);
+			for (int i = 0; i < cities; i++) {
+				cache.put(LocationKeys.cityIdKey(i), entry(i, validators));
+			}
+			long objects = used() - before;
+			if (cache.size() != cities) {
+				throw new AssertionError(cache.size() + " cities cached");
+			}
+			cache = null;
+
+			before = used();
+			PackedWeatherStore store = new PackedWeatherStore(cities);
+			for (int i = 0; i < cities; i++) {
+				store.put(LocationKeys.cityIdKey(i), entry(i, validators));
+			}
+			long packed = used() - before;
+			if (store.size() != cities) {
+				throw new AssertionError(store.size() + " cities stored");
+			}
+			store = null;
+
+			System.out.printf(Locale.US, "%8d  %12.1f  %18.1f%n", cities, (double) objects / cities, (double) packed / cities);
+		}
+	}
+
+	private static CacheEntry entry(int city, boolean validators) {
+		long now = System.currentTimeMillis();
+		WeatherData data = new WeatherData("Town" + city, ICONS[city % ICONS.length], 4.1, 230, 12.5 + city % 40, 1012, 81, 1431405600L + city, 1431461400L + city);
+		return new CacheEntry(now, data, TTL, now / 1000, validators ? "\"" + Integer.toHexString(city) + "-1431435983\"" : null, null, 450);
+	}
+
+	/**
+	 * @return The bytes of heap and direct memory in use after collecting garbage.
+	 */
+	private static long used() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// A single System.gc() may leave garbage behind, so take the least of several.
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				used += pool.getMemoryUsed();
+			}
+		}
+		return used;
+	}
+}
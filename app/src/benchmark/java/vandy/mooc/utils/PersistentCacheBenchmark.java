@@ -0,0 +1,129 @@
+package vandy.mooc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import vandy.mooc.aidl.WeatherData;
+
+/**
+ * What the persistent cache buys a restarted service. Opening it costs a scan of the file, which grows with the number
+ * of cities stored, and in return the first lookup of each of them is a read of the mapped file instead of a fetch.
+ * Lookups through the in-memory cache, the persistent cache and the network, here a StubWeatherFetcher with a median
+ * latency of FETCH_MILLIS, are timed one at a time.
+ *
+ * Run with ./gradlew testDebug -Pbenchmarks.
+ */
+public class PersistentCacheBenchmark {
+	private static final int[] CITIES = { 1000, 10000, 50000 };
+	private static final int CAPACITY = 32 * 1024 * 1024;
+	private static final long MAX_AGE = 3 * 3600 * 1000;
+	private static final int OPENS = 7;
+	private static final int LOOKUPS = 100000;
+	private static final int FETCHES = 50;
+	private static final long FETCH_MILLIS = 150;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	@Test
+	public void openingScalesWithStoredCities() throws IOException {
+		System.out.println("Opening the persistent cache, median of " + OPENS);
+		System.out.println(" cities    bytes        ms");
+		for (int cities : CITIES) {
+			File file = fill(cities);
+			long[] samples = new long[OPENS];
+			for (int i = 0; i < OPENS; i++) {
+				long start = System.nanoTime();
+				PersistentWeatherCache cache = PersistentWeatherCache.open(file, CAPACITY, MAX_AGE, Clock.SYSTEM);
+				samples[i] = System.nanoTime() - start;
+				if (cache.size() != cities) {
+					throw new AssertionError(cache.size() + " cities read back, " + cities + " stored");
+				}
+				cache.close();
+			}
+			System.out.printf(Locale.US, "%7d  %7d  %8.2f%n", cities, file.length(), Throughput.median(samples) / 1e6);
+		}
+	}
+
+	@Test
+	public void hitsAreServedFasterThanFetches() throws IOException {
+		int cities = CITIES[1];
+		PersistentWeatherCache disk = PersistentWeatherCache.open(fill(cities), CAPACITY, MAX_AGE, Clock.SYSTEM);
+		WeatherCache memory = new WeatherCache(cities, MAX_AGE);
+		for (int i = 0; i < cities; i++) {
+			memory.put(key(i), disk.get(key(i)));
+		}
+		StubWeatherFetcher network = new StubWeatherFetcher(42, Clock.SYSTEM);
+		network.setLatency(FETCH_MILLIS, 0.5);
+
+		// Let the JIT compile the lookups before timing them.
+		lookups(memory, disk, cities);
+		long[] fromMemory = lookups(memory, null, cities);
+		long[] fromDisk = lookups(null, disk, cities);
+		long[] fromNetwork = new long[FETCHES];
+		for (int i = 0; i < FETCHES; i++) {
+			long start = System.nanoTime();
+			ContentionBenchmark.toWeatherData(network.fetch("city " + i, null, FetchPriority.INTERACTIVE).getFields());
+			fromNetwork[i] = System.nanoTime() - start;
+		}
+		disk.close();
+
+		System.out.println("Lookup latency of " + cities + " cities, in microseconds");
+		System.out.println("tier          median       p99");
+		print("memory", fromMemory);
+		print("persistent", fromDisk);
+		print("network", fromNetwork);
+	}
+
+	/**
+	 * Time a lookup of each of a random sequence of LOOKUPS of the first @a cities cities in @a memory, if given, and
+	 * in @a disk, if given.
+	 */
+	private static long[] lookups(WeatherCache memory, PersistentWeatherCache disk, int cities) {
+		Random random = new Random(42);
+		long[] samples = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			String key = key(random.nextInt(cities));
+			long start = System.nanoTime();
+			CacheEntry entry = memory != null ? memory.get(key) : null;
+			if (disk != null) {
+				entry = disk.get(key);
+			}
+			samples[i] = System.nanoTime() - start;
+			if (entry == null) {
+				throw new AssertionError("Miss on " + key);
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * @return A new cache file holding an entry for each of @a cities cities.
+	 */
+	private File fill(int cities) throws IOException {
+		File file = new File(mFolder.getRoot(), "weather-" + cities + ".cache");
+		PersistentWeatherCache cache = PersistentWeatherCache.open(file, CAPACITY, MAX_AGE, Clock.SYSTEM);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < cities; i++) {
+			WeatherData data = new WeatherData("City " + i, "04d", 4.1, 230, 12.5, 1012, 81, 1431405600L + i, 1431461400L + i);
+			cache.put(key(i), new CacheEntry(now, data, 600000, now, "\"" + Integer.toHexString(i) + "\"", null, 450));
+		}
+		cache.close();
+		return file;
+	}
+
+	private static String key(int city) {
+		return LocationKeys.cityIdKey(1000000 + city);
+	}
+
+	private static void print(String tier, long[] samples) {
+		long median = Throughput.median(samples);
+		System.out.printf(Locale.US, "%-10s  %8.1f  %8.1f%n", tier, median / 1e3, samples[samples.length * 99 / 100] / 1e3);
+	}
+}
@@ -0,0 +1,96 @@
+package vandy.mooc.utils;
+
+import java.util.Arrays;
+
+/**
+ * Measures the throughput of an operation run in a loop by a number of threads at once. Each thread runs it through a
+ * warm-up period, which lets the JIT compile it, and then through the measured period. Only operations completed
+ * during the measured period count.
+ */
+final class Throughput {
+	/**
+	 * Length of the measured period in milliseconds, -Dbenchmark.millis=... to change it. The warm-up takes half as
+	 * long.
+	 */
+	static final long MEASURE_MILLIS = Long.getLong("benchmark.millis", 2000);
+
+	private static final int WARMING_UP = 0;
+	private static final int MEASURING = 1;
+	private static final int STOPPED = 2;
+
+	/**
+	 * An operation to measure, told which of the threads runs it, numbered from 0.
+	 */
+	interface Operation {
+		void run(int thread) throws Exception;
+	}
+
+	private volatile int mPhase = WARMING_UP;
+
+	private Throughput() {
+	}
+
+	/**
+	 * Run @a operation on @a threads threads at once.
+	 *
+	 * @return The operations completed per second by all threads together during the measured period.
+	 */
+	static double measure(int threads, Operation operation) throws Exception {
+		return new Throughput().run(threads, operation);
+	}
+
+	private double run(int threads, final Operation operation) throws Exception {
+		final long[] counts = new long[threads];
+		final Throwable[] failures = new Throwable[threads];
+		Thread[] runners = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int thread = i;
+			runners[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long count = 0;
+					try {
+						for (int phase; (phase = mPhase) != STOPPED;) {
+							operation.run(thread);
+							if (phase == MEASURING) {
+								count++;
+							}
+						}
+					} catch (Exception | Error e) {
+						failures[thread] = e;
+					}
+					counts[thread] = count;
+				}
+			}, "Benchmark-" + i);
+			runners[i].setDaemon(true);
+			runners[i].start();
+		}
+
+		Thread.sleep(MEASURE_MILLIS / 2);
+		mPhase = MEASURING;
+		long start = System.nanoTime();
+		Thread.sleep(MEASURE_MILLIS);
+		mPhase = STOPPED;
+		long elapsed = System.nanoTime() - start;
+
+		long total = 0;
+		for (int i = 0; i < threads; i++) {
+			runners[i].join();
+			if (failures[i] instanceof Error) {
+				throw (Error) failures[i];
+			} else if (failures[i] != null) {
+				throw (Exception) failures[i];
+			}
+			total += counts[i];
+		}
+		return total * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return The median of @a samples, which are sorted in place.
+	 */
+	static long median(long[] samples) {
+		Arrays.sort(samples);
+		return samples[samples.length / 2];
+	}
+}
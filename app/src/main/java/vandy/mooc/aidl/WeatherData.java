@@ -37,6 +37,7 @@ public class WeatherData implements Parcelable {
 	public long mSunrise;
 	public long mSunset;
 	public boolean mCached;
+	public long mAge;
 
 	/**
 	 * Constructor
@@ -60,6 +61,26 @@ public class WeatherData implements Parcelable {
 		mSunrise = sunrise;
 		mSunset = sunset;
 		mCached = false;
+		mAge = 0;
+	}
+
+	/**
+	 * Copy constructor
+	 *
+	 * @param other
+	 */
+	public WeatherData(WeatherData other) {
+		mName = other.mName;
+		mIcon = other.mIcon;
+		mSpeed = other.mSpeed;
+		mDeg = other.mDeg;
+		mPressure = other.mPressure;
+		mTemp = other.mTemp;
+		mHumidity = other.mHumidity;
+		mSunrise = other.mSunrise;
+		mSunset = other.mSunset;
+		mCached = other.mCached;
+		mAge = other.mAge;
 	}
 
 	/**
@@ -67,7 +88,7 @@ public class WeatherData implements Parcelable {
 	 */
 	@Override
 	public String toString() {
-		return "WeatherData [name=" + mName + ", speed=" + mSpeed + ", deg=" + mDeg + ", temp=" + mTemp + ", humidity=" + mHumidity + ", sunrise=" + mSunrise + ", sunset=" + mSunset + "]";
+		return "WeatherData [name=" + mName + ", speed=" + mSpeed + ", deg=" + mDeg + ", temp=" + mTemp + ", humidity=" + mHumidity + ", sunrise=" + mSunrise + ", sunset=" + mSunset + ", cached=" + mCached + ", age=" + mAge + "]";
 	}
 
 	/*
@@ -97,6 +118,7 @@ public class WeatherData implements Parcelable {
 		dest.writeLong(mSunset);
 		dest.writeDouble(mPressure);
 		dest.writeValue(mCached);
+		dest.writeLong(mAge);
 	}
 
 	/**
@@ -118,6 +140,7 @@ public class WeatherData implements Parcelable {
 		mSunset = in.readLong();
 		mPressure = in.readDouble();
 		mCached = (boolean) in.readValue(null);
+		mAge = in.readLong();
 	}
 
 	/**
@@ -3,10 +3,13 @@ package vandy.mooc.jsonweather;
 import java.util.ArrayList;
 import java.util.List;
 
+import vandy.mooc.processor.JsonModel;
+
 /**
  * This "Plain Ol' Java Object" (POJO) class represents data of interest downloaded in Json from the Weather Service. We
  * don't care about all the data, just the fields defined in this class.
  */
+@JsonModel
 public class JsonWeather {
 	/**
 	 * Various tags corresponding to data downloaded in Json from the Weather Service.
@@ -36,6 +39,26 @@ public class JsonWeather {
 	private long mCod;
 	private String mMessage;
 
+	/**
+	 * Most recycled JsonWeather graphs kept for reuse by obtain().
+	 */
+	private static final int MAX_POOL_SIZE = 64;
+
+	private static final ModelPool<JsonWeather> pool = new ModelPool<JsonWeather>(MAX_POOL_SIZE);
+
+	/**
+	 * Finds graphs obtained from the pool but never recycled, while leak detection is on.
+	 */
+	private static final LeakDetector leaks = new LeakDetector(JsonWeather.class.getSimpleName());
+	private static volatile boolean detectingLeaks;
+
+	/**
+	 * Whether this JsonWeather is in the pool, to catch it being recycled twice, and its leak tracker if it is being
+	 * tracked.
+	 */
+	private boolean mRecycled;
+	private LeakDetector.Tracker mTracker;
+
 	/**
 	 * Constructor that initializes all the fields of interest.
 	 */
@@ -202,4 +225,87 @@ public class JsonWeather {
 	public void setMessage(String message) {
 		this.mMessage = message;
 	}
+
+	/**
+	 * @return A recycled JsonWeather if one is available, or a new one, with every field cleared. If it is recycled,
+	 *         its Sys, Main and Wind are obtained from their own pools as they are parsed, and its weather List is
+	 *         reused.
+	 */
+	public static JsonWeather obtain() {
+		JsonWeather weather = pool.acquire();
+		if (weather == null) {
+			weather = new JsonWeather();
+		}
+		weather.mRecycled = false;
+		if (detectingLeaks) {
+			weather.mTracker = leaks.track(weather);
+		}
+		return weather;
+	}
+
+	/**
+	 * Clear every field. The weather List is emptied rather than dropped, so it can be reused.
+	 */
+	public void reset() {
+		mSys = null;
+		mBase = null;
+		mMain = null;
+		if (mWeather != null) {
+			mWeather.clear();
+		}
+		mWind = null;
+		mDt = 0;
+		mId = 0;
+		mName = null;
+		mCod = 0;
+		mMessage = null;
+	}
+
+	/**
+	 * Recycle this JsonWeather and the objects it holds, and keep them for reuse by obtain(). None of them may be used
+	 * afterwards.
+	 *
+	 * @throws IllegalStateException if it has already been recycled.
+	 */
+	public void recycle() {
+		if (mRecycled) {
+			throw new IllegalStateException("JsonWeather recycled twice");
+		}
+		mRecycled = true;
+		if (mTracker != null) {
+			leaks.untrack(mTracker);
+			mTracker = null;
+		}
+		if (mSys != null) {
+			mSys.recycle();
+		}
+		if (mMain != null) {
+			mMain.recycle();
+		}
+		if (mWind != null) {
+			mWind.recycle();
+		}
+		if (mWeather != null) {
+			for (Weather weather : mWeather) {
+				weather.recycle();
+			}
+		}
+		reset();
+		pool.release(this);
+	}
+
+	/**
+	 * Report JsonWeather graphs obtained but garbage collected without being recycled, with where they were obtained,
+	 * if @a detect is true. Only meant for debug builds, as it records a stack trace for each graph obtained.
+	 */
+	static void setLeakDetection(boolean detect) {
+		detectingLeaks = detect;
+	}
+
+	/**
+	 * @return The number of leaked graphs found while leak detection was on.
+	 */
+	static long getLeakCount() {
+		return leaks.getLeakCount();
+	}
 }
@@ -0,0 +1,87 @@
+package vandy.mooc.jsonweather;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Reports pooled objects that are garbage collected without having been recycled, with the stack trace of where they
+ * were obtained. Recording a stack trace for each object is costly, so it is only done in debug builds, when asked for.
+ */
+final class LeakDetector {
+	private static final String TAG = LeakDetector.class.getSimpleName();
+
+	/**
+	 * Tracks an object from the time it is obtained until it is recycled.
+	 */
+	static final class Tracker extends WeakReference<Object> {
+		private final Throwable mObtainedAt;
+
+		Tracker(Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			mObtainedAt = new Throwable("Obtained here");
+		}
+	}
+
+	private final String mName;
+	private final ReferenceQueue<Object> mCollected = new ReferenceQueue<>();
+
+	/**
+	 * Trackers of the objects obtained and not yet recycled, which must stay reachable to be enqueued.
+	 */
+	private final Set<Tracker> mLive = Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+	private final AtomicLong mLeaks = new AtomicLong();
+
+	/**
+	 * Create a detector for objects described by @a name in its reports.
+	 */
+	LeakDetector(String name) {
+		mName = name;
+	}
+
+	/**
+	 * Start tracking @a object, which has just been obtained, and report any leaks found since the last call.
+	 *
+	 * @return The tracker to hand to untrack() when @a object is recycled.
+	 */
+	Tracker track(Object object) {
+		report();
+		Tracker tracker = new Tracker(object, mCollected);
+		mLive.add(tracker);
+		return tracker;
+	}
+
+	/**
+	 * Stop tracking the object of @a tracker, which is being recycled.
+	 */
+	void untrack(Tracker tracker) {
+		mLive.remove(tracker);
+		tracker.clear();
+	}
+
+	/**
+	 * @return The number of leaks found so far.
+	 */
+	long getLeakCount() {
+		report();
+		return mLeaks.get();
+	}
+
+	/**
+	 * Log the objects collected while still tracked.
+	 */
+	private void report() {
+		Tracker tracker;
+		while ((tracker = (Tracker) mCollected.poll()) != null) {
+			if (mLive.remove(tracker)) {
+				mLeaks.incrementAndGet();
+				Log.w(TAG, "A " + mName + " was garbage collected without being recycled", tracker.mObtainedAt);
+			}
+		}
+	}
+}
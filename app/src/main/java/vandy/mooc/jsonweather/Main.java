@@ -1,20 +1,23 @@
 package vandy.mooc.jsonweather;
 
+import vandy.mooc.processor.JsonModel;
+
 /**
  * This "Plain Ol' Java Object" (POJO) class represents data related to temperature, pressure, and humidity downloaded
  * in Json from the Weather Service.
  */
+@JsonModel
 public class Main {
 	/**
 	 * Various tags corresponding to temperature, pressure, and humidity data downloaded in Json from the Weather
 	 * Service.
 	 */
 	public final static String temp_JSON = "temp";
-	public final static String tempMin_JSON = "tempMin";
-	public final static String tempMax_JSON = "tempMax";
+	public final static String tempMin_JSON = "temp_min";
+	public final static String tempMax_JSON = "temp_max";
 	public final static String pressure_JSON = "pressure";
-	public final static String seaLevel_JSON = "seaLevel";
-	public final static String grndLevel_JSON = "grndLevel";
+	public final static String seaLevel_JSON = "sea_level";
+	public final static String grndLevel_JSON = "grnd_level";
 	public final static String humidity_JSON = "humidity";
 
 	/**
@@ -29,6 +32,13 @@ public class Main {
 	private double mGrndLevel;
 	private long mHumidity;
 
+	/**
+	 * Most recycled Main objects kept for reuse by obtain().
+	 */
+	private static final int MAX_POOL_SIZE = 64;
+
+	private static final ModelPool<Main> pool = new ModelPool<Main>(MAX_POOL_SIZE);
+
 	/**
 	 * @return The temperature
 	 */
@@ -133,4 +143,33 @@ public class Main {
 	public void setHumidity(long humidity) {
 		mHumidity = humidity;
 	}
+
+	/**
+	 * @return A recycled Main if one is available, or a new one, with every field cleared.
+	 */
+	public static Main obtain() {
+		Main main = pool.acquire();
+		return main != null ? main : new Main();
+	}
+
+	/**
+	 * Clear every field.
+	 */
+	public void reset() {
+		mTemp = 0;
+		mTempMin = 0;
+		mTempMax = 0;
+		mPressure = 0;
+		mSeaLevel = 0;
+		mGrndLevel = 0;
+		mHumidity = 0;
+	}
+
+	/**
+	 * Reset this Main and keep it for reuse by obtain(). It must not be used afterwards.
+	 */
+	void recycle() {
+		reset();
+		pool.release(this);
+	}
 }
@@ -0,0 +1,65 @@
+package vandy.mooc.jsonweather;
+
+/**
+ * A bounded pool of recycled instances of one of the jsonweather classes. The instances are small, so they are kept on
+ * a locked array stack rather than in a concurrent queue, which would allocate a node for each one released. Until
+ * something is released, acquire() always comes back empty. While recycling is off, which it is by default, pools
+ * neither keep nor hand out instances, and never take their lock.
+ */
+final class ModelPool<T> {
+	/**
+	 * Whether recycling is on, see WeatherJSONParser.setRecycling().
+	 */
+	private static volatile boolean enabled;
+	/**
+	 * Idle instances, guarded by this.
+	 */
+	private final Object[] mIdle;
+	private int mIdleCount;
+
+	/**
+	 * Create a pool keeping at most @a maxIdle instances.
+	 */
+	ModelPool(int maxIdle) {
+		mIdle = new Object[maxIdle];
+	}
+
+	/**
+	 * Turn recycling on or off for every pool.
+	 */
+	static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * @return An idle instance, or null if there is none or recycling is off.
+	 */
+	@SuppressWarnings("unchecked")
+	T acquire() {
+		if (!enabled) {
+			return null;
+		}
+		synchronized (this) {
+			if (mIdleCount == 0) {
+				return null;
+			}
+			T item = (T) mIdle[--mIdleCount];
+			mIdle[mIdleCount] = null;
+			return item;
+		}
+	}
+
+	/**
+	 * Keep @a item for reuse, unless recycling is off or the pool is full, in which case it is left to the collector.
+	 */
+	void release(T item) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			if (mIdleCount < mIdle.length) {
+				mIdle[mIdleCount++] = item;
+			}
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package vandy.mooc.jsonweather;
 
+import vandy.mooc.processor.JsonModel;
+
 /**
  * This "Plain Ol' Java Object" (POJO) class represents system data downloaded in Json from the Weather Service.
  */
+@JsonModel
 public class Sys {
 	/**
 	 * Various tags corresponding to system data downloaded in Json from the Weather Service.
@@ -20,6 +23,13 @@ public class Sys {
 	private long mSunrise;
 	private long mSunset;
 
+	/**
+	 * Most recycled Sys objects kept for reuse by obtain().
+	 */
+	private static final int MAX_POOL_SIZE = 64;
+
+	private static final ModelPool<Sys> pool = new ModelPool<Sys>(MAX_POOL_SIZE);
+
 	/**
 	 * @return The message
 	 */
@@ -79,4 +89,30 @@ public class Sys {
 	public void setSunset(long sunset) {
 		mSunset = sunset;
 	}
+
+	/**
+	 * @return A recycled Sys if one is available, or a new one, with every field cleared.
+	 */
+	public static Sys obtain() {
+		Sys sys = pool.acquire();
+		return sys != null ? sys : new Sys();
+	}
+
+	/**
+	 * Clear every field.
+	 */
+	public void reset() {
+		mMessage = 0;
+		mCountry = null;
+		mSunrise = 0;
+		mSunset = 0;
+	}
+
+	/**
+	 * Reset this Sys and keep it for reuse by obtain(). It must not be used afterwards.
+	 */
+	void recycle() {
+		reset();
+		pool.release(this);
+	}
 }
@@ -0,0 +1,86 @@
+package vandy.mooc.jsonweather;
+
+import java.io.Reader;
+
+/**
+ * A Reader that decodes UTF-8 straight out of a byte array into the caller's buffer. Unlike an InputStreamReader over
+ * a ByteArrayInputStream, it allocates no byte buffer or CharsetDecoder of its own. Malformed input is decoded as
+ * U+FFFD.
+ */
+class Utf8Reader extends Reader {
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private final byte[] mBytes;
+	private final int mEnd;
+	private int mPosition;
+
+	/**
+	 * Low half of a surrogate pair still to be returned, or 0.
+	 */
+	private char mPendingLow;
+
+	/**
+	 * Read the first @a length bytes of @a bytes.
+	 */
+	Utf8Reader(byte[] bytes, int length) {
+		mBytes = bytes;
+		mEnd = length;
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int count) {
+		if (count == 0) {
+			return 0;
+		}
+		int n = 0;
+		if (mPendingLow != 0) {
+			buffer[offset + n++] = mPendingLow;
+			mPendingLow = 0;
+		}
+		while (n < count && mPosition < mEnd) {
+			int b = mBytes[mPosition++];
+			if (b >= 0) {
+				buffer[offset + n++] = (char) b;
+				continue;
+			}
+			int codePoint;
+			int extra;
+			if ((b & 0xE0) == 0xC0) {
+				codePoint = b & 0x1F;
+				extra = 1;
+			} else if ((b & 0xF0) == 0xE0) {
+				codePoint = b & 0x0F;
+				extra = 2;
+			} else if ((b & 0xF8) == 0xF0) {
+				codePoint = b & 0x07;
+				extra = 3;
+			} else {
+				buffer[offset + n++] = REPLACEMENT;
+				continue;
+			}
+			while (extra > 0 && mPosition < mEnd && (mBytes[mPosition] & 0xC0) == 0x80) {
+				codePoint = (codePoint << 6) | (mBytes[mPosition++] & 0x3F);
+				extra--;
+			}
+			if (extra > 0) {
+				buffer[offset + n++] = REPLACEMENT;
+			} else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				buffer[offset + n++] = (char) codePoint;
+			} else if (codePoint <= Character.MAX_CODE_POINT) {
+				buffer[offset + n++] = Character.highSurrogate(codePoint);
+				if (n < count) {
+					buffer[offset + n++] = Character.lowSurrogate(codePoint);
+				} else {
+					mPendingLow = Character.lowSurrogate(codePoint);
+				}
+			} else {
+				buffer[offset + n++] = REPLACEMENT;
+			}
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -1,9 +1,12 @@
 package vandy.mooc.jsonweather;
 
+import vandy.mooc.processor.JsonModel;
+
 /**
  * This "Plain Ol' Java Object" (POJO) class represents data related to weather downloaded in Json from the Weather
  * Service.
  */
+@JsonModel
 public class Weather {
 	/**
 	 * Various tags corresponding to weather data downloaded in Json from the Weather Service.
@@ -21,6 +24,13 @@ public class Weather {
 	private String description;
 	private String icon;
 
+	/**
+	 * Most recycled Weather objects kept for reuse by obtain().
+	 */
+	private static final int MAX_POOL_SIZE = 128;
+
+	private static final ModelPool<Weather> pool = new ModelPool<Weather>(MAX_POOL_SIZE);
+
 	/**
 	 * 
 	 * @return The id
@@ -88,4 +98,30 @@ public class Weather {
 	public void setIcon(String icon) {
 		this.icon = icon;
 	}
+
+	/**
+	 * @return A recycled Weather if one is available, or a new one, with every field cleared.
+	 */
+	public static Weather obtain() {
+		Weather weather = pool.acquire();
+		return weather != null ? weather : new Weather();
+	}
+
+	/**
+	 * Clear every field.
+	 */
+	public void reset() {
+		id = 0;
+		main = null;
+		description = null;
+		icon = null;
+	}
+
+	/**
+	 * Reset this Weather and keep it for reuse by obtain(). It must not be used afterwards.
+	 */
+	void recycle() {
+		reset();
+		pool.release(this);
+	}
 }
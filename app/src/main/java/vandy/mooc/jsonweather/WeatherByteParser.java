@@ -0,0 +1,627 @@
+package vandy.mooc.jsonweather;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Parses a Json response of the Weather Services API in a single pass over its UTF-8 bytes, straight into a
+ * WeatherFields holder. Field names are matched against precomputed byte keys, numbers are parsed without building
+ * Strings, and every subtree the app does not use is skipped, so the only allocations are the few Strings kept in the
+ * holder. The WeatherJSONParser remains the reference; both read the same fields the same way.
+ *
+ * A parser keeps its position between calls, so it must only be used by one thread at a time. It can be reused for
+ * any number of parses.
+ */
+public class WeatherByteParser {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Keys of the fields read, in the encoding of the response.
+	 */
+	private static final byte[] COD = key(JsonWeather.cod_JSON);
+	private static final byte[] MESSAGE = key(JsonWeather.message_JSON);
+	private static final byte[] NAME = key(JsonWeather.name_JSON);
+	private static final byte[] ID = key(JsonWeather.id_JSON);
+	private static final byte[] DT = key(JsonWeather.dt_JSON);
+	private static final byte[] WIND = key(JsonWeather.wind_JSON);
+	private static final byte[] MAIN = key(JsonWeather.main_JSON);
+	private static final byte[] WEATHER = key(JsonWeather.weather_JSON);
+	private static final byte[] SYS = key(JsonWeather.sys_JSON);
+	private static final byte[] ICON = key(Weather.icon_JSON);
+	private static final byte[] TEMP = key(Main.temp_JSON);
+	private static final byte[] PRESSURE = key(Main.pressure_JSON);
+	private static final byte[] HUMIDITY = key(Main.humidity_JSON);
+	private static final byte[] SPEED = key(Wind.speed_JSON);
+	private static final byte[] DEG = key(Wind.deg_JSON);
+	private static final byte[] COUNTRY = key(Sys.country_JSON);
+	private static final byte[] SUNRISE = key(Sys.sunrise_JSON);
+	private static final byte[] SUNSET = key(Sys.sunset_JSON);
+
+	/**
+	 * Powers of ten that are exact doubles, for the fast path of number parsing.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private byte[] mData;
+	private int mEnd;
+	private int mPosition;
+
+	/**
+	 * Bounds of the last key or string read, and whether it contained escapes.
+	 */
+	private int mTokenStart;
+	private int mTokenEnd;
+	private boolean mTokenEscaped;
+
+	/**
+	 * Required fields not read yet, and whether the last parse stopped once there were none left.
+	 */
+	private int mPending;
+	private boolean mStoppedEarly;
+
+	/**
+	 * Parse the first @a length bytes of @a data, a response for one location, into @a fields, which is reset first.
+	 * Like the WeatherJSONParser, anything after the end of the response object is ignored.
+	 *
+	 * @return @a fields.
+	 * @throws IOException if the response is not well-formed Json or a field has the wrong type.
+	 */
+	public WeatherFields parse(byte[] data, int length, WeatherFields fields) throws IOException {
+		return parse(data, length, fields, WeatherFields.ALL_FIELDS);
+	}
+
+	/**
+	 * Parse like parse(byte[], int, WeatherFields), but stop as soon as every field in the projection @a required, an
+	 * or-ing of WeatherFields.FIELD_* flags, has been read. Other fields are read if they come first. The rest of the
+	 * response is neither read nor checked to be well-formed. A response lacking some required field is read to its
+	 * end, as error responses, which carry only a cod and a message, always are. Stopping saves parse work only, since
+	 * @a data has already been received in full.
+	 *
+	 * @return @a fields.
+	 * @throws IOException if the part of the response read is not well-formed Json or a field has the wrong type.
+	 */
+	public WeatherFields parse(byte[] data, int length, WeatherFields fields, int required) throws IOException {
+		mData = data;
+		mEnd = length;
+		mPosition = 0;
+		mPending = required;
+		fields.reset();
+		try {
+			parseWeather(fields);
+			return fields;
+		} finally {
+			mData = null;
+		}
+	}
+
+	/**
+	 * @return Whether the last parse stopped before the end of the response because every required field was read.
+	 */
+	public boolean stoppedEarly() {
+		return mStoppedEarly;
+	}
+
+	private void parseWeather(WeatherFields fields) throws IOException {
+		mStoppedEarly = false;
+		beginObject();
+		for (boolean first = true; nextKey(first); first = false) {
+			if (keyIs(MAIN)) {
+				parseMain(fields);
+			} else if (keyIs(WIND)) {
+				parseWind(fields);
+			} else if (keyIs(SYS)) {
+				parseSys(fields);
+			} else if (keyIs(WEATHER)) {
+				parseWeathers(fields);
+			} else if (keyIs(NAME)) {
+				fields.mName = nextString();
+				read(WeatherFields.FIELD_NAME);
+			} else if (keyIs(ID)) {
+				fields.mId = nextLong();
+				read(WeatherFields.FIELD_ID);
+			} else if (keyIs(DT)) {
+				fields.mDt = nextLong();
+				read(WeatherFields.FIELD_DT);
+			} else if (keyIs(COD)) {
+				fields.mCod = nextLong();
+				read(WeatherFields.FIELD_COD);
+			} else if (keyIs(MESSAGE)) {
+				fields.mMessage = nextString();
+				read(WeatherFields.FIELD_MESSAGE);
+			} else {
+				skipValue();
+			}
+			if (mPending == 0) {
+				mStoppedEarly = true;
+				return;
+			}
+		}
+	}
+
+	private void parseMain(WeatherFields fields) throws IOException {
+		beginObject();
+		for (boolean first = true; nextKey(first); first = false) {
+			if (keyIs(TEMP)) {
+				fields.mTemp = nextDouble();
+				read(WeatherFields.FIELD_TEMP);
+			} else if (keyIs(PRESSURE)) {
+				fields.mPressure = nextDouble();
+				read(WeatherFields.FIELD_PRESSURE);
+			} else if (keyIs(HUMIDITY)) {
+				fields.mHumidity = nextLong();
+				read(WeatherFields.FIELD_HUMIDITY);
+			} else {
+				skipValue();
+			}
+			if (mPending == 0) {
+				return;
+			}
+		}
+	}
+
+	private void parseWind(WeatherFields fields) throws IOException {
+		beginObject();
+		for (boolean first = true; nextKey(first); first = false) {
+			if (keyIs(SPEED)) {
+				fields.mSpeed = nextDouble();
+				read(WeatherFields.FIELD_SPEED);
+			} else if (keyIs(DEG)) {
+				fields.mDeg = nextDouble();
+				read(WeatherFields.FIELD_DEG);
+			} else {
+				skipValue();
+			}
+			if (mPending == 0) {
+				return;
+			}
+		}
+	}
+
+	private void parseSys(WeatherFields fields) throws IOException {
+		beginObject();
+		for (boolean first = true; nextKey(first); first = false) {
+			if (keyIs(COUNTRY)) {
+				fields.mCountry = nextString();
+				read(WeatherFields.FIELD_COUNTRY);
+			} else if (keyIs(SUNRISE)) {
+				fields.mSunrise = nextLong();
+				read(WeatherFields.FIELD_SUNRISE);
+			} else if (keyIs(SUNSET)) {
+				fields.mSunset = nextLong();
+				read(WeatherFields.FIELD_SUNSET);
+			} else {
+				skipValue();
+			}
+			if (mPending == 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the icon of the first weather condition, the only one the app shows, and skip the rest.
+	 */
+	private void parseWeathers(WeatherFields fields) throws IOException {
+		expect('[');
+		for (boolean first = true; nextElement(first); first = false) {
+			if (!first) {
+				skipValue();
+				continue;
+			}
+			beginObject();
+			for (boolean firstKey = true; nextKey(firstKey); firstKey = false) {
+				if (keyIs(ICON)) {
+					fields.mIcon = nextString();
+					read(WeatherFields.FIELD_ICON);
+				} else {
+					skipValue();
+				}
+				if (mPending == 0) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Note that the @a field has been read.
+	 */
+	private void read(int field) {
+		mPending &= ~field;
+	}
+
+	private void beginObject() throws IOException {
+		expect('{');
+	}
+
+	/**
+	 * Read the next key of the current object, and the colon after it. Keys after the @a first must follow a comma.
+	 *
+	 * @return true if there is one, or false if the object has ended.
+	 */
+	private boolean nextKey(boolean first) throws IOException {
+		skipWhitespace();
+		byte b = peek();
+		if (b == '}') {
+			mPosition++;
+			return false;
+		}
+		if (!first) {
+			if (b != ',') {
+				throw error("Expected ',' or '}'");
+			}
+			mPosition++;
+			skipWhitespace();
+			b = peek();
+		}
+		if (b != '"') {
+			throw error("Expected a name");
+		}
+		readString();
+		skipWhitespace();
+		expect(':');
+		return true;
+	}
+
+	/**
+	 * Move to the next element of the current array. Elements after the @a first must follow a comma.
+	 *
+	 * @return true if there is one, or false if the array has ended.
+	 */
+	private boolean nextElement(boolean first) throws IOException {
+		skipWhitespace();
+		byte b = peek();
+		if (b == ']') {
+			mPosition++;
+			return false;
+		}
+		if (!first) {
+			if (b != ',') {
+				throw error("Expected ',' or ']'");
+			}
+			mPosition++;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether the last key read is @a key. Keys with escapes never match, as none of ours need them.
+	 */
+	private boolean keyIs(byte[] key) {
+		if (mTokenEscaped || mTokenEnd - mTokenStart != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (mData[mTokenStart + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read a string whose opening quote is at the current position, leaving its bounds in mTokenStart and mTokenEnd.
+	 */
+	private void readString() throws IOException {
+		mPosition++;
+		mTokenStart = mPosition;
+		mTokenEscaped = false;
+		while (mPosition < mEnd) {
+			byte b = mData[mPosition];
+			if (b == '"') {
+				mTokenEnd = mPosition++;
+				return;
+			}
+			if (b == '\\') {
+				mTokenEscaped = true;
+				mPosition++;
+			}
+			mPosition++;
+		}
+		throw error("Unterminated string");
+	}
+
+	/**
+	 * @return The next value as a String. Numbers are returned as written, as JsonReader.nextString() does.
+	 */
+	private String nextString() throws IOException {
+		skipWhitespace();
+		byte b = peek();
+		if (b == '"') {
+			readString();
+			return mTokenEscaped ? unescape(mTokenStart, mTokenEnd) : new String(mData, mTokenStart, mTokenEnd - mTokenStart, UTF_8);
+		}
+		if (b == '-' || (b >= '0' && b <= '9')) {
+			int start = mPosition;
+			parseNumber();
+			return new String(mData, start, mPosition - start, UTF_8);
+		}
+		throw error("Expected a string");
+	}
+
+	/**
+	 * @return The next value as a long. Quoted numbers are accepted, as JsonReader.nextLong() does, and so are
+	 *         numbers with a fraction or exponent whose value is a whole number, and numbers overflowing a long by
+	 *         less than the precision of a double.
+	 */
+	private long nextLong() throws IOException {
+		skipWhitespace();
+		boolean quoted = peek() == '"';
+		if (quoted) {
+			mPosition++;
+		}
+		int start = mPosition;
+		boolean negative = false;
+		if (mPosition < mEnd && mData[mPosition] == '-') {
+			negative = true;
+			mPosition++;
+		}
+		rejectLeadingZero();
+		// Accumulate negatively, since Long.MIN_VALUE has no positive counterpart.
+		long value = 0;
+		boolean overflow = false;
+		int digits = 0;
+		while (mPosition < mEnd && mData[mPosition] >= '0' && mData[mPosition] <= '9') {
+			int digit = mData[mPosition++] - '0';
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				overflow = true;
+			}
+			value = value * 10 - digit;
+			digits++;
+		}
+		if (digits == 0) {
+			throw error("Expected a number");
+		}
+		if (overflow || (!negative && value == Long.MIN_VALUE) || (mPosition < mEnd && (mData[mPosition] == '.' || mData[mPosition] == 'e' || mData[mPosition] == 'E'))) {
+			// Rare: fall back to the general path and insist on a whole number in range. Like JsonReader.nextLong(),
+			// this takes a number just past the range, which rounds to the same double as the bound, as the bound.
+			mPosition = start;
+			double d = parseNumber();
+			value = (long) d;
+			if (value != d) {
+				throw error("Expected a long");
+			}
+		} else if (!negative) {
+			value = -value;
+		}
+		if (quoted) {
+			expect('"');
+		}
+		return value;
+	}
+
+	/**
+	 * @return The next value as a double. Quoted numbers are accepted, as JsonReader.nextDouble() does.
+	 */
+	private double nextDouble() throws IOException {
+		skipWhitespace();
+		boolean quoted = peek() == '"';
+		if (quoted) {
+			mPosition++;
+		}
+		double value = parseNumber();
+		if (quoted) {
+			expect('"');
+		}
+		return value;
+	}
+
+	/**
+	 * Parse the number at the current position. Numbers with at most 15 significant digits and a small exponent, which
+	 * covers every number the Weather Service sends, are computed exactly from their digits; others fall back to
+	 * Double.parseDouble().
+	 */
+	private double parseNumber() throws IOException {
+		int start = mPosition;
+		boolean negative = false;
+		if (mPosition < mEnd && mData[mPosition] == '-') {
+			negative = true;
+			mPosition++;
+		}
+		rejectLeadingZero();
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean any = false;
+		while (mPosition < mEnd && mData[mPosition] >= '0' && mData[mPosition] <= '9') {
+			if (mantissa != 0 || mData[mPosition] != '0') {
+				digits++;
+			}
+			if (digits <= 18) {
+				mantissa = mantissa * 10 + (mData[mPosition] - '0');
+			} else {
+				scale++;
+			}
+			mPosition++;
+			any = true;
+		}
+		if (!any) {
+			throw error("Expected a number");
+		}
+		if (mPosition < mEnd && mData[mPosition] == '.') {
+			mPosition++;
+			if (mPosition >= mEnd || mData[mPosition] < '0' || mData[mPosition] > '9') {
+				throw error("Malformed number");
+			}
+			while (mPosition < mEnd && mData[mPosition] >= '0' && mData[mPosition] <= '9') {
+				if (mantissa != 0 || mData[mPosition] != '0') {
+					digits++;
+				}
+				if (digits <= 18) {
+					mantissa = mantissa * 10 + (mData[mPosition] - '0');
+					scale--;
+				}
+				mPosition++;
+			}
+		}
+		if (mPosition < mEnd && (mData[mPosition] == 'e' || mData[mPosition] == 'E')) {
+			mPosition++;
+			boolean negativeExponent = false;
+			if (mPosition < mEnd && (mData[mPosition] == '+' || mData[mPosition] == '-')) {
+				negativeExponent = mData[mPosition] == '-';
+				mPosition++;
+			}
+			int exponent = 0;
+			boolean exponentDigits = false;
+			while (mPosition < mEnd && mData[mPosition] >= '0' && mData[mPosition] <= '9') {
+				if (exponent < 10000) {
+					exponent = exponent * 10 + (mData[mPosition] - '0');
+				}
+				mPosition++;
+				exponentDigits = true;
+			}
+			if (!exponentDigits) {
+				throw error("Malformed number");
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+
+		if (digits <= 15 && scale >= -22 && scale <= 22) {
+			// Both the mantissa and the power of ten are exact doubles, so one operation rounds correctly.
+			double value = scale >= 0 ? mantissa * POWERS_OF_TEN[scale] : mantissa / POWERS_OF_TEN[-scale];
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(new String(mData, start, mPosition - start, UTF_8));
+		} catch (NumberFormatException e) {
+			throw error("Malformed number");
+		}
+	}
+
+	/**
+	 * Skip the value at the current position, with any values nested in it, checking that they are well-formed.
+	 */
+	private void skipValue() throws IOException {
+		skipWhitespace();
+		switch (peek()) {
+			case '{':
+				mPosition++;
+				for (boolean first = true; nextKey(first); first = false) {
+					skipValue();
+				}
+				break;
+			case '[':
+				mPosition++;
+				for (boolean first = true; nextElement(first); first = false) {
+					skipValue();
+				}
+				break;
+			case '"':
+				readString();
+				break;
+			case 't':
+				expectLiteral("true");
+				break;
+			case 'f':
+				expectLiteral("false");
+				break;
+			case 'n':
+				expectLiteral("null");
+				break;
+			default:
+				parseNumber();
+				break;
+		}
+	}
+
+	/**
+	 * Fail if the number at the current position, after any sign, has a leading zero, which Json does not allow.
+	 */
+	private void rejectLeadingZero() throws IOException {
+		if (mPosition + 1 < mEnd && mData[mPosition] == '0' && mData[mPosition + 1] >= '0' && mData[mPosition + 1] <= '9') {
+			throw error("Malformed number");
+		}
+	}
+
+	private void expectLiteral(String literal) throws IOException {
+		for (int i = 0; i < literal.length(); i++) {
+			if (mPosition >= mEnd || mData[mPosition++] != literal.charAt(i)) {
+				throw error("Malformed literal");
+			}
+		}
+	}
+
+	private void expect(char c) throws IOException {
+		skipWhitespace();
+		if (peek() != c) {
+			throw error("Expected '" + c + "'");
+		}
+		mPosition++;
+	}
+
+	private byte peek() throws IOException {
+		if (mPosition >= mEnd) {
+			throw error("Unexpected end of the response");
+		}
+		return mData[mPosition];
+	}
+
+	private void skipWhitespace() {
+		while (mPosition < mEnd) {
+			byte b = mData[mPosition];
+			if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+				return;
+			}
+			mPosition++;
+		}
+	}
+
+	/**
+	 * @return The string between @a start and @a end, with its escapes decoded.
+	 */
+	private String unescape(int start, int end) throws IOException {
+		String raw = new String(mData, start, end - start, UTF_8);
+		StringBuilder builder = new StringBuilder(raw.length());
+		for (int i = 0; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (c != '\\') {
+				builder.append(c);
+				continue;
+			}
+			if (++i >= raw.length()) {
+				throw error("Malformed escape");
+			}
+			c = raw.charAt(i);
+			switch (c) {
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'n':
+					builder.append('\n');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'u':
+					if (i + 4 >= raw.length()) {
+						throw error("Malformed escape");
+					}
+					try {
+						builder.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+					} catch (NumberFormatException e) {
+						throw error("Malformed escape");
+					}
+					i += 4;
+					break;
+				default:
+					builder.append(c);
+					break;
+			}
+		}
+		return builder.toString();
+	}
+
+	private IOException error(String message) {
+		return new IOException(message + " at offset " + mPosition);
+	}
+
+	private static byte[] key(String name) {
+		return name.getBytes(UTF_8);
+	}
+}
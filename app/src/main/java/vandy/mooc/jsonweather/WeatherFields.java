@@ -0,0 +1,189 @@
+package vandy.mooc.jsonweather;
+
+/**
+ * A flat, mutable holder for the fields of a Weather Service response that the app uses, filled by the
+ * WeatherByteParser without building the JsonWeather object graph. Holders can be reset and reused.
+ */
+public class WeatherFields {
+	/**
+	 * Flags naming each field, to be or-ed together into a projection for the WeatherByteParser.
+	 */
+	public static final int FIELD_COD = 1;
+	public static final int FIELD_MESSAGE = 1 << 1;
+	public static final int FIELD_ID = 1 << 2;
+	public static final int FIELD_DT = 1 << 3;
+	public static final int FIELD_NAME = 1 << 4;
+	public static final int FIELD_COUNTRY = 1 << 5;
+	public static final int FIELD_ICON = 1 << 6;
+	public static final int FIELD_SPEED = 1 << 7;
+	public static final int FIELD_DEG = 1 << 8;
+	public static final int FIELD_TEMP = 1 << 9;
+	public static final int FIELD_PRESSURE = 1 << 10;
+	public static final int FIELD_HUMIDITY = 1 << 11;
+	public static final int FIELD_SUNRISE = 1 << 12;
+	public static final int FIELD_SUNSET = 1 << 13;
+	public static final int ALL_FIELDS = (1 << 14) - 1;
+
+	/**
+	 * Various fields corresponding to data downloaded in Json from the Weather Service.
+	 */
+	long mCod;
+	String mMessage;
+	long mId;
+	long mDt;
+	String mName;
+	String mCountry;
+	String mIcon;
+	double mSpeed;
+	double mDeg;
+	double mTemp;
+	double mPressure;
+	long mHumidity;
+	long mSunrise;
+	long mSunset;
+
+	/**
+	 * Clear every field, so the holder can be filled again.
+	 */
+	public void reset() {
+		mCod = 0;
+		mMessage = null;
+		mId = 0;
+		mDt = 0;
+		mName = null;
+		mCountry = null;
+		mIcon = null;
+		mSpeed = 0;
+		mDeg = 0;
+		mTemp = 0;
+		mPressure = 0;
+		mHumidity = 0;
+		mSunrise = 0;
+		mSunset = 0;
+	}
+
+	/**
+	 * Fill the holder from @a weather, as parsed by the WeatherJSONParser. Parts missing from @a weather are left
+	 * cleared.
+	 */
+	public WeatherFields set(JsonWeather weather) {
+		reset();
+		mCod = weather.getCod();
+		mMessage = weather.getMessage();
+		mId = weather.getId();
+		mDt = weather.getDt();
+		mName = weather.getName();
+		if (weather.getSys() != null) {
+			mCountry = weather.getSys().getCountry();
+			mSunrise = weather.getSys().getSunrise();
+			mSunset = weather.getSys().getSunset();
+		}
+		if (weather.getWeather() != null && !weather.getWeather().isEmpty()) {
+			mIcon = weather.getWeather().get(0).getIcon();
+		}
+		if (weather.getWind() != null) {
+			mSpeed = weather.getWind().getSpeed();
+			mDeg = weather.getWind().getDeg();
+		}
+		if (weather.getMain() != null) {
+			mTemp = weather.getMain().getTemp();
+			mPressure = weather.getMain().getPressure();
+			mHumidity = weather.getMain().getHumidity();
+		}
+		return this;
+	}
+
+	public long getCod() {
+		return mCod;
+	}
+
+	/**
+	 * Overrides the cod, which entries of a group response do not carry.
+	 */
+	public void setCod(long cod) {
+		mCod = cod;
+	}
+
+	public String getMessage() {
+		return mMessage;
+	}
+
+	public long getId() {
+		return mId;
+	}
+
+	public long getDt() {
+		return mDt;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public String getCountry() {
+		return mCountry;
+	}
+
+	/**
+	 * @return The icon of the first weather condition.
+	 */
+	public String getIcon() {
+		return mIcon;
+	}
+
+	public double getSpeed() {
+		return mSpeed;
+	}
+
+	public double getDeg() {
+		return mDeg;
+	}
+
+	public double getTemp() {
+		return mTemp;
+	}
+
+	public double getPressure() {
+		return mPressure;
+	}
+
+	public long getHumidity() {
+		return mHumidity;
+	}
+
+	public long getSunrise() {
+		return mSunrise;
+	}
+
+	public long getSunset() {
+		return mSunset;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof WeatherFields)) {
+			return false;
+		}
+		WeatherFields other = (WeatherFields) o;
+		return mCod == other.mCod && equal(mMessage, other.mMessage) && mId == other.mId && mDt == other.mDt //
+				&& equal(mName, other.mName) && equal(mCountry, other.mCountry) && equal(mIcon, other.mIcon) //
+				&& Double.compare(mSpeed, other.mSpeed) == 0 && Double.compare(mDeg, other.mDeg) == 0 //
+				&& Double.compare(mTemp, other.mTemp) == 0 && Double.compare(mPressure, other.mPressure) == 0 //
+				&& mHumidity == other.mHumidity && mSunrise == other.mSunrise && mSunset == other.mSunset;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (mId ^ (mId >>> 32)) * 31 + (int) (mDt ^ (mDt >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "WeatherFields [cod=" + mCod + ", message=" + mMessage + ", id=" + mId + ", dt=" + mDt + ", name=" + mName + ", country=" + mCountry + ", icon=" + mIcon + ", speed=" + mSpeed + ", deg=" + mDeg + ", temp=" + mTemp
+				+ ", pressure=" + mPressure + ", humidity=" + mHumidity + ", sunrise=" + mSunrise + ", sunset=" + mSunset + "]";
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
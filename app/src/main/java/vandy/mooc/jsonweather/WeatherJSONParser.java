@@ -6,8 +6,9 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
+import vandy.mooc.BuildConfig;
+import vandy.mooc.utils.Logger;
 import android.util.JsonReader;
-import android.util.Log;
 
 /**
  * Parses the Json weather data returned from the Weather Services API and returns a List of JsonWeather objects that
@@ -20,261 +21,138 @@ public class WeatherJSONParser {
 	private final String TAG = this.getClass().getCanonicalName();
 
 	/**
-	 * Parse the @a inputStream and convert it into a List of JsonWeather objects.
+	 * Tag of the array of cities in a response from the group endpoint.
 	 */
-	public JsonWeather parseJsonStream(InputStream inputStream) throws IOException {
-		try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"))) {
-			Log.d(TAG, "Parsing the results returned as an array");
+	final public static String list_JSON = "list";
 
-			// Handle the array returned from the Acronym Service.
-			return parseJsonWeather(reader);
-		}
+	/**
+	 * Whether graphs handed to recycle() are kept for reuse by later parses. Off by default.
+	 */
+	private static volatile boolean recycling;
+
+	/**
+	 * Keep the JsonWeather graphs handed to recycle() for reuse by later parses if @a recycle is true, so parsing stops
+	 * allocating model objects once the pools have filled, or leave them to the collector otherwise. In debug builds,
+	 * graphs that are parsed but never recycled are also logged with where they were parsed if @a detectLeaks is
+	 * true.
+	 */
+	public static void setRecycling(boolean recycle, boolean detectLeaks) {
+		recycling = recycle;
+		ModelPool.setEnabled(recycle);
+		JsonWeather.setLeakDetection(BuildConfig.DEBUG && recycle && detectLeaks);
 	}
 
 	/**
-	 * Parse a Json stream and return a JsonWeather object.
+	 * Recycle @a weather, a graph returned by a parse, if recycling is on. Neither it nor anything it holds may be used
+	 * afterwards.
 	 */
-	public JsonWeather parseJsonWeather(JsonReader reader) throws IOException {
-		reader.beginObject();
+	public static void recycle(JsonWeather weather) {
+		if (recycling && weather != null) {
+			weather.recycle();
+		}
+	}
 
-		JsonWeather weather = new JsonWeather();
-		try {
-			while (reader.hasNext()) {
-				String name = reader.nextName();
-				switch (name) {
-					case JsonWeather.sys_JSON:
-						weather.setSys(parseSys(reader));
-						Log.d(TAG, "reading " + name + ": " + weather.getSys());
-						break;
-					case JsonWeather.weather_JSON:
-						weather.setWeather(parseWeathers(reader));
-						Log.d(TAG, "reading " + name + ": " + weather.getWeather());
-						break;
-					case JsonWeather.base_JSON:
-						weather.setBase(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + weather.getBase());
-						break;
-					case JsonWeather.main_JSON:
-						weather.setMain(parseMain(reader));
-						Log.d(TAG, "reading " + name + ": " + weather.getMain());
-						break;
-					case JsonWeather.wind_JSON:
-						weather.setWind(parseWind(reader));
-						Log.d(TAG, "reading " + name + ": " + weather.getWind());
-						break;
-					case JsonWeather.dt_JSON:
-						weather.setDt(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + weather.getDt());
-						break;
-					case JsonWeather.id_JSON:
-						weather.setDt(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + weather.getId());
-						break;
-					case JsonWeather.name_JSON:
-						weather.setName(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + weather.getName());
-						break;
-					case JsonWeather.cod_JSON:
-						weather.setCod(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + weather.getCod());
-						break;
-					case JsonWeather.message_JSON:
-						weather.setMessage(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + weather.getMessage());
-						break;
-					default:
-						reader.skipValue();
-						Log.d(TAG, "ignoring " + name);
-						break;
-				}
+	/**
+	 * Recycle every graph in @a weathers, as returned by a group parse, if recycling is on.
+	 */
+	public static void recycle(List<JsonWeather> weathers) {
+		if (recycling) {
+			for (JsonWeather weather : weathers) {
+				weather.recycle();
 			}
-		} finally {
-			reader.endObject();
 		}
-		return weather;
 	}
 
 	/**
-	 * Parse a Json stream and return a List of Weather objects.
+	 * @return The number of graphs found to have been parsed but never recycled while leak detection was on.
 	 */
-	public List<Weather> parseWeathers(JsonReader reader) throws IOException {
-
-		Log.d(TAG, "reading lfs elements");
-
-		reader.beginArray();
-
-		try {
-			List<Weather> weathers = new ArrayList<Weather>();
+	public static long getLeakCount() {
+		return JsonWeather.getLeakCount();
+	}
 
-			while (reader.hasNext()) {
-				weathers.add(parseWeather(reader));
-			}
+	/**
+	 * Parse the @a inputStream and convert it into a List of JsonWeather objects.
+	 */
+	public JsonWeather parseJsonStream(InputStream inputStream) throws IOException {
+		try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"))) {
+			Logger.d(TAG, "Parsing the results returned as an array");
 
-			return weathers;
-		} finally {
-			reader.endArray();
+			// Handle the array returned from the Acronym Service.
+			return parseJsonWeather(reader);
 		}
 	}
 
 	/**
-	 * Parse a Json stream and return a Weather object.
+	 * Parse the first @a length bytes of @a body and convert them into a JsonWeather object. Decodes straight from the
+	 * array, without wrapping it in streams.
 	 */
-	public Weather parseWeather(JsonReader reader) throws IOException {
-		reader.beginObject();
-
-		Weather weather = new Weather();
-		try {
-			while (reader.hasNext()) {
-				String name = reader.nextName();
-				switch (name) {
-					case Weather.id_JSON:
-						weather.setId(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + weather.getId());
-						break;
-					case Weather.main_JSON:
-						weather.setMain(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + weather.getMain());
-						break;
-					case Weather.description_JSON:
-						weather.setDescription(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + weather.getDescription());
-						break;
-					case Weather.icon_JSON:
-						weather.setIcon(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + weather.getIcon());
-						break;
-					default:
-						reader.skipValue();
-						Log.d(TAG, "ignoring " + name);
-						break;
-				}
-			}
-		} finally {
-			reader.endObject();
+	public JsonWeather parseJson(byte[] body, int length) throws IOException {
+		try (JsonReader reader = new JsonReader(new Utf8Reader(body, length))) {
+			return parseJsonWeather(reader);
 		}
-		return weather;
 	}
 
 	/**
-	 * Parse a Json stream and return a Main Object.
+	 * Parse the first @a length bytes of @a body, a response from the group endpoint, and convert them into a List of
+	 * JsonWeather objects. Decodes straight from the array, without wrapping it in streams.
 	 */
-	public Main parseMain(JsonReader reader) throws IOException {
-		reader.beginObject();
-
-		Main main = new Main();
-		try {
-			while (reader.hasNext()) {
-				String name = reader.nextName();
-				switch (name) {
-					case Main.temp_JSON:
-						main.setTemp(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + main.getTemp());
-						break;
-					case Main.tempMax_JSON:
-						main.setTempMax(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + main.getTempMax());
-						break;
-					case Main.tempMin_JSON:
-						main.setTempMin(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + main.getTempMin());
-						break;
-					case Main.pressure_JSON:
-						main.setPressure(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + main.getPressure());
-						break;
-					case Main.seaLevel_JSON:
-						main.setSeaLevel(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + main.getSeaLevel());
-						break;
-					case Main.grndLevel_JSON:
-						main.setGrndLevel(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + main.getGrndLevel());
-						break;
-					case Main.humidity_JSON:
-						main.setHumidity(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + main.getHumidity());
-						break;
-					default:
-						reader.skipValue();
-						Log.d(TAG, "ignoring " + name);
-						break;
-				}
-			}
-		} finally {
-			reader.endObject();
+	public List<JsonWeather> parseJsonGroup(byte[] body, int length) throws IOException {
+		try (JsonReader reader = new JsonReader(new Utf8Reader(body, length))) {
+			return parseJsonGroup(reader);
 		}
-		return main;
 	}
 
 	/**
-	 * Parse a Json stream and return a Wind Object.
+	 * Parse the @a inputStream of a response from the group endpoint, which holds the weather of several cities, and
+	 * convert it into a List of JsonWeather objects.
 	 */
-	public Wind parseWind(JsonReader reader) throws IOException {
-		reader.beginObject();
-
-		Wind wind = new Wind();
-		try {
-			while (reader.hasNext()) {
-				String name = reader.nextName();
-				switch (name) {
-					case Wind.speed_JSON:
-						wind.setSpeed(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + wind.getSpeed());
-						break;
-					case Wind.deg_JSON:
-						wind.setDeg(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + wind.getDeg());
-						break;
-					default:
-						reader.skipValue();
-						Log.d(TAG, "ignoring " + name);
-						break;
-				}
-			}
-		} finally {
-			reader.endObject();
+	public List<JsonWeather> parseJsonGroupStream(InputStream inputStream) throws IOException {
+		try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"))) {
+			return parseJsonGroup(reader);
 		}
-		return wind;
 	}
 
 	/**
-	 * Parse a Json stream and return a Sys Object.
-	 *
-	 * @throws IOException
+	 * Parse a Json stream of a response from the group endpoint and return a List of JsonWeather objects. If the parse
+	 * fails, the cities parsed so far are recycled.
 	 */
-	public Sys parseSys(JsonReader reader) throws IOException {
-		reader.beginObject();
+	public List<JsonWeather> parseJsonGroup(JsonReader reader) throws IOException {
+		Logger.d(TAG, "Parsing the group results");
 
-		Sys sys = new Sys();
+		List<JsonWeather> weathers = new ArrayList<JsonWeather>();
 		try {
+			reader.beginObject();
 			while (reader.hasNext()) {
 				String name = reader.nextName();
 				switch (name) {
-					case Sys.message_JSON:
-						sys.setMessage(reader.nextDouble());
-						Log.d(TAG, "reading " + name + ": " + sys.getMessage());
-						break;
-					case Sys.country_JSON:
-						sys.setCountry(reader.nextString());
-						Log.d(TAG, "reading " + name + ": " + sys.getCountry());
-						break;
-					case Sys.sunrise_JSON:
-						sys.setSunrise(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + sys.getSunrise());
-						break;
-					case Sys.sunset_JSON:
-						sys.setSunset(reader.nextLong());
-						Log.d(TAG, "reading " + name + ": " + sys.getSunset());
+					case list_JSON:
+						reader.beginArray();
+						while (reader.hasNext()) {
+							weathers.add(parseJsonWeather(reader));
+						}
+						reader.endArray();
 						break;
 					default:
 						reader.skipValue();
-						Log.d(TAG, "ignoring " + name);
+						Logger.v(TAG, "ignoring %s", name);
 						break;
 				}
 			}
-		} finally {
 			reader.endObject();
+			return weathers;
+		} catch (IOException | RuntimeException e) {
+			recycle(weathers);
+			throw e;
 		}
-		return sys;
+	}
+
+	/**
+	 * Parse a Json stream and return a JsonWeather object, with the parsers the JsonModelProcessor generates from the
+	 * *_JSON constants of the jsonweather classes.
+	 */
+	public JsonWeather parseJsonWeather(JsonReader reader) throws IOException {
+		JsonWeather weather = JsonWeatherParser.parse(reader);
+		Logger.v(TAG, "read the weather of %s", weather.getName());
+		return weather;
 	}
 }
@@ -1,9 +1,12 @@
 package vandy.mooc.jsonweather;
 
+import vandy.mooc.processor.JsonModel;
+
 /**
  * This "Plain Ol' Java Object" (POJO) class represents data related to wind downloaded in Json from the Weather
  * Service.
  */
+@JsonModel
 public class Wind {
 	/**
 	 * Various tags corresponding to wind data downloaded in Json from the Weather Service.
@@ -17,6 +20,13 @@ public class Wind {
 	private double mSpeed;
 	private double mDeg;
 
+	/**
+	 * Most recycled Wind objects kept for reuse by obtain().
+	 */
+	private static final int MAX_POOL_SIZE = 64;
+
+	private static final ModelPool<Wind> pool = new ModelPool<Wind>(MAX_POOL_SIZE);
+
 	/**
 	 * @return The speed
 	 */
@@ -46,4 +56,28 @@ public class Wind {
 	public void setDeg(double deg) {
 		mDeg = deg;
 	}
+
+	/**
+	 * @return A recycled Wind if one is available, or a new one, with every field cleared.
+	 */
+	public static Wind obtain() {
+		Wind wind = pool.acquire();
+		return wind != null ? wind : new Wind();
+	}
+
+	/**
+	 * Clear every field.
+	 */
+	public void reset() {
+		mSpeed = 0;
+		mDeg = 0;
+	}
+
+	/**
+	 * Reset this Wind and keep it for reuse by obtain(). It must not be used afterwards.
+	 */
+	void recycle() {
+		reset();
+		pool.release(this);
+	}
 }
@@ -1,9 +1,9 @@
 package vandy.mooc.services;
 
+import vandy.mooc.utils.Logger;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
-import android.util.Log;
 
 /**
  * This abstract class extends the Service class and overrides lifecycle callbacks for logging various lifecycle events.
@@ -22,7 +22,7 @@ public abstract class LifecycleLoggingService extends Service {
 		super.onCreate();
 
 		// Service is being created anew.
-		Log.d(TAG, "onCreate() - service created anew");
+		Logger.d(TAG, "onCreate() - service created anew");
 	}
 
 	/**
@@ -30,7 +30,7 @@ public abstract class LifecycleLoggingService extends Service {
 	 */
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
-		Log.d(TAG, "onStartCommand() - intent received");
+		Logger.d(TAG, "onStartCommand() - intent received");
 		return super.onStartCommand(intent, flags, startId);
 	}
 
@@ -39,7 +39,7 @@ public abstract class LifecycleLoggingService extends Service {
 	 */
 	@Override
 	public IBinder onBind(Intent intent) {
-		Log.d(TAG, "onBind() - client has invoked bindService()");
+		Logger.d(TAG, "onBind() - client has invoked bindService()");
 
 		return null;
 	}
@@ -49,7 +49,7 @@ public abstract class LifecycleLoggingService extends Service {
 	 */
 	@Override
 	public boolean onUnbind(Intent intent) {
-		Log.d(TAG, "onUnbind() - client has invoked unbindService()");
+		Logger.d(TAG, "onUnbind() - client has invoked unbindService()");
 		return super.onUnbind(intent);
 	}
 
@@ -59,6 +59,6 @@ public abstract class LifecycleLoggingService extends Service {
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
-		Log.d(TAG, "onDestroy() - service is being shut down");
+		Logger.d(TAG, "onDestroy() - service is being shut down");
 	}
 }
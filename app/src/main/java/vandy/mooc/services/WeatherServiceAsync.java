@@ -1,13 +1,17 @@
 package vandy.mooc.services;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import vandy.mooc.aidl.WeatherData;
 import vandy.mooc.aidl.WeatherRequest;
+import vandy.mooc.utils.FetchExecutor;
+import vandy.mooc.utils.Logger;
 import vandy.mooc.utils.Utils;
 import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
 import android.os.RemoteException;
-import android.util.Log;
 
 /**
  * @class WeatherServiceAsync
@@ -23,6 +27,18 @@ import android.util.Log;
  *        the AIDL interfaces.
  */
 public class WeatherServiceAsync extends LifecycleLoggingService {
+	/**
+	 * Limits of the fetch executor: lookups run at once, and lookups waiting for a thread before new ones are turned
+	 * away.
+	 */
+	private static final int FETCH_THREADS = 4;
+	private static final int FETCH_QUEUE_CAPACITY = 64;
+
+	/**
+	 * Runs the lookups that miss the cache, so Binder threads are never held by a download.
+	 */
+	private FetchExecutor mFetchExecutor;
+
 	/**
 	 * Factory method that makes an Intent used to start the
 	 * WeatherServiceAsync when passed to bindService().
@@ -33,6 +49,51 @@ public class WeatherServiceAsync extends LifecycleLoggingService {
 		return new Intent(context, WeatherServiceAsync.class);
 	}
 
+	/**
+	 * Hook method called when the Service is created. Starts the fetch executor, opens the persistent cache so the
+	 * first lookups after a restart can be served without the network, starts keeping popular locations warm, and warms
+	 * up the connection and parser in the background so the first lookup that misses runs at full speed.
+	 */
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		mFetchExecutor = new FetchExecutor("WeatherFetch", FETCH_THREADS, FETCH_QUEUE_CAPACITY);
+		Utils.openPersistentCache(this);
+		Utils.startPrefetching();
+		Utils.warmUp(this);
+	}
+
+	/**
+	 * Hook method called when the Service is shut down. Stops the fetch executor and sends an error to the clients of
+	 * the lookups still queued, stops prefetching and closes the persistent cache.
+	 */
+	@Override
+	public void onDestroy() {
+		Logger.d(TAG, "Fetch executor: %d completed, %d rejected, peak queue depth %d", mFetchExecutor.getCompletedCount(), mFetchExecutor.getRejectedCount(), mFetchExecutor.getPeakQueueDepth());
+		Logger.d(TAG, "Fetches: %s, quota: %s", Utils.getFetchStats(), Utils.getQuotaStats());
+		for (Runnable dropped : mFetchExecutor.shutdown()) {
+			((Lookup) dropped).cancel();
+		}
+		Utils.stopPrefetching();
+		Utils.closePersistentCache();
+		super.onDestroy();
+	}
+
+	/**
+	 * Print the state of the fetch executor, the fetches and the quota for "adb shell dumpsys activity service
+	 * WeatherServiceAsync".
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		writer.println("Fetch executor:");
+		writer.println("  queue depth: " + mFetchExecutor.getQueueDepth() + " (peak " + mFetchExecutor.getPeakQueueDepth() + ")");
+		writer.println("  active: " + mFetchExecutor.getActiveCount());
+		writer.println("  completed: " + mFetchExecutor.getCompletedCount());
+		writer.println("  rejected: " + mFetchExecutor.getRejectedCount());
+		writer.println("Fetches: " + Utils.getFetchStats());
+		writer.println("Quota: " + Utils.getQuotaStats());
+	}
+
 	/**
 	 * Called when a client (e.g., WeatherActivity) calls bindService()
 	 * with the proper Intent. Returns the implementation of WeatherRequest,
@@ -53,32 +114,82 @@ public class WeatherServiceAsync extends LifecycleLoggingService {
 	 */
 	WeatherRequest.Stub mWeatherRequestImpl = new WeatherRequest.Stub() {
 		/**
-		 * Implement the AIDL WeatherRequest expandWeather() method, which forwards to DownloadUtils getResults() to
-		 * obtain the results from the Weather Web service and then sends the results back to the Activity via a
-		 * callback.
+		 * Implement the AIDL WeatherRequest expandWeather() method. A result in the cache is sent back to the Activity
+		 * at once. Otherwise the lookup is handed to the fetch executor, which forwards to DownloadUtils
+		 * getUncachedResults() to obtain the results from the Weather Web service and then sends them back via a
+		 * callback, and this Binder thread returns right away.
 		 */
 		@Override
-		public void getCurrentWeather(String weather, vandy.mooc.aidl.WeatherResults callback) throws RemoteException {
+		public void getCurrentWeather(final String weather, final vandy.mooc.aidl.WeatherResults callback) throws RemoteException {
+			WeatherData cached = Utils.getCachedResults(weather);
+			if (cached != null) {
+				Logger.d(TAG, "Cached results for weather: %s", weather);
+				callback.sendResults(cached);
+				return;
+			}
 
+			if (!mFetchExecutor.execute(new Lookup(weather, callback))) {
+				Logger.d(TAG, "Fetch queue full, rejecting %s", weather);
+				callback.sendError("Service busy, please try again");
+			}
+		}
+	};
+
+	/**
+	 * A lookup that missed the cache, run on the fetch executor, which sends its results or an error back to the
+	 * client.
+	 */
+	private class Lookup implements Runnable {
+		private final String mWeather;
+		private final vandy.mooc.aidl.WeatherResults mCallback;
+
+		Lookup(String weather, vandy.mooc.aidl.WeatherResults callback) {
+			mWeather = weather;
+			mCallback = callback;
+		}
+
+		@Override
+		public void run() {
+			try {
+				lookup(mWeather, mCallback);
+			} catch (RemoteException e) {
+				Logger.d(TAG, "Client for %s has gone away", mWeather);
+			}
+		}
+
+		/**
+		 * Tell the client that the lookup was dropped without running.
+		 */
+		void cancel() {
+			try {
+				mCallback.sendError("Service stopped, please try again");
+			} catch (RemoteException e) {
+				Logger.d(TAG, "Client for %s has gone away", mWeather);
+			}
+		}
+
+		/**
+		 * Look up @a weather and send the results, or an error, back to @a callback.
+		 */
+		private void lookup(String weather, vandy.mooc.aidl.WeatherResults callback) throws RemoteException {
 			// Call the Weather Web service to get the list of
 			// possible expansions of the designated weather.
 			try {
-				WeatherData weatherResults = Utils.getResults(weather);
+				WeatherData weatherResults = Utils.getUncachedResults(weather);
 
+				// Invoke a one-way callback to send list of weather
+				// expansions back to the WeatherActivity.
 				if (weatherResults != null) {
-					Log.d(TAG, "Results for weather: " + weather);
+					Logger.d(TAG, "Results for weather: %s", weather);
 					callback.sendResults(weatherResults);
 				} else {
-					Log.d(TAG, "No result for " + weather + " found");
+					Logger.d(TAG, "No result for %s found", weather);
 					callback.sendError("No result for " + weather + " found");
 				}
-				// Invoke a one-way callback to send list of weather
-				// expansions back to the WeatherActivity.
-
 			} catch (IllegalArgumentException e) {
-				Log.d(TAG, "Error on getting " + weather + ": " + e.getMessage());
+				Logger.d(TAG, "Error on getting %s: %s", weather, e.getMessage());
 				callback.sendError(e.getMessage());
 			}
 		}
-	};
+	}
 }
@@ -2,12 +2,12 @@ package vandy.mooc.services;
 
 import vandy.mooc.aidl.WeatherCall;
 import vandy.mooc.aidl.WeatherData;
+import vandy.mooc.utils.Logger;
 import vandy.mooc.utils.Utils;
 import android.content.Context;
 import android.content.Intent;
 import android.os.IBinder;
 import android.os.RemoteException;
-import android.util.Log;
 
 /**
  * @class WeatherServiceSync
@@ -32,6 +32,29 @@ public class WeatherServiceSync extends LifecycleLoggingService {
 		return new Intent(context, WeatherServiceSync.class);
 	}
 
+	/**
+	 * Hook method called when the Service is created. Opens the persistent cache so the first lookups after a restart
+	 * can be served without the network, starts keeping popular locations warm, and warms up the connection and parser
+	 * in the background so the first lookup that misses runs at full speed.
+	 */
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		Utils.openPersistentCache(this);
+		Utils.startPrefetching();
+		Utils.warmUp(this);
+	}
+
+	/**
+	 * Hook method called when the Service is shut down. Stops prefetching and closes the persistent cache.
+	 */
+	@Override
+	public void onDestroy() {
+		Utils.stopPrefetching();
+		Utils.closePersistentCache();
+		super.onDestroy();
+	}
+
 	/**
 	 * Called when a client (e.g., WeatherActivity) calls bindService() with the proper Intent. Returns the
 	 * implementation of WeatherCall, which is implicitly cast as an IBinder.
@@ -61,10 +84,10 @@ public class WeatherServiceSync extends LifecycleLoggingService {
 			// possible expansions of the designated weather.
 			try {
 				WeatherData weatherResults = Utils.getResults(weather);
-				Log.d(TAG, "Results for weather: " + weather);
+				Logger.d(TAG, "Results for weather: %s", weather);
 				return weatherResults;
 			} catch (IllegalArgumentException e) {
-				Log.d(TAG, "Error on getting " + weather + ": " + e.getMessage());
+				Logger.d(TAG, "Error on getting %s: %s", weather, e.getMessage());
 				return null;
 			}
 		}
@@ -0,0 +1,212 @@
+package vandy.mooc.utils;
+
+/**
+ * @class AdaptiveLimiter
+ *
+ * @brief Limits the number of calls in flight to an upstream whose latency varies, adapting the limit as it goes.
+ *        The limit grows additively while calls complete close to the lowest latency seen, and shrinks
+ *        multiplicatively when a call fails or takes much longer than that, which is the sign of a queue building up
+ *        upstream. The lowest latency is re-learned periodically, so a lasting change in the upstream's base latency
+ *        does not leave the limit stuck.
+ *
+ *        Callers over the limit wait in a short queue for a slot, and are shed once the queue is full or they have
+ *        waited too long, instead of piling up blocked threads.
+ */
+public class AdaptiveLimiter {
+	/**
+	 * Factor by which the limit shrinks on a failed or slow call.
+	 */
+	private static final double BACKOFF_RATIO = 0.9;
+
+	/**
+	 * Number of samples, or time in milliseconds, after which the lowest latency is re-learned, whichever comes
+	 * first.
+	 */
+	private static final int MIN_LATENCY_WINDOW = 100;
+	private static final long MIN_LATENCY_WINDOW_MILLIS = 10000;
+
+	private final int mMinLimit;
+	private final int mMaxLimit;
+	private final double mTolerance;
+	private final int mMaxWaiters;
+	private final long mMaxWait;
+	private final Clock mClock;
+
+	/**
+	 * State of the limiter, guarded by this.
+	 */
+	private double mLimit;
+	private int mInFlight;
+	private int mWaiters;
+	private long mMinLatency = Long.MAX_VALUE;
+	private long mWindowMinLatency = Long.MAX_VALUE;
+	private int mWindowSamples;
+	private long mWindowStart;
+	private long mShed;
+
+	/**
+	 * Create a limiter starting at @a initialLimit calls in flight and adapting between @a minLimit and
+	 * @a maxLimit. A call taking more than @a tolerance times the lowest latency seen counts as slow. At most
+	 * @a maxWaiters callers wait for a slot, each for at most @a maxWaitMillis.
+	 */
+	public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, int maxWaiters, long maxWaitMillis, Clock clock) {
+		if (minLimit <= 0 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Limits out of order: " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+		}
+		if (tolerance <= 1) {
+			throw new IllegalArgumentException("tolerance must exceed 1: " + tolerance);
+		}
+		mLimit = initialLimit;
+		mMinLimit = minLimit;
+		mMaxLimit = maxLimit;
+		mTolerance = tolerance;
+		mMaxWaiters = maxWaiters;
+		mMaxWait = maxWaitMillis;
+		mClock = clock;
+	}
+
+	/**
+	 * Take a slot for a call, waiting for one if the limit is reached.
+	 *
+	 * @return The permit for the call, to be released when it completes, or null if the call was shed.
+	 */
+	public synchronized Permit acquire() {
+		if (mInFlight >= (int) mLimit) {
+			if (mWaiters >= mMaxWaiters) {
+				mShed++;
+				return null;
+			}
+			long deadline = mClock.currentTimeMillis() + mMaxWait;
+			mWaiters++;
+			try {
+				while (mInFlight >= (int) mLimit) {
+					long remaining = deadline - mClock.currentTimeMillis();
+					if (remaining <= 0) {
+						mShed++;
+						return null;
+					}
+					wait(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				mShed++;
+				return null;
+			} finally {
+				mWaiters--;
+			}
+		}
+		mInFlight++;
+		return new Permit(mClock.currentTimeMillis());
+	}
+
+	/**
+	 * Take a slot for a call if one is free, without waiting.
+	 *
+	 * @return The permit for the call, to be released when it completes, or null if the call was shed.
+	 */
+	public synchronized Permit tryAcquire() {
+		if (mInFlight >= (int) mLimit) {
+			mShed++;
+			return null;
+		}
+		mInFlight++;
+		return new Permit(mClock.currentTimeMillis());
+	}
+
+	/**
+	 * Record the outcome of the call holding @a permit and free its slot.
+	 */
+	private synchronized void release(Permit permit, boolean success) {
+		long now = mClock.currentTimeMillis();
+		long latency = now - permit.mStart;
+		int inFlight = mInFlight;
+		mInFlight--;
+
+		if (success) {
+			mWindowMinLatency = Math.min(mWindowMinLatency, latency);
+			mMinLatency = Math.min(mMinLatency, latency);
+			if (++mWindowSamples >= MIN_LATENCY_WINDOW || now - mWindowStart >= MIN_LATENCY_WINDOW_MILLIS) {
+				mMinLatency = mWindowMinLatency;
+				mWindowMinLatency = Long.MAX_VALUE;
+				mWindowSamples = 0;
+				mWindowStart = now;
+			}
+		}
+
+		if (!success || latency > Math.max(1, mMinLatency) * mTolerance) {
+			mLimit = Math.max(mMinLimit, mLimit * BACKOFF_RATIO);
+		} else if (inFlight >= mLimit / 2) {
+			// Only grow a limit that is being used, adding about one slot per limit's worth of calls.
+			mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Free the slot of @a permit, whose call never reached the upstream, without recording an outcome.
+	 */
+	private synchronized void cancel(Permit permit) {
+		mInFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * @return The current limit on calls in flight.
+	 */
+	public synchronized int getLimit() {
+		return (int) mLimit;
+	}
+
+	/**
+	 * @return The number of calls in flight.
+	 */
+	public synchronized int getInFlight() {
+		return mInFlight;
+	}
+
+	/**
+	 * @return The number of calls shed so far.
+	 */
+	public synchronized long getShedCount() {
+		return mShed;
+	}
+
+	/**
+	 * A slot held by a call in flight.
+	 */
+	public class Permit {
+		private final long mStart;
+		private boolean mReleased;
+
+		Permit(long start) {
+			mStart = start;
+		}
+
+		/**
+		 * Free the slot once the call has completed, @a success being false if it failed. Further calls do nothing.
+		 */
+		public void release(boolean success) {
+			synchronized (AdaptiveLimiter.this) {
+				if (mReleased) {
+					return;
+				}
+				mReleased = true;
+			}
+			AdaptiveLimiter.this.release(this, success);
+		}
+
+		/**
+		 * Free the slot of a call that was turned away before reaching the upstream, so it tells nothing about its
+		 * latency. Further calls, and release(), do nothing.
+		 */
+		public void cancel() {
+			synchronized (AdaptiveLimiter.this) {
+				if (mReleased) {
+					return;
+				}
+				mReleased = true;
+			}
+			AdaptiveLimiter.this.cancel(this);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package vandy.mooc.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @class AliasIndex
+ *
+ * @brief Maps canonical location queries to the key of the city the Weather Service resolved them to, so that every
+ *        spelling of a city shares one cache entry and one download. Lookups take no locks and change no shared
+ *        state beyond a striped counter, since one is made for every request, cache hits included. The index is
+ *        bounded approximately, like the WeatherCache: once it holds more than its maximum, the oldest aliases are
+ *        dropped in the order they were added, and concurrent writers may briefly overshoot the bound.
+ */
+public class AliasIndex {
+	/**
+	 * Maximum number of aliases kept.
+	 */
+	private final int mMaxAliases;
+
+	/**
+	 * Key of the city each query is an alias of.
+	 */
+	private final ConcurrentHashMap<String, String> mAliases = new ConcurrentHashMap<>();
+
+	/**
+	 * Queries in the order their aliases were added, oldest first. May also hold queries already dropped.
+	 */
+	private final ConcurrentLinkedQueue<String> mOrder = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of lookups resolved through an alias.
+	 */
+	private final StripedCounter mResolved = new StripedCounter();
+
+	/**
+	 * Create an index holding at most @a maxAliases aliases.
+	 */
+	public AliasIndex(int maxAliases) {
+		mMaxAliases = maxAliases;
+	}
+
+	/**
+	 * @return The cache key for the canonical query @a query: the key of the city it is an alias of if one is known,
+	 *         otherwise the query's own key.
+	 */
+	public String resolve(String query) {
+		String key = mAliases.get(query);
+		if (key != null) {
+			mResolved.increment();
+			return key;
+		}
+		return LocationKeys.queryKey(query);
+	}
+
+	/**
+	 * Record @a query as an alias of the city cached under @a key.
+	 */
+	public void put(String query, String key) {
+		if (query.equals(key) || mAliases.put(query, key) != null) {
+			return;
+		}
+		mOrder.add(query);
+		while (mAliases.size() > mMaxAliases) {
+			String oldest = mOrder.poll();
+			if (oldest == null) {
+				return;
+			}
+			mAliases.remove(oldest);
+		}
+	}
+
+	/**
+	 * @return The number of aliases currently held.
+	 */
+	public int size() {
+		return mAliases.size();
+	}
+
+	/**
+	 * @return The number of lookups resolved through an alias.
+	 */
+	public long getResolvedCount() {
+		return mResolved.get();
+	}
+}
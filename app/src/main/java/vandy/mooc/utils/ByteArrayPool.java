@@ -0,0 +1,68 @@
+package vandy.mooc.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class ByteArrayPool
+ *
+ * @brief A pool of byte arrays of a fixed size, so response bodies are read into reused arrays instead of fresh
+ *        garbage on every request. At most a fixed number of idle arrays are kept; arrays of another size, or released
+ *        beyond that, are left to the collector.
+ */
+public class ByteArrayPool {
+	private final int mArraySize;
+	private final int mMaxIdle;
+	private final ConcurrentLinkedQueue<byte[]> mIdle = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger mIdleCount = new AtomicInteger();
+	private final AtomicInteger mAllocated = new AtomicInteger();
+
+	/**
+	 * Create a pool of arrays of @a arraySize bytes, keeping at most @a maxIdle of them when not in use.
+	 */
+	public ByteArrayPool(int arraySize, int maxIdle) {
+		mArraySize = arraySize;
+		mMaxIdle = maxIdle;
+	}
+
+	/**
+	 * @return The size in bytes of the pooled arrays.
+	 */
+	public int getArraySize() {
+		return mArraySize;
+	}
+
+	/**
+	 * @return An array of getArraySize() bytes, taken from the pool if one is idle. Its contents are undefined.
+	 */
+	public byte[] acquire() {
+		byte[] array = mIdle.poll();
+		if (array == null) {
+			mAllocated.incrementAndGet();
+			return new byte[mArraySize];
+		}
+		mIdleCount.decrementAndGet();
+		return array;
+	}
+
+	/**
+	 * Return @a array to the pool if it is of the pooled size. It must not be used afterwards.
+	 */
+	public void release(byte[] array) {
+		if (array.length != mArraySize) {
+			return;
+		}
+		if (mIdleCount.incrementAndGet() <= mMaxIdle) {
+			mIdle.offer(array);
+		} else {
+			mIdleCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of arrays allocated over the life of the pool.
+	 */
+	public int getAllocatedCount() {
+		return mAllocated.get();
+	}
+}
@@ -1,23 +1,86 @@
-package vandy.mooc.utils;
-
-import vandy.mooc.aidl.WeatherData;
-
-public class CacheEntry {
-
-	private final long time;
-	private final WeatherData data;
-
-	public CacheEntry(long time, WeatherData data) {
-		this.time = time;
-		this.data = data;
-	}
-
-	public long getTimestamp() {
-		return time;
-	}
-
-	public WeatherData getData() {
-		return data;
-	}
-
-}
+package vandy.mooc.utils;
+
+import vandy.mooc.aidl.WeatherData;
+
+/**
+ * An immutable cached result and the time it was downloaded. The WeatherData it holds is shared with every reader of
+ * the cache, so it must not be modified once cached.
+ *
+ * An entry may also carry its own time-to-live, the observation time of its result, and the HTTP validators and body
+ * size of the response it came from, so it can be revalidated with a conditional request instead of downloaded again,
+ * and given a time-to-live from its observation time again when it is.
+ */
+public class CacheEntry {
+
+	private final long time;
+	private final WeatherData data;
+	private final long ttl;
+	private final long observed;
+	private final String etag;
+	private final String lastModified;
+	private final int bodySize;
+
+	public CacheEntry(long time, WeatherData data) {
+		this(time, data, 0, 0, null, null, 0);
+	}
+
+	public CacheEntry(long time, WeatherData data, long ttl, long observed, String etag, String lastModified, int bodySize) {
+		this.time = time;
+		this.data = data;
+		this.ttl = ttl;
+		this.observed = observed;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.bodySize = bodySize;
+	}
+
+	public long getTimestamp() {
+		return time;
+	}
+
+	public WeatherData getData() {
+		return data;
+	}
+
+	/**
+	 * @return The time in milliseconds this entry stays fresh, or 0 to use the cache's default.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @return The observation time (dt) of the result in seconds, or 0 if unknown.
+	 */
+	public long getObserved() {
+		return observed;
+	}
+
+	/**
+	 * @return The ETag of the response, or null if it had none.
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return The Last-Modified date of the response, or null if it had none.
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return The size in bytes of the response body.
+	 */
+	public int getBodySize() {
+		return bodySize;
+	}
+
+	/**
+	 * @return true if the entry can be revalidated with a conditional request.
+	 */
+	public boolean hasValidators() {
+		return etag != null || lastModified != null;
+	}
+}
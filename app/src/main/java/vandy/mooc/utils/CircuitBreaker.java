@@ -0,0 +1,124 @@
+package vandy.mooc.utils;
+
+/**
+ * @class CircuitBreaker
+ *
+ * @brief Stops calls to an upstream that keeps failing. After a run of consecutive failures the breaker opens and
+ *        every call is refused at once. Once the open period has passed it lets a single trial call through: if that
+ *        succeeds the breaker closes again, otherwise it reopens for another period.
+ */
+public class CircuitBreaker {
+	/**
+	 * States of the breaker.
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int mFailureThreshold;
+	private final long mOpenPeriod;
+	private final Clock mClock;
+
+	/**
+	 * State of the breaker, guarded by this.
+	 */
+	private State mState = State.CLOSED;
+	private int mConsecutiveFailures;
+	private long mOpenedAt;
+	private boolean mTrialInFlight;
+	private long mOpenings;
+	private long mRefused;
+
+	/**
+	 * Create a breaker opening after @a failureThreshold consecutive failures, for @a openPeriodMillis at a time.
+	 */
+	public CircuitBreaker(int failureThreshold, long openPeriodMillis, Clock clock) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+		}
+		mFailureThreshold = failureThreshold;
+		mOpenPeriod = openPeriodMillis;
+		mClock = clock;
+	}
+
+	/**
+	 * Ask to make a call. Every call allowed must be followed by onSuccess() or onFailure().
+	 *
+	 * @return true if the call may go ahead, false if it is refused.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (mState) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (mClock.currentTimeMillis() - mOpenedAt < mOpenPeriod) {
+					mRefused++;
+					return false;
+				}
+				mState = State.HALF_OPEN;
+				mTrialInFlight = true;
+				return true;
+			default:
+				if (mTrialInFlight) {
+					mRefused++;
+					return false;
+				}
+				mTrialInFlight = true;
+				return true;
+		}
+	}
+
+	/**
+	 * Record a successful call.
+	 */
+	public synchronized void onSuccess() {
+		mConsecutiveFailures = 0;
+		mTrialInFlight = false;
+		mState = State.CLOSED;
+	}
+
+	/**
+	 * Record a failed call.
+	 */
+	public synchronized void onFailure() {
+		mTrialInFlight = false;
+		mConsecutiveFailures++;
+		if (mState == State.HALF_OPEN || (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+			mState = State.OPEN;
+			mOpenedAt = mClock.currentTimeMillis();
+			mOpenings++;
+		}
+	}
+
+	/**
+	 * Record a call that was allowed but never reached the upstream, so says nothing about its health.
+	 */
+	public synchronized void onAbandoned() {
+		// Let the next call be the trial, if this was it.
+		mTrialInFlight = false;
+	}
+
+	/**
+	 * @return The current state, with an open breaker whose period has passed reported as half open.
+	 */
+	public synchronized State getState() {
+		if (mState == State.OPEN && mClock.currentTimeMillis() - mOpenedAt >= mOpenPeriod) {
+			return State.HALF_OPEN;
+		}
+		return mState;
+	}
+
+	/**
+	 * @return The number of times the breaker has opened.
+	 */
+	public synchronized long getOpenCount() {
+		return mOpenings;
+	}
+
+	/**
+	 * @return The number of calls refused.
+	 */
+	public synchronized long getRefusedCount() {
+		return mRefused;
+	}
+}
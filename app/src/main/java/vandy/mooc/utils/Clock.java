@@ -0,0 +1,21 @@
+package vandy.mooc.utils;
+
+/**
+ * Source of the current time, so that time-dependent components can be driven by a controllable clock.
+ */
+public interface Clock {
+	/**
+	 * @return The current time in milliseconds.
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * Clock backed by System.currentTimeMillis().
+	 */
+	Clock SYSTEM = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+}
@@ -0,0 +1,48 @@
+package vandy.mooc.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes read through it.
+ */
+public class CountingInputStream extends FilterInputStream {
+	private long mCount;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			mCount++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		int n = super.read(buffer, offset, count);
+		if (n > 0) {
+			mCount += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		mCount += skipped;
+		return skipped;
+	}
+
+	/**
+	 * @return The number of bytes read or skipped so far.
+	 */
+	public long getCount() {
+		return mCount;
+	}
+}
@@ -0,0 +1,60 @@
+package vandy.mooc.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class DirectBufferPool
+ *
+ * @brief A pool of direct ByteBuffers of a fixed size. Direct buffers let channels read without an extra copy, but
+ *        are expensive to allocate and slow to be reclaimed, so they are reused rather than allocated per read. At
+ *        most a fixed number of idle buffers are kept; buffers released beyond that are left to the collector.
+ */
+public class DirectBufferPool {
+	private final int mBufferSize;
+	private final int mMaxIdle;
+	private final ConcurrentLinkedQueue<ByteBuffer> mIdle = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger mIdleCount = new AtomicInteger();
+	private final AtomicInteger mAllocated = new AtomicInteger();
+
+	/**
+	 * Create a pool of buffers of @a bufferSize bytes, keeping at most @a maxIdle of them when not in use.
+	 */
+	public DirectBufferPool(int bufferSize, int maxIdle) {
+		mBufferSize = bufferSize;
+		mMaxIdle = maxIdle;
+	}
+
+	/**
+	 * @return A cleared buffer, taken from the pool if one is idle.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = mIdle.poll();
+		if (buffer == null) {
+			mAllocated.incrementAndGet();
+			return ByteBuffer.allocateDirect(mBufferSize);
+		}
+		mIdleCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Return @a buffer to the pool. It must not be used afterwards.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (mIdleCount.incrementAndGet() <= mMaxIdle) {
+			mIdle.offer(buffer);
+		} else {
+			mIdleCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of buffers allocated over the life of the pool.
+	 */
+	public int getAllocatedCount() {
+		return mAllocated.get();
+	}
+}
@@ -0,0 +1,122 @@
+package vandy.mooc.utils;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+
+/**
+ * @class FetchExecutor
+ *
+ * @brief A bounded pool of background threads for the blocking work of a service, so that Binder threads hand off
+ *        lookups and return at once instead of waiting on the network. Work beyond the threads waits in a queue of
+ *        fixed size, and work arriving when the queue is full is rejected rather than queued without limit, so a
+ *        burst of requests cannot exhaust memory or starve later callers indefinitely.
+ */
+public class FetchExecutor {
+	private final ThreadPoolExecutor mExecutor;
+
+	/**
+	 * Number of tasks rejected because the queue was full or the executor shut down.
+	 */
+	private final AtomicLong mRejected = new AtomicLong();
+
+	/**
+	 * Largest queue depth seen.
+	 */
+	private final AtomicInteger mPeakQueueDepth = new AtomicInteger();
+
+	/**
+	 * Create an executor running at most @a threads tasks at a time, with at most @a queueCapacity more waiting,
+	 * on threads named after @a name.
+	 */
+	public FetchExecutor(final String name, int threads, int queueCapacity) {
+		mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, name + "-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Run @a task on a pool thread, unless the queue is full.
+	 *
+	 * @return true if the task was accepted, false if it was rejected.
+	 */
+	public boolean execute(Runnable task) {
+		try {
+			mExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			mRejected.incrementAndGet();
+			return false;
+		}
+		int depth = mExecutor.getQueue().size();
+		int peak;
+		while (depth > (peak = mPeakQueueDepth.get()) && !mPeakQueueDepth.compareAndSet(peak, depth)) {
+			// retry
+		}
+		return true;
+	}
+
+	/**
+	 * Stop accepting tasks and interrupt the running ones. Queued tasks are dropped.
+	 *
+	 * @return The tasks dropped from the queue, as passed to execute(), so their callers can be told.
+	 */
+	public List<Runnable> shutdown() {
+		return mExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return The number of tasks waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return mExecutor.getQueue().size();
+	}
+
+	/**
+	 * @return The largest number of tasks seen waiting for a thread.
+	 */
+	public int getPeakQueueDepth() {
+		return mPeakQueueDepth.get();
+	}
+
+	/**
+	 * @return The number of tasks currently running.
+	 */
+	public int getActiveCount() {
+		return mExecutor.getActiveCount();
+	}
+
+	/**
+	 * @return The number of tasks rejected so far.
+	 */
+	public long getRejectedCount() {
+		return mRejected.get();
+	}
+
+	/**
+	 * @return The number of tasks run to completion so far.
+	 */
+	public long getCompletedCount() {
+		return mExecutor.getCompletedTaskCount();
+	}
+}
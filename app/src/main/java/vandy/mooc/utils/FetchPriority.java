@@ -0,0 +1,12 @@
+package vandy.mooc.utils;
+
+/**
+ * @enum FetchPriority
+ *
+ * @brief The priority of a fetch for the quota, carried with the fetch from the lookup that needs it down to the
+ *        QuotaManager, whichever thread ends up sending it. Interactive fetches are for lookups a client is waiting
+ *        on; background fetches are refreshes and prefetches nobody is waiting on yet.
+ */
+public enum FetchPriority {
+	INTERACTIVE, BACKGROUND
+}
@@ -0,0 +1,15 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a fetch is turned away before reaching the provider, because the service is protecting itself or the
+ * provider rather than because anything is wrong with the location asked for.
+ */
+public class FetchRejectedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public FetchRejectedException(String message) {
+		super(message);
+	}
+}
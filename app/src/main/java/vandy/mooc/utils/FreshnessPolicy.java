@@ -0,0 +1,69 @@
+package vandy.mooc.utils;
+
+import java.util.Locale;
+
+/**
+ * @class FreshnessPolicy
+ *
+ * @brief Decides how long a downloaded result stays fresh. An explicit Cache-Control max-age from the Weather Service
+ *        wins. Otherwise the result is kept until the next observation is expected, based on the observation time
+ *        (dt) in the result and the interval at which stations report. Either way the time-to-live is clamped between
+ *        a minimum and a maximum.
+ */
+public class FreshnessPolicy {
+	private final long mMinTtl;
+	private final long mMaxTtl;
+	private final long mObservationInterval;
+
+	/**
+	 * Create a policy giving results between @a minTtlMillis and @a maxTtlMillis of freshness, for stations reporting
+	 * every @a observationIntervalMillis.
+	 */
+	public FreshnessPolicy(long minTtlMillis, long maxTtlMillis, long observationIntervalMillis) {
+		mMinTtl = minTtlMillis;
+		mMaxTtl = maxTtlMillis;
+		mObservationInterval = observationIntervalMillis;
+	}
+
+	/**
+	 * @param now the current time in milliseconds.
+	 * @param maxAgeSeconds the Cache-Control max-age of the response, or -1 if it had none.
+	 * @param observedSeconds the observation time (dt) of the result in seconds, or 0 if unknown.
+	 * @return The time-to-live in milliseconds of the result.
+	 */
+	public long ttlFor(long now, long maxAgeSeconds, long observedSeconds) {
+		long ttl;
+		if (maxAgeSeconds >= 0) {
+			ttl = maxAgeSeconds * 1000;
+		} else if (observedSeconds > 0) {
+			ttl = observedSeconds * 1000 + mObservationInterval - now;
+		} else {
+			ttl = mMinTtl;
+		}
+		return Math.max(mMinTtl, Math.min(mMaxTtl, ttl));
+	}
+
+	/**
+	 * @return The max-age in seconds in the Cache-Control header value @a cacheControl, 0 if it forbids reuse without
+	 *         revalidation, or -1 if it says neither.
+	 */
+	public static long parseMaxAge(String cacheControl) {
+		if (cacheControl == null) {
+			return -1;
+		}
+		for (String directive : cacheControl.split(",")) {
+			String trimmed = directive.trim().toLowerCase(Locale.US);
+			if (trimmed.equals("no-cache") || trimmed.equals("no-store")) {
+				return 0;
+			}
+			if (trimmed.startsWith("max-age=")) {
+				try {
+					return Long.parseLong(trimmed.substring("max-age=".length()).trim());
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,111 @@
+package vandy.mooc.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @interface HttpEngine
+ *
+ * @brief Sends HTTP GET requests and reads their responses whole. Implemented by HttpTransport over blocking
+ *        HttpURLConnections and by NioHttpClient over non-blocking channels.
+ */
+public interface HttpEngine {
+	/**
+	 * Send a GET request for @a url with the extra request @a headers, which may be null, and read the response.
+	 *
+	 * @return The response, with its body decoded. It must be closed once the body has been read.
+	 */
+	Response get(URL url, Map<String, String> headers) throws IOException;
+
+	/**
+	 * A response status, headers and body. The body may be held in an array borrowed from a ByteArrayPool, which
+	 * close() gives back, so it is only valid until the response is closed.
+	 */
+	public static class Response implements Closeable {
+		private final int mCode;
+		private final Map<String, List<String>> mHeaders;
+		private byte[] mBody;
+		private final int mLength;
+		private final int mWireLength;
+		private final ByteArrayPool mPool;
+
+		public Response(int code, Map<String, List<String>> headers, byte[] body, int length, int wireLength) {
+			this(code, headers, body, length, wireLength, null);
+		}
+
+		/**
+		 * Create a response whose @a body was borrowed from @a pool, which may be null, and is given back on close().
+		 */
+		public Response(int code, Map<String, List<String>> headers, byte[] body, int length, int wireLength, ByteArrayPool pool) {
+			mCode = code;
+			mHeaders = headers;
+			mBody = body;
+			mLength = length;
+			mWireLength = wireLength;
+			mPool = pool;
+		}
+
+		public int getCode() {
+			return mCode;
+		}
+
+		/**
+		 * @return The last value of the header @a name, or null if the response has none.
+		 */
+		public String getHeader(String name) {
+			for (Map.Entry<String, List<String>> header : mHeaders.entrySet()) {
+				if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+					return header.getValue().get(header.getValue().size() - 1);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return The decoded body. Only the first getLength() bytes are valid, and only until the response is closed.
+		 */
+		public byte[] getBody() {
+			if (mBody == null) {
+				throw new IllegalStateException("Response closed");
+			}
+			return mBody;
+		}
+
+		/**
+		 * @return The length in bytes of the decoded body.
+		 */
+		public int getLength() {
+			return mLength;
+		}
+
+		/**
+		 * @return The number of body bytes received, before decompression.
+		 */
+		public int getWireLength() {
+			return mWireLength;
+		}
+
+		/**
+		 * @return A stream over the decoded body.
+		 */
+		public InputStream openBody() {
+			return new ByteArrayInputStream(getBody(), 0, mLength);
+		}
+
+		/**
+		 * Give the body back to the pool it was borrowed from, if any.
+		 */
+		@Override
+		public void close() {
+			if (mPool != null && mBody != null) {
+				mPool.release(mBody);
+			}
+			mBody = null;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the Weather Service answers a request with an error status. Only server errors and 429 Too Many
+ * Requests may succeed when retried; other client errors, such as 401 Unauthorized or 404 Not Found, never will.
+ */
+public class HttpStatusException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final int mStatus;
+
+	public HttpStatusException(String message, int status) {
+		super(message);
+		mStatus = status;
+	}
+
+	/**
+	 * @return The HTTP status of the response.
+	 */
+	public int getStatus() {
+		return mStatus;
+	}
+
+	/**
+	 * @return true if the request may succeed when retried.
+	 */
+	public boolean isRetryable() {
+		return isRetryable(mStatus);
+	}
+
+	/**
+	 * @return true if a request answered with @a status may succeed when retried.
+	 */
+	public static boolean isRetryable(int status) {
+		return status >= 500 || status == 429;
+	}
+}
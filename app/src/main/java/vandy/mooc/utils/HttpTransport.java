@@ -0,0 +1,90 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @class HttpTransport
+ *
+ * @brief Issues GET requests to the Weather Service over pooled keep-alive connections. HttpURLConnection returns a
+ *        socket to its pool once the response body has been read to the end and closed, so bodies are always drained
+ *        and connections are never disconnect()ed. Requests time out if connecting or reading stalls, ask for a gzip
+ *        body, and read it into an array borrowed from a pool for as long as the response is open.
+ *
+ *        The body is read whole before anything parses it. A parse that stops early therefore hands the connection
+ *        back no sooner. Streaming the parse would not help either, because a connection whose body is left unread
+ *        cannot be reused: closing it early would throw the socket away instead of pooling it.
+ */
+public class HttpTransport implements HttpEngine {
+	/**
+	 * Size in bytes of the pooled body arrays, which holds a group response of 20 cities, and the number kept idle.
+	 * Larger bodies are read into arrays allocated for them.
+	 */
+	private static final int BODY_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_IDLE_BUFFERS = 8;
+
+	private final int mConnectTimeout;
+	private final int mReadTimeout;
+	private final ByteArrayPool mBuffers = new ByteArrayPool(BODY_BUFFER_SIZE, MAX_IDLE_BUFFERS);
+
+	/**
+	 * Create a transport whose requests fail after @a connectTimeoutMillis without a connection or @a readTimeoutMillis
+	 * without data, keeping up to @a maxIdleConnections idle connections per host for reuse.
+	 */
+	public HttpTransport(int connectTimeoutMillis, int readTimeoutMillis, int maxIdleConnections) {
+		mConnectTimeout = connectTimeoutMillis;
+		mReadTimeout = readTimeoutMillis;
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", Integer.toString(maxIdleConnections));
+	}
+
+	/**
+	 * {@inheritDoc} The body of the response is only valid until the response is closed.
+	 */
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(mConnectTimeout);
+		connection.setReadTimeout(mReadTimeout);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		if (headers != null) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+		}
+
+		int code = connection.getResponseCode();
+		byte[] body = mBuffers.acquire();
+		int length = 0;
+		int wireLength = 0;
+		InputStream in = code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+		if (in != null) {
+			try {
+				CountingInputStream counter = new CountingInputStream(in);
+				InputStream decoded = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(counter) : counter;
+				int n;
+				while ((n = decoded.read(body, length, body.length - length)) != -1) {
+					length += n;
+					if (length == body.length) {
+						byte[] grown = new byte[body.length * 2];
+						System.arraycopy(body, 0, grown, 0, length);
+						mBuffers.release(body);
+						body = grown;
+					}
+				}
+				wireLength = (int) counter.getCount();
+			} catch (IOException e) {
+				mBuffers.release(body);
+				throw e;
+			} finally {
+				// Closing a fully read stream hands the connection back to the pool.
+				in.close();
+			}
+		}
+		return new Response(code, connection.getHeaderFields(), body, length, wireLength, mBuffers);
+	}
+}
@@ -0,0 +1,298 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import vandy.mooc.jsonweather.JsonWeather;
+import vandy.mooc.jsonweather.WeatherByteParser;
+import vandy.mooc.jsonweather.WeatherFields;
+import vandy.mooc.jsonweather.WeatherJSONParser;
+import android.util.Log;
+
+/**
+ * @class HttpWeatherFetcher
+ *
+ * @brief Fetches Weather information from the OpenWeatherMap web service over an HttpEngine.
+ */
+public class HttpWeatherFetcher implements WeatherFetcher {
+	/**
+	 * Logging tag used by the debugger.
+	 */
+	private final static String TAG = HttpWeatherFetcher.class.getCanonicalName();
+
+	/**
+	 * URL to the Weather web service.
+	 */
+	private final static String weather_Web_Service_URL = "http://api.openweathermap.org/data/2.5/weather?units=metric&q=";
+
+	/**
+	 * URL to the Weather web service for lookups by city id.
+	 */
+	private final static String weather_Web_Service_Id_URL = "http://api.openweathermap.org/data/2.5/weather?units=metric&id=";
+
+	/**
+	 * URL to the Weather web service for lookups of several cities by id, separated by commas.
+	 */
+	private final static String weather_Web_Service_Group_URL = "http://api.openweathermap.org/data/2.5/group?units=metric&id=";
+
+	/**
+	 * URL requested to open a connection to the Weather web service without asking it for Weather information.
+	 */
+	private final static String weather_Web_Service_Root_URL = "http://api.openweathermap.org/";
+
+	private volatile HttpEngine mEngine;
+
+	/**
+	 * Fields the WeatherByteParser must read before it may stop, as WeatherFields.FIELD_* flags.
+	 */
+	private final int mRequiredFields;
+
+	/**
+	 * Parser shared by every fetch, since it keeps no state between parses. It is the reference for the byte parsers.
+	 */
+	private final WeatherJSONParser mParser = new WeatherJSONParser();
+
+	/**
+	 * Byte parser of each thread, reused across its fetches.
+	 */
+	private final ThreadLocal<WeatherByteParser> mByteParsers = new ThreadLocal<WeatherByteParser>() {
+		@Override
+		protected WeatherByteParser initialValue() {
+			return new WeatherByteParser();
+		}
+	};
+
+	/**
+	 * Whether single fetches are parsed by the WeatherByteParser, and whether its results are checked against the
+	 * WeatherJSONParser.
+	 */
+	private volatile boolean mByteParsing = true;
+	private volatile boolean mVerifyParsing = false;
+	private final AtomicLong mParseMismatches = new AtomicLong();
+
+	/**
+	 * Create a fetcher sending its requests through @a engine, whose byte parses read every response to its end.
+	 */
+	public HttpWeatherFetcher(HttpEngine engine) {
+		this(engine, WeatherFields.ALL_FIELDS);
+	}
+
+	/**
+	 * Create a fetcher sending its requests through @a engine, whose byte parses stop once they have read the
+	 * @a requiredFields, an or-ing of WeatherFields.FIELD_* flags. Fields not required may be left unread. This only
+	 * saves parse work: engines read the body whole, which hands the connection back, before it is parsed.
+	 */
+	public HttpWeatherFetcher(HttpEngine engine, int requiredFields) {
+		mEngine = engine;
+		mRequiredFields = requiredFields;
+	}
+
+	/**
+	 * Send requests through @a engine from now on. Requests already sent complete through the previous one.
+	 */
+	public void setEngine(HttpEngine engine) {
+		mEngine = engine;
+	}
+
+	/**
+	 * Parse single fetches with the WeatherByteParser if @a byteParsing is true, which is the default, or with the
+	 * WeatherJSONParser otherwise. If @a verify is true, every byte parse is also run through the WeatherJSONParser and
+	 * any difference is logged and counted.
+	 */
+	public void setParsing(boolean byteParsing, boolean verify) {
+		mByteParsing = byteParsing;
+		mVerifyParsing = verify;
+	}
+
+	/**
+	 * @return The number of responses the two parsers read differently while verifying.
+	 */
+	public long getParseMismatchCount() {
+		return mParseMismatches.get();
+	}
+
+	@Override
+	public Result fetch(String query, CacheEntry previous, FetchPriority priority) throws IOException {
+		URL url = urlFor(query);
+		Map<String, String> headers = validatorsOf(previous);
+
+		// Sends the GET request and reads the Json results. Error
+		// responses carry their cod and message in the body.
+		try (HttpEngine.Response response = mEngine.get(url, headers)) {
+			return toResult(response, headers != null);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Over a NioHttpClient, no thread waits for the response, which is parsed on its selector thread.
+	 * Over any other engine, fetches on the calling thread.
+	 */
+	@Override
+	public void fetchAsync(String query, CacheEntry previous, FetchPriority priority, final Callback callback) {
+		HttpEngine engine = mEngine;
+		if (!(engine instanceof NioHttpClient)) {
+			Result result;
+			try {
+				result = fetch(query, previous, priority);
+			} catch (IOException e) {
+				callback.onFailure(e);
+				return;
+			}
+			callback.onResult(result);
+			return;
+		}
+
+		URL url;
+		try {
+			url = urlFor(query);
+		} catch (IOException e) {
+			callback.onFailure(e);
+			return;
+		}
+		final boolean conditional = previous != null && previous.hasValidators();
+		((NioHttpClient) engine).get(url, validatorsOf(previous), new NioHttpClient.Callback() {
+			@Override
+			public void onResponse(HttpEngine.Response response) {
+				Result result;
+				try {
+					result = toResult(response, conditional);
+				} catch (IOException e) {
+					callback.onFailure(e);
+					return;
+				} finally {
+					response.close();
+				}
+				callback.onResult(result);
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				callback.onFailure(e);
+			}
+		});
+	}
+
+	/**
+	 * @return The URL of the Weather web service for the canonical @a query.
+	 */
+	private static URL urlFor(String query) throws IOException {
+		// Append the location to create the full URL.
+		URL url = new URL(LocationKeys.isCityId(query) ? weather_Web_Service_Id_URL + query : weather_Web_Service_URL + URLEncoder.encode(query, "UTF-8"));
+		Logger.d(TAG, "Executing request: %s", url);
+		return url;
+	}
+
+	/**
+	 * @return The headers making a fetch conditional on the information cached in @a previous having changed, or
+	 *         null if it is null or has no validators.
+	 */
+	private static Map<String, String> validatorsOf(CacheEntry previous) {
+		if (previous == null || !previous.hasValidators()) {
+			return null;
+		}
+		Map<String, String> headers = new HashMap<>(2);
+		if (previous.getETag() != null) {
+			headers.put("If-None-Match", previous.getETag());
+		}
+		if (previous.getLastModified() != null) {
+			headers.put("If-Modified-Since", previous.getLastModified());
+		}
+		return headers;
+	}
+
+	/**
+	 * Parse @a response, to a request made @a conditional on the information having changed or not, into a result.
+	 *
+	 * @throws HttpStatusException if the response has a status worth retrying, whose body is not a Weather Service
+	 *         answer. Other error statuses, such as 404 for an unknown location, are parsed like any answer.
+	 */
+	private Result toResult(HttpEngine.Response response, boolean conditional) throws IOException {
+		if (HttpStatusException.isRetryable(response.getCode())) {
+			throw new HttpStatusException("Request failed with status " + response.getCode(), response.getCode());
+		}
+		long maxAge = FreshnessPolicy.parseMaxAge(response.getHeader("Cache-Control"));
+		if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED && conditional) {
+			return Result.notModified(maxAge);
+		}
+
+		// Parse the Json results straight out of the response
+		// body, either into the fields we use or into JsonWeather
+		// data objects.
+		if (mByteParsing) {
+			WeatherByteParser parser = mByteParsers.get();
+			WeatherFields fields = parser.parse(response.getBody(), response.getLength(), new WeatherFields(), mRequiredFields);
+			if (parser.stoppedEarly() && fields.getCod() == 0) {
+				// The cod comes last, and error responses carry no
+				// Weather information, so one that had it all is a
+				// success whose cod was left unread.
+				fields.setCod(HttpURLConnection.HTTP_OK);
+			}
+			if (mVerifyParsing) {
+				verify(fields, response);
+			}
+			return new Result(fields, maxAge, response.getHeader("ETag"), response.getHeader("Last-Modified"), response.getWireLength());
+		}
+		JsonWeather jsonWeather = mParser.parseJson(response.getBody(), response.getLength());
+		WeatherFields fields = new WeatherFields().set(jsonWeather);
+		WeatherJSONParser.recycle(jsonWeather);
+		return new Result(fields, maxAge, response.getHeader("ETag"), response.getHeader("Last-Modified"), response.getWireLength());
+	}
+
+	@Override
+	public List<JsonWeather> fetchGroup(List<Long> ids, FetchPriority priority) throws IOException {
+		StringBuilder url = new StringBuilder(weather_Web_Service_Group_URL);
+		for (int i = 0; i < ids.size(); i++) {
+			if (i > 0) {
+				url.append(',');
+			}
+			url.append(ids.get(i));
+		}
+		Logger.d(TAG, "Executing batch request for %s cities: %s", ids.size(), url);
+
+		try (HttpEngine.Response response = mEngine.get(new URL(url.toString()), null)) {
+			if (response.getCode() != HttpURLConnection.HTTP_OK) {
+				throw new HttpStatusException("Batch request failed with status " + response.getCode(), response.getCode());
+			}
+			return mParser.parseJsonGroup(response.getBody(), response.getLength());
+		}
+	}
+
+	/**
+	 * Check the @a fields the WeatherByteParser read from @a response against the WeatherJSONParser.
+	 */
+	private void verify(WeatherFields fields, HttpEngine.Response response) {
+		try {
+			JsonWeather reference = mParser.parseJson(response.getBody(), response.getLength());
+			WeatherFields expected = new WeatherFields().set(reference);
+			WeatherJSONParser.recycle(reference);
+			if (!expected.equals(fields)) {
+				mParseMismatches.incrementAndGet();
+				Log.w(TAG, "Byte parser read " + fields + " but the reference parser read " + expected);
+			}
+		} catch (IOException e) {
+			mParseMismatches.incrementAndGet();
+			Log.w(TAG, "Reference parser rejected a response the byte parser read as " + fields, e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Resolves the Weather web service's host, then requests its root page, which leaves a keep-alive
+	 * connection in the engine's pool for the first fetch to reuse.
+	 */
+	@Override
+	public void warmUp() throws IOException {
+		URL url = new URL(weather_Web_Service_Root_URL);
+		long start = System.currentTimeMillis();
+		InetAddress.getByName(url.getHost());
+		long resolved = System.currentTimeMillis();
+		mEngine.get(url, null).close();
+		Logger.d(TAG, "Resolved %s in %d ms, connected in %d ms", url.getHost(), resolved - start, System.currentTimeMillis() - resolved);
+	}
+}
@@ -0,0 +1,63 @@
+package vandy.mooc.utils;
+
+import java.util.Arrays;
+
+/**
+ * @class LatencyTracker
+ *
+ * @brief Tracks a percentile of the most recent latencies. Samples go into a ring buffer, and the percentile is
+ *        recomputed from a sorted copy every so many samples rather than on each read.
+ */
+public class LatencyTracker {
+	/**
+	 * Number of samples between recomputations of the percentile.
+	 */
+	private static final int RECOMPUTE_INTERVAL = 32;
+
+	private final double mPercentile;
+	private final int mMinSamples;
+
+	/**
+	 * Recent samples, guarded by this.
+	 */
+	private final long[] mSamples;
+	private int mCount;
+	private int mNext;
+	private int mSinceRecompute;
+
+	private volatile long mValue = -1;
+
+	/**
+	 * Create a tracker of the @a percentile, between 0 and 1, of the last @a window latencies, known once
+	 * @a minSamples have been recorded.
+	 */
+	public LatencyTracker(double percentile, int window, int minSamples) {
+		mPercentile = percentile;
+		mSamples = new long[window];
+		mMinSamples = Math.min(minSamples, window);
+	}
+
+	/**
+	 * Record a latency of @a millis.
+	 */
+	public synchronized void record(long millis) {
+		mSamples[mNext] = millis;
+		mNext = (mNext + 1) % mSamples.length;
+		if (mCount < mSamples.length) {
+			mCount++;
+		}
+		if (mCount >= mMinSamples && (++mSinceRecompute >= RECOMPUTE_INTERVAL || mValue < 0)) {
+			long[] sorted = Arrays.copyOf(mSamples, mCount);
+			Arrays.sort(sorted);
+			mValue = sorted[Math.min(mCount - 1, (int) (mPercentile * mCount))];
+			mSinceRecompute = 0;
+		}
+	}
+
+	/**
+	 * @return The percentile in milliseconds, or -1 if too few samples have been recorded.
+	 */
+	public long get() {
+		return mValue;
+	}
+}
@@ -0,0 +1,108 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+import vandy.mooc.jsonweather.JsonWeather;
+
+/**
+ * @class LimitedWeatherFetcher
+ *
+ * @brief A WeatherFetcher that passes every fetch through an AdaptiveLimiter before handing it to another fetcher.
+ *        Fetches the limiter sheds fail with a FetchRejectedException. It goes in front of the quota, so a fetch it
+ *        sheds does not spend a token.
+ */
+public class LimitedWeatherFetcher implements WeatherFetcher {
+	private final WeatherFetcher mDelegate;
+	private final AdaptiveLimiter mLimiter;
+
+	public LimitedWeatherFetcher(WeatherFetcher delegate, AdaptiveLimiter limiter) {
+		mDelegate = delegate;
+		mLimiter = limiter;
+	}
+
+	@Override
+	public Result fetch(String query, CacheEntry previous, FetchPriority priority) throws IOException {
+		AdaptiveLimiter.Permit permit = acquire();
+		try {
+			Result result = mDelegate.fetch(query, previous, priority);
+			permit.release(true);
+			return result;
+		} catch (IOException e) {
+			release(permit, e);
+			throw e;
+		} finally {
+			permit.release(false);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Shed at once if the limit is reached, rather than waiting for a slot.
+	 */
+	@Override
+	public void fetchAsync(String query, CacheEntry previous, FetchPriority priority, final Callback callback) {
+		final AdaptiveLimiter.Permit permit = mLimiter.tryAcquire();
+		if (permit == null) {
+			callback.onFailure(new FetchRejectedException("Too many fetches in flight (limit " + mLimiter.getLimit() + ")"));
+			return;
+		}
+		mDelegate.fetchAsync(query, previous, priority, new Callback() {
+			@Override
+			public void onResult(Result result) {
+				permit.release(true);
+				callback.onResult(result);
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				release(permit, e);
+				permit.release(false);
+				callback.onFailure(e);
+			}
+		});
+	}
+
+	@Override
+	public List<JsonWeather> fetchGroup(List<Long> ids, FetchPriority priority) throws IOException {
+		AdaptiveLimiter.Permit permit = acquire();
+		try {
+			List<JsonWeather> results = mDelegate.fetchGroup(ids, priority);
+			permit.release(true);
+			return results;
+		} catch (IOException e) {
+			release(permit, e);
+			throw e;
+		} finally {
+			permit.release(false);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Not limited, since it sends no request for Weather information.
+	 */
+	@Override
+	public void warmUp() throws IOException {
+		mDelegate.warmUp();
+	}
+
+	/**
+	 * Release @a permit of a fetch that failed with @a e. A fetch turned away behind the limiter, such as by the
+	 * quota, never reached the provider, and an error status other than a server error or 429 is a prompt answer, so
+	 * neither counts as a failure that shrinks the limit.
+	 */
+	private static void release(AdaptiveLimiter.Permit permit, IOException e) {
+		if (e instanceof FetchRejectedException) {
+			permit.cancel();
+		} else if (e instanceof HttpStatusException && !((HttpStatusException) e).isRetryable()) {
+			permit.release(true);
+		}
+	}
+
+	private AdaptiveLimiter.Permit acquire() throws FetchRejectedException {
+		AdaptiveLimiter.Permit permit = mLimiter.acquire();
+		if (permit == null) {
+			throw new FetchRejectedException("Too many fetches in flight (limit " + mLimiter.getLimit() + ")");
+		}
+		return permit;
+	}
+}
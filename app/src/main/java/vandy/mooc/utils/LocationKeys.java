@@ -0,0 +1,129 @@
+package vandy.mooc.utils;
+
+/**
+ * @class LocationKeys
+ *
+ * @brief Canonical forms of location queries, so different spellings of the same query share cache entries. A query
+ *        is trimmed, lower-cased, has runs of whitespace collapsed to one space and has whitespace around commas
+ *        removed, so "London, GB" and " london,gb" both become "london,gb". A query that is already canonical is
+ *        returned as is, so the common case allocates nothing.
+ */
+public final class LocationKeys {
+	/**
+	 * Prefix of keys naming a city by its Weather Service id.
+	 */
+	private static final char CITY_ID_PREFIX = '#';
+
+	/**
+	 * @return The canonical form of @a query.
+	 */
+	public static String normalize(String query) {
+		if (isCanonical(query)) {
+			return query;
+		}
+		StringBuilder builder = new StringBuilder(query.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				pendingSpace = builder.length() > 0;
+			} else if (c == ',') {
+				builder.append(',');
+				pendingSpace = false;
+			} else {
+				if (pendingSpace && builder.charAt(builder.length() - 1) != ',') {
+					builder.append(' ');
+				}
+				builder.append(Character.toLowerCase(c));
+				pendingSpace = false;
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return true if @a query is a numeric Weather Service city id.
+	 */
+	public static boolean isCityId(String query) {
+		if (query.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The key under which results for city @a id are cached.
+	 */
+	public static String cityIdKey(long id) {
+		return CITY_ID_PREFIX + Long.toString(id);
+	}
+
+	/**
+	 * @return The city id named by the city-id key @a key, or -1 if @a key is not a city-id key.
+	 */
+	public static long parseCityIdKey(String key) {
+		int length = key.length();
+		if (length < 2 || length > 19 || key.charAt(0) != CITY_ID_PREFIX) {
+			return -1;
+		}
+		long id = 0;
+		for (int i = 1; i < length; i++) {
+			char c = key.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			id = id * 10 + (c - '0');
+		}
+		return id;
+	}
+
+	/**
+	 * @return The key under which results for the canonical query @a query are cached, before any alias is known.
+	 */
+	public static String queryKey(String query) {
+		return isCityId(query) ? CITY_ID_PREFIX + query : query;
+	}
+
+	/**
+	 * @return true if @a query needs no changes to be canonical.
+	 */
+	private static boolean isCanonical(String query) {
+		int length = query.length();
+		if (length == 0) {
+			return true;
+		}
+		if (query.charAt(0) == ' ' || query.charAt(length - 1) == ' ') {
+			return false;
+		}
+		char previous = 0;
+		for (int i = 0; i < length; i++) {
+			char c = query.charAt(i);
+			if (c == ' ') {
+				if (previous == ' ' || previous == ',') {
+					return false;
+				}
+			} else if (c == ',') {
+				if (previous == ' ') {
+					return false;
+				}
+			} else if (Character.isWhitespace(c) || Character.toLowerCase(c) != c) {
+				return false;
+			}
+			previous = c;
+		}
+		return true;
+	}
+
+	/**
+	 * Ensure this class is only used as a utility.
+	 */
+	private LocationKeys() {
+		throw new AssertionError();
+	}
+}
@@ -0,0 +1,108 @@
+package vandy.mooc.utils;
+
+import vandy.mooc.BuildConfig;
+import android.util.Log;
+
+/**
+ * @class Logger
+ *
+ * @brief A level-gated front for android.util.Log, for statements on hot paths such as parsing and serving requests.
+ *        Call sites pass a String.format() pattern and its arguments instead of concatenating a message, so a
+ *        statement below the current level costs one comparison, and the message, including any toString() of its
+ *        arguments, is only built once it is known to be logged. Overloads taking a long or a double spare boxing.
+ *
+ *        Verbose and debug statements are trace statements, and are never logged in release builds. TRACE follows
+ *        BuildConfig.DEBUG, which the Android Gradle plugin generates as Boolean.parseBoolean("true") rather than as
+ *        a literal. It is not a compile-time constant, so javac keeps the guarded bodies and TRACE is checked at run
+ *        time. In release builds the calls remain, each costing a check of TRACE and no message, but arguments the
+ *        call site computes are still computed, so costly ones should be guarded with isLoggable().
+ */
+public final class Logger {
+	/**
+	 * Whether trace statements are logged, which is only the case in debug builds.
+	 */
+	public static final boolean TRACE = BuildConfig.DEBUG;
+
+	/**
+	 * Lowest priority logged, from android.util.Log.
+	 */
+	private static volatile int level = TRACE ? Log.DEBUG : Log.INFO;
+
+	private Logger() {
+	}
+
+	/**
+	 * Log statements of @a priority, such as Log.VERBOSE, and above. Trace statements are never logged in release
+	 * builds.
+	 */
+	public static void setLevel(int priority) {
+		level = priority;
+	}
+
+	/**
+	 * @return Whether statements of @a priority are logged, for call sites whose arguments are costly to compute.
+	 */
+	public static boolean isLoggable(int priority) {
+		return priority >= level && (TRACE || priority > Log.DEBUG);
+	}
+
+	public static void v(String tag, String message) {
+		if (TRACE && Log.VERBOSE >= level) {
+			Log.v(tag, message);
+		}
+	}
+
+	public static void v(String tag, String format, Object arg) {
+		if (TRACE && Log.VERBOSE >= level) {
+			Log.v(tag, String.format(format, arg));
+		}
+	}
+
+	public static void v(String tag, String format, Object arg1, Object arg2) {
+		if (TRACE && Log.VERBOSE >= level) {
+			Log.v(tag, String.format(format, arg1, arg2));
+		}
+	}
+
+	public static void v(String tag, String format, Object arg1, long arg2) {
+		if (TRACE && Log.VERBOSE >= level) {
+			Log.v(tag, String.format(format, arg1, arg2));
+		}
+	}
+
+	public static void v(String tag, String format, Object arg1, double arg2) {
+		if (TRACE && Log.VERBOSE >= level) {
+			Log.v(tag, String.format(format, arg1, arg2));
+		}
+	}
+
+	public static void d(String tag, String message) {
+		if (TRACE && Log.DEBUG >= level) {
+			Log.d(tag, message);
+		}
+	}
+
+	public static void d(String tag, String format, Object arg) {
+		if (TRACE && Log.DEBUG >= level) {
+			Log.d(tag, String.format(format, arg));
+		}
+	}
+
+	public static void d(String tag, String format, Object arg1, Object arg2) {
+		if (TRACE && Log.DEBUG >= level) {
+			Log.d(tag, String.format(format, arg1, arg2));
+		}
+	}
+
+	public static void d(String tag, String format, Object arg1, Object arg2, Object arg3) {
+		if (TRACE && Log.DEBUG >= level) {
+			Log.d(tag, String.format(format, arg1, arg2, arg3));
+		}
+	}
+
+	public static void d(String tag, String format, long arg) {
+		if (TRACE && Log.DEBUG >= level) {
+			Log.d(tag, String.format(format, arg));
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @class MicroBatcher
+ *
+ * @brief Collects concurrent loads of different keys into batches loaded with a single call. A batch is sent once
+ *        it holds its maximum number of keys, or once its first key has waited for the maximum delay, whichever comes
+ *        first. Each caller blocks until the batch holding its key has been loaded and then gets its own value back.
+ *        Callers asking for a key already waiting in the open batch share its slot.
+ *
+ *        Batches are loaded on a caller's thread: a full batch by the caller that filled it, and a batch that timed
+ *        out by the caller that opened it, so no thread sits idle waiting on the clock. A batch is loaded at the
+ *        highest priority of its callers, whichever thread sends it, so an interactive caller joining a batch opened
+ *        by background work is not held back as background work, and background keys in an interactive batch cost
+ *        no call of their own.
+ */
+public class MicroBatcher<K, V> {
+	/**
+	 * Loads a batch of keys.
+	 */
+	public interface Loader<K, V> {
+		/**
+		 * @return The values found for @a keys, loaded at @a priority. Keys with no value may be left out.
+		 */
+		Map<K, V> load(List<K> keys, FetchPriority priority) throws IOException;
+	}
+
+	private final Loader<K, V> mLoader;
+	private volatile int mMaxBatchSize;
+	private volatile long mMaxDelay;
+
+	/**
+	 * The batch still taking keys, or null. Guarded by this.
+	 */
+	private Batch<K, V> mOpen;
+
+	private final AtomicLong mBatches = new AtomicLong();
+	private final AtomicLong mKeys = new AtomicLong();
+
+	/**
+	 * Create a batcher sending batches of at most @a maxBatchSize keys through @a loader, waiting at most
+	 * @a maxDelayMillis for a batch to fill.
+	 */
+	public MicroBatcher(int maxBatchSize, long maxDelayMillis, Loader<K, V> loader) {
+		configure(maxBatchSize, maxDelayMillis);
+		mLoader = loader;
+	}
+
+	/**
+	 * Change the maximum batch size and delay. Larger values make fewer calls at the cost of latency. Applies from
+	 * the next batch opened.
+	 */
+	public void configure(int maxBatchSize, long maxDelayMillis) {
+		if (maxBatchSize <= 0) {
+			throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+		}
+		if (maxDelayMillis < 0) {
+			throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+		}
+		mMaxBatchSize = maxBatchSize;
+		mMaxDelay = maxDelayMillis;
+	}
+
+	/**
+	 * Load @a key at @a priority as part of a batch, waiting for the batch to complete.
+	 *
+	 * @return The value loaded for @a key, or null if the batch had none for it or the calling thread was
+	 *         interrupted while waiting.
+	 * @throws IOException if the batch failed to load.
+	 */
+	public V load(K key, FetchPriority priority) throws IOException {
+		final Batch<K, V> batch;
+		final long delay = mMaxDelay;
+		boolean opened = false;
+		boolean full = false;
+		synchronized (this) {
+			if (mOpen == null) {
+				mOpen = new Batch<>(mMaxBatchSize);
+				opened = true;
+			}
+			batch = mOpen;
+			batch.mKeys.add(key);
+			if (priority == FetchPriority.INTERACTIVE) {
+				batch.mPriority = FetchPriority.INTERACTIVE;
+			}
+			if (batch.mKeys.size() >= batch.mMaxSize || delay == 0) {
+				mOpen = null;
+				full = true;
+			}
+		}
+
+		try {
+			if (full) {
+				send(batch);
+			} else if (opened && !batch.mDone.await(delay, TimeUnit.MILLISECONDS) && close(batch)) {
+				send(batch);
+			}
+			batch.mDone.await();
+		} catch (InterruptedException e) {
+			// Never strand the other callers of a batch this caller was due to send.
+			if (opened && close(batch)) {
+				send(batch);
+			}
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		if (batch.mError != null) {
+			throw batch.mError;
+		}
+		return batch.mValues.get(key);
+	}
+
+	/**
+	 * @return The number of batches sent.
+	 */
+	public long getBatchCount() {
+		return mBatches.get();
+	}
+
+	/**
+	 * @return The number of distinct keys sent in all batches.
+	 */
+	public long getKeyCount() {
+		return mKeys.get();
+	}
+
+	/**
+	 * @return The number of keys in the batch still taking keys.
+	 */
+	synchronized int getOpenSize() {
+		return mOpen == null ? 0 : mOpen.mKeys.size();
+	}
+
+	/**
+	 * Close @a batch to new keys if it is still open.
+	 *
+	 * @return true if this call closed it.
+	 */
+	private synchronized boolean close(Batch<K, V> batch) {
+		if (mOpen != batch) {
+			return false;
+		}
+		mOpen = null;
+		return true;
+	}
+
+	/**
+	 * Load the keys of the closed @a batch and release its callers.
+	 */
+	private void send(Batch<K, V> batch) {
+		List<K> keys = new ArrayList<>(batch.mKeys);
+		mBatches.incrementAndGet();
+		mKeys.addAndGet(keys.size());
+		try {
+			Map<K, V> values = mLoader.load(keys, batch.mPriority);
+			if (values != null) {
+				batch.mValues = values;
+			}
+		} catch (IOException e) {
+			batch.mError = e;
+		} catch (RuntimeException e) {
+			batch.mError = new IOException(e);
+		} finally {
+			batch.mDone.countDown();
+		}
+	}
+
+	/**
+	 * Keys sent together, and their outcome once loaded.
+	 */
+	private static class Batch<K, V> {
+		final int mMaxSize;
+		final Set<K> mKeys;
+		final CountDownLatch mDone = new CountDownLatch(1);
+		/**
+		 * Highest priority of the callers, guarded by the batcher until the batch is closed.
+		 */
+		FetchPriority mPriority = FetchPriority.BACKGROUND;
+		volatile Map<K, V> mValues = new LinkedHashMap<>();
+		volatile IOException mError;
+
+		Batch(int maxSize) {
+			mMaxSize = maxSize;
+			mKeys = new LinkedHashSet<>(maxSize * 2);
+		}
+	}
+}
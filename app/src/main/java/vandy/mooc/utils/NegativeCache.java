@@ -0,0 +1,126 @@
+package vandy.mooc.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @class NegativeCache
+ *
+ * @brief Remembers failed lookups for a short time, so repeated requests for an unknown location or during an
+ *        upstream outage are answered without another round-trip. It is bounded separately from WeatherCache, so bad
+ *        queries never evict good results.
+ */
+public class NegativeCache {
+	/**
+	 * Maximum number of failures kept.
+	 */
+	private final int mMaxEntries;
+
+	/**
+	 * Time in milliseconds a failure is replayed.
+	 */
+	private final long mTtl;
+
+	/**
+	 * Source of the current time.
+	 */
+	private final Clock mClock;
+
+	/**
+	 * Failures in access order, least recently used first.
+	 */
+	private final LinkedHashMap<String, Failure> mEntries;
+
+	/**
+	 * Counters guarded by this.
+	 */
+	private long mHits;
+	private long mMisses;
+
+	/**
+	 * Create a cache holding at most @a maxEntries failures, each replayed for @a ttlMillis.
+	 */
+	public NegativeCache(int maxEntries, long ttlMillis, Clock clock) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		mMaxEntries = maxEntries;
+		mTtl = ttlMillis;
+		mClock = clock;
+		mEntries = new LinkedHashMap<String, Failure>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+				return size() > mMaxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Return the unexpired failure recorded for @a key, or null if there is none.
+	 */
+	public synchronized Failure get(String key) {
+		Failure failure = mEntries.get(key);
+		if (failure != null && mClock.currentTimeMillis() - failure.mTimestamp > mTtl) {
+			mEntries.remove(key);
+			failure = null;
+		}
+		if (failure == null) {
+			mMisses++;
+		} else {
+			mHits++;
+		}
+		return failure;
+	}
+
+	/**
+	 * Record a failed lookup of @a key.
+	 *
+	 * @param message the upstream error message, or null if the upstream could not be reached.
+	 */
+	public synchronized void put(String key, String message) {
+		mEntries.put(key, new Failure(mClock.currentTimeMillis(), message));
+	}
+
+	/**
+	 * Forget any failure recorded for @a key.
+	 */
+	public synchronized void remove(String key) {
+		mEntries.remove(key);
+	}
+
+	/**
+	 * @return The number of lookups answered from this cache.
+	 */
+	public synchronized long getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * @return The number of lookups not found in this cache.
+	 */
+	public synchronized long getMissCount() {
+		return mMisses;
+	}
+
+	/**
+	 * A recorded failure.
+	 */
+	public static class Failure {
+		private final long mTimestamp;
+		private final String mMessage;
+
+		Failure(long timestamp, String message) {
+			mTimestamp = timestamp;
+			mMessage = message;
+		}
+
+		/**
+		 * @return The upstream error message, or null if the upstream could not be reached.
+		 */
+		public String getMessage() {
+			return mMessage;
+		}
+	}
+}
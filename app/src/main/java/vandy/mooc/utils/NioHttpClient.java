@@ -0,0 +1,831 @@
+package vandy.mooc.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import android.util.Log;
+
+/**
+ * @class NioHttpClient
+ *
+ * @brief An HTTP/1.1 client that multiplexes any number of concurrent GET requests over non-blocking SocketChannels
+ *        on a single selector thread, instead of tying up a thread per request. Reads go into direct buffers taken
+ *        from a DirectBufferPool, chunked bodies are de-chunked in place as their chunks arrive, and responses are
+ *        handed on once their whole body has arrived, gunzipped into an array borrowed from a ByteArrayPool until
+ *        the response is closed. Connections are kept alive and reused for later requests to the same host, and a
+ *        request that finds a reused connection closed by the server is retried once on a fresh one.
+ *
+ *        Only plain http URLs are supported. Host names are resolved on a resolver thread of their own, so neither
+ *        the caller of the asynchronous get() nor the selector thread blocks on a lookup.
+ */
+public class NioHttpClient implements HttpEngine, Closeable {
+	/**
+	 * Logging tag used by the debugger.
+	 */
+	private final static String TAG = NioHttpClient.class.getCanonicalName();
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Size of the pooled read buffers, and the number kept idle.
+	 */
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_IDLE_BUFFERS = 4;
+
+	/**
+	 * Size of the pooled arrays that hold response bodies until their responses are closed, and the number kept idle.
+	 */
+	private static final int BODY_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_IDLE_BODIES = 16;
+
+	/**
+	 * Receives the outcome of an asynchronous request, on the selector thread, so it must not block.
+	 */
+	public interface Callback {
+		void onResponse(Response response);
+
+		void onFailure(IOException e);
+	}
+
+	private final int mConnectTimeout;
+	private final int mReadTimeout;
+	private final int mMaxIdlePerHost;
+	private final Selector mSelector;
+	private final Thread mThread;
+
+	/**
+	 * Resolves the host names of requests before handing them to the selector thread.
+	 */
+	private final ThreadPoolExecutor mResolver;
+
+	private final DirectBufferPool mBuffers = new DirectBufferPool(READ_BUFFER_SIZE, MAX_IDLE_BUFFERS);
+	private final ByteArrayPool mBodies = new ByteArrayPool(BODY_BUFFER_SIZE, MAX_IDLE_BODIES);
+
+	/**
+	 * Requests submitted and not yet picked up by the selector thread.
+	 */
+	private final ConcurrentLinkedQueue<Exchange> mSubmitted = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Requests in progress, and idle connections by host and port. Only touched by the selector thread.
+	 */
+	private final Set<Exchange> mActive = new HashSet<>();
+	private final Map<String, ArrayDeque<SocketChannel>> mIdle = new HashMap<>();
+
+	private final AtomicInteger mInFlight = new AtomicInteger();
+	private volatile boolean mClosed;
+
+	/**
+	 * Create a client whose requests fail after @a connectTimeoutMillis without a connection or @a readTimeoutMillis
+	 * without data, keeping up to @a maxIdlePerHost idle connections per host for reuse, and start its selector
+	 * thread.
+	 */
+	public NioHttpClient(int connectTimeoutMillis, int readTimeoutMillis, int maxIdlePerHost) throws IOException {
+		mConnectTimeout = connectTimeoutMillis;
+		mReadTimeout = readTimeoutMillis;
+		mMaxIdlePerHost = maxIdlePerHost;
+		mSelector = Selector.open();
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "WeatherNio");
+		mThread.setDaemon(true);
+		mResolver = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WeatherNioResolver");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mResolver.allowCoreThreadTimeOut(true);
+		mThread.start();
+	}
+
+	/**
+	 * Send a GET request for @a url with the extra request @a headers, which may be null, and call @a callback with
+	 * the outcome. Never blocks.
+	 */
+	public void get(URL url, Map<String, String> headers, Callback callback) {
+		final Exchange exchange;
+		try {
+			exchange = new Exchange(url, headers, callback);
+		} catch (IOException e) {
+			callback.onFailure(e);
+			return;
+		}
+		if (mClosed) {
+			callback.onFailure(new IOException("Client closed"));
+			return;
+		}
+		mInFlight.incrementAndGet();
+		try {
+			mResolver.execute(new Runnable() {
+				@Override
+				public void run() {
+					submit(exchange);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			mInFlight.decrementAndGet();
+			callback.onFailure(new IOException("Client closed"));
+		}
+	}
+
+	/**
+	 * Resolve the host of @a exchange and hand it to the selector thread. Runs on the resolver thread.
+	 */
+	private void submit(Exchange exchange) {
+		InetSocketAddress address = new InetSocketAddress(exchange.mUrl.getHost(), exchange.mAddress.getPort());
+		if (address.isUnresolved()) {
+			mInFlight.decrementAndGet();
+			deliver(exchange, null, new IOException("Unknown host: " + exchange.mUrl.getHost()));
+			return;
+		}
+		exchange.mAddress = address;
+		mSubmitted.add(exchange);
+		mSelector.wakeup();
+		if (mClosed) {
+			// The selector thread may have finished before seeing the exchange.
+			failSubmitted(new IOException("Client closed"));
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Blocks the calling thread, but not the selector thread, until the response has arrived.
+	 */
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final Response[] response = new Response[1];
+		final IOException[] failure = new IOException[1];
+		get(url, headers, new Callback() {
+			@Override
+			public void onResponse(Response r) {
+				response[0] = r;
+				done.countDown();
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				failure[0] = e;
+				done.countDown();
+			}
+		});
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + url);
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return response[0];
+	}
+
+	/**
+	 * @return The number of requests submitted and not yet completed.
+	 */
+	public int getInFlight() {
+		return mInFlight.get();
+	}
+
+	/**
+	 * Stop the selector thread, failing every request in progress and closing every connection.
+	 */
+	@Override
+	public void close() {
+		mClosed = true;
+		mResolver.shutdown();
+		mSelector.wakeup();
+	}
+
+	private void loop() {
+		try {
+			while (!mClosed) {
+				mSelector.select(nextTimeout());
+				startSubmitted();
+				Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.attachment() instanceof Exchange) {
+						handle((Exchange) key.attachment(), key);
+					} else {
+						// An idle connection became readable, so the server closed it or sent something unasked for.
+						closeIdle((SocketChannel) key.channel());
+					}
+				}
+				expire();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Selector failed", e);
+		} finally {
+			shutDown();
+		}
+	}
+
+	/**
+	 * @return Milliseconds until the earliest deadline of a request in progress, or 0 to wait indefinitely.
+	 */
+	private long nextTimeout() {
+		if (mActive.isEmpty()) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		long earliest = Long.MAX_VALUE;
+		for (Exchange exchange : mActive) {
+			earliest = Math.min(earliest, exchange.mDeadline);
+		}
+		return Math.max(1, earliest - now);
+	}
+
+	private void startSubmitted() {
+		Exchange exchange;
+		while ((exchange = mSubmitted.poll()) != null) {
+			start(exchange, true);
+		}
+	}
+
+	/**
+	 * Send @a exchange over an idle connection to its host if @a reuse is true and there is one, or else over a new
+	 * connection.
+	 */
+	private void start(Exchange exchange, boolean reuse) {
+		mActive.add(exchange);
+		try {
+			ArrayDeque<SocketChannel> idle = reuse ? mIdle.get(exchange.mHostKey) : null;
+			SocketChannel channel = idle != null ? idle.poll() : null;
+			if (channel != null) {
+				exchange.mReused = true;
+				exchange.attach(channel, mSelector, SelectionKey.OP_WRITE);
+				exchange.mDeadline = System.currentTimeMillis() + mReadTimeout;
+				return;
+			}
+			exchange.mReused = false;
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			if (channel.connect(exchange.mAddress)) {
+				exchange.attach(channel, mSelector, SelectionKey.OP_WRITE);
+				exchange.mDeadline = System.currentTimeMillis() + mReadTimeout;
+			} else {
+				exchange.attach(channel, mSelector, SelectionKey.OP_CONNECT);
+				exchange.mDeadline = System.currentTimeMillis() + mConnectTimeout;
+			}
+		} catch (IOException e) {
+			fail(exchange, e);
+		}
+	}
+
+	private void handle(Exchange exchange, SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				exchange.mChannel.finishConnect();
+				key.interestOps(SelectionKey.OP_WRITE);
+				exchange.mDeadline = System.currentTimeMillis() + mReadTimeout;
+			} else if (key.isWritable()) {
+				exchange.mChannel.write(exchange.mRequest);
+				if (!exchange.mRequest.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+				exchange.mDeadline = System.currentTimeMillis() + mReadTimeout;
+			} else if (key.isReadable()) {
+				read(exchange);
+			}
+		} catch (IOException e) {
+			if (!retryStale(exchange)) {
+				fail(exchange, e);
+			}
+		}
+	}
+
+	private void read(Exchange exchange) throws IOException {
+		ByteBuffer buffer = mBuffers.acquire();
+		try {
+			int n;
+			while ((n = exchange.mChannel.read(buffer)) > 0) {
+				buffer.flip();
+				exchange.append(buffer);
+				buffer.clear();
+			}
+			if (n < 0) {
+				exchange.mEof = true;
+			}
+		} finally {
+			mBuffers.release(buffer);
+		}
+		exchange.mDeadline = System.currentTimeMillis() + mReadTimeout;
+
+		Response response = exchange.parse(mBodies);
+		if (response != null) {
+			complete(exchange, response);
+		} else if (exchange.mEof && !retryStale(exchange)) {
+			fail(exchange, new IOException("Connection closed before the response was complete"));
+		}
+	}
+
+	/**
+	 * Resend @a exchange on a new connection if it failed before receiving anything on a reused one, which the server
+	 * may have closed while it sat idle.
+	 *
+	 * @return true if it was resent.
+	 */
+	private boolean retryStale(Exchange exchange) {
+		if (!exchange.mReused || exchange.mLength > 0) {
+			return false;
+		}
+		exchange.detach();
+		exchange.reset();
+		mActive.remove(exchange);
+		start(exchange, false);
+		return true;
+	}
+
+	private void complete(Exchange exchange, Response response) {
+		mActive.remove(exchange);
+		if (!exchange.mKeepAlive || exchange.mEof || !park(exchange.mHostKey, exchange.mChannel, exchange.mKey)) {
+			exchange.detach();
+		}
+		mInFlight.decrementAndGet();
+		deliver(exchange, response, null);
+	}
+
+	private void fail(Exchange exchange, IOException e) {
+		mActive.remove(exchange);
+		exchange.detach();
+		mInFlight.decrementAndGet();
+		deliver(exchange, null, e);
+	}
+
+	/**
+	 * Hand @a response, or else @a failure, to the callback of @a exchange, which must not take the selector thread
+	 * down with it.
+	 */
+	private static void deliver(Exchange exchange, Response response, IOException failure) {
+		try {
+			if (response != null) {
+				exchange.mCallback.onResponse(response);
+			} else {
+				exchange.mCallback.onFailure(failure);
+			}
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Callback for " + exchange.mUrl + " failed", e);
+		}
+	}
+
+	/**
+	 * Keep @a channel idle for reuse by later requests to @a hostKey, watching it for the server closing it.
+	 *
+	 * @return true if it was kept.
+	 */
+	private boolean park(String hostKey, SocketChannel channel, SelectionKey key) {
+		ArrayDeque<SocketChannel> idle = mIdle.get(hostKey);
+		if (idle == null) {
+			idle = new ArrayDeque<>();
+			mIdle.put(hostKey, idle);
+		}
+		if (idle.size() >= mMaxIdlePerHost) {
+			return false;
+		}
+		key.attach(hostKey);
+		key.interestOps(SelectionKey.OP_READ);
+		idle.add(channel);
+		return true;
+	}
+
+	private void closeIdle(SocketChannel channel) {
+		SelectionKey key = channel.keyFor(mSelector);
+		if (key != null && key.attachment() instanceof String) {
+			ArrayDeque<SocketChannel> idle = mIdle.get(key.attachment());
+			if (idle != null) {
+				idle.remove(channel);
+			}
+		}
+		closeQuietly(channel);
+	}
+
+	/**
+	 * Fail every request whose deadline has passed.
+	 */
+	private void expire() {
+		if (mActive.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<Exchange> expired = null;
+		for (Exchange exchange : mActive) {
+			if (exchange.mDeadline <= now) {
+				if (expired == null) {
+					expired = new ArrayList<>();
+				}
+				expired.add(exchange);
+			}
+		}
+		if (expired != null) {
+			for (Exchange exchange : expired) {
+				fail(exchange, new SocketTimeoutException("Timed out waiting for " + exchange.mUrl));
+			}
+		}
+	}
+
+	private void shutDown() {
+		mClosed = true;
+		IOException closed = new IOException("Client closed");
+		mResolver.shutdown();
+		for (Exchange exchange : new ArrayList<>(mActive)) {
+			fail(exchange, closed);
+		}
+		failSubmitted(closed);
+		for (ArrayDeque<SocketChannel> idle : mIdle.values()) {
+			for (SocketChannel channel : idle) {
+				closeQuietly(channel);
+			}
+		}
+		mIdle.clear();
+		try {
+			mSelector.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Error closing selector", e);
+		}
+	}
+
+	/**
+	 * Fail the requests submitted and not picked up by the selector thread, which has stopped.
+	 */
+	private void failSubmitted(IOException closed) {
+		Exchange exchange;
+		while ((exchange = mSubmitted.poll()) != null) {
+			mInFlight.decrementAndGet();
+			deliver(exchange, null, closed);
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing more to do with it.
+		}
+	}
+
+	/**
+	 * A request and the response accumulating for it.
+	 */
+	private static class Exchange {
+		final URL mUrl;
+
+		/**
+		 * Address of the host, unresolved until the resolver thread has looked it up.
+		 */
+		InetSocketAddress mAddress;
+		final String mHostKey;
+		final ByteBuffer mRequest;
+		final Callback mCallback;
+
+		SocketChannel mChannel;
+		SelectionKey mKey;
+		boolean mReused;
+		long mDeadline;
+
+		/**
+		 * Raw bytes received so far.
+		 */
+		byte[] mData = new byte[4096];
+		int mLength;
+		boolean mEof;
+
+		/**
+		 * Parsed status line and headers, once they have arrived.
+		 */
+		int mHeaderEnd = -1;
+		int mStatus;
+		Map<String, List<String>> mHeaders;
+		long mContentLength = -1;
+		boolean mChunked;
+		boolean mGzip;
+		boolean mKeepAlive;
+		int mGunzipped;
+
+		/**
+		 * Progress of de-chunking: the offset of the next chunk-size line, the length of the body de-chunked so far,
+		 * which starts at mHeaderEnd, and whether the last chunk has been seen.
+		 */
+		int mChunkPosition;
+		int mBodyLength;
+		boolean mLastChunk;
+
+		Exchange(URL url, Map<String, String> headers, Callback callback) throws IOException {
+			if (!"http".equals(url.getProtocol())) {
+				throw new IOException("Unsupported protocol: " + url.getProtocol());
+			}
+			int port = url.getPort() != -1 ? url.getPort() : 80;
+			mUrl = url;
+			mAddress = InetSocketAddress.createUnresolved(url.getHost(), port);
+			mHostKey = url.getHost() + ":" + port;
+			mCallback = callback;
+
+			String path = url.getFile().isEmpty() ? "/" : url.getFile();
+			StringBuilder request = new StringBuilder(256);
+			request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+			request.append("Host: ").append(url.getHost());
+			if (url.getPort() != -1) {
+				request.append(':').append(port);
+			}
+			request.append("\r\nConnection: keep-alive\r\nAccept-Encoding: gzip\r\n");
+			if (headers != null) {
+				for (Map.Entry<String, String> header : headers.entrySet()) {
+					request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+				}
+			}
+			request.append("\r\n");
+			mRequest = ByteBuffer.wrap(request.toString().getBytes(ASCII));
+		}
+
+		void attach(SocketChannel channel, Selector selector, int ops) throws IOException {
+			mChannel = channel;
+			mKey = channel.register(selector, ops, this);
+		}
+
+		void detach() {
+			if (mKey != null) {
+				mKey.cancel();
+			}
+			if (mChannel != null) {
+				closeQuietly(mChannel);
+			}
+			mKey = null;
+			mChannel = null;
+		}
+
+		/**
+		 * Forget any partial response so the request can be sent again.
+		 */
+		void reset() {
+			mRequest.rewind();
+			mLength = 0;
+			mEof = false;
+			mHeaderEnd = -1;
+			mHeaders = null;
+			mContentLength = -1;
+			mChunked = false;
+			mGzip = false;
+			mBodyLength = 0;
+			mLastChunk = false;
+		}
+
+		void append(ByteBuffer buffer) {
+			int n = buffer.remaining();
+			if (mLength + n > mData.length) {
+				byte[] grown = new byte[Math.max(mData.length * 2, mLength + n)];
+				System.arraycopy(mData, 0, grown, 0, mLength);
+				mData = grown;
+			}
+			buffer.get(mData, mLength, n);
+			mLength += n;
+		}
+
+		/**
+		 * @return The response, if all of it has arrived, or null. Its body is borrowed from @a bodies.
+		 */
+		Response parse(ByteArrayPool bodies) throws IOException {
+			if (mHeaderEnd < 0 && !parseHeaders()) {
+				return null;
+			}
+
+			byte[] body;
+			int length;
+			if (mStatus == 204 || mStatus == 304 || (mStatus >= 100 && mStatus < 200)) {
+				body = bodies.acquire();
+				length = 0;
+			} else if (mChunked) {
+				length = dechunk();
+				if (length < 0) {
+					return null;
+				}
+				body = borrow(bodies, length);
+				System.arraycopy(mData, mHeaderEnd, body, 0, length);
+			} else if (mContentLength >= 0) {
+				if (mLength - mHeaderEnd < mContentLength) {
+					return null;
+				}
+				length = (int) mContentLength;
+				body = borrow(bodies, length);
+				System.arraycopy(mData, mHeaderEnd, body, 0, length);
+			} else {
+				// The body runs to the end of the connection.
+				if (!mEof) {
+					return null;
+				}
+				mKeepAlive = false;
+				length = mLength - mHeaderEnd;
+				body = borrow(bodies, length);
+				System.arraycopy(mData, mHeaderEnd, body, 0, length);
+			}
+
+			int wireLength = length;
+			if (mGzip && length > 0) {
+				byte[] compressed = body;
+				try {
+					body = gunzip(compressed, length, bodies);
+					length = mGunzipped;
+				} finally {
+					bodies.release(compressed);
+				}
+			}
+			return new Response(mStatus, mHeaders, body, length, wireLength, bodies);
+		}
+
+		/**
+		 * @return An array of at least @a length bytes, from @a bodies if it is large enough.
+		 */
+		private static byte[] borrow(ByteArrayPool bodies, int length) {
+			return length <= bodies.getArraySize() ? bodies.acquire() : new byte[length];
+		}
+
+		/**
+		 * Parse the status line and headers if they have all arrived.
+		 *
+		 * @return true if they have.
+		 */
+		private boolean parseHeaders() throws IOException {
+			int end = indexOf(mData, mLength, 0);
+			if (end < 0) {
+				return false;
+			}
+			String[] lines = new String(mData, 0, end, ASCII).split("\r\n");
+			String[] status = lines[0].split(" ", 3);
+			if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+				throw new IOException("Malformed status line: " + lines[0]);
+			}
+			try {
+				mStatus = Integer.parseInt(status[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed status line: " + lines[0]);
+			}
+			mKeepAlive = status[0].equals("HTTP/1.1");
+			mHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon <= 0) {
+					continue;
+				}
+				String name = lines[i].substring(0, colon).trim();
+				String value = lines[i].substring(colon + 1).trim();
+				List<String> values = mHeaders.get(name);
+				if (values == null) {
+					values = new ArrayList<>(1);
+					mHeaders.put(name, values);
+				}
+				values.add(value);
+				String lower = value.toLowerCase(Locale.US);
+				if (name.equalsIgnoreCase("Content-Length")) {
+					try {
+						mContentLength = Long.parseLong(value);
+					} catch (NumberFormatException e) {
+						throw new IOException("Malformed Content-Length: " + value);
+					}
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					mChunked = lower.contains("chunked");
+				} else if (name.equalsIgnoreCase("Content-Encoding")) {
+					mGzip = lower.contains("gzip");
+				} else if (name.equalsIgnoreCase("Connection")) {
+					if (lower.contains("close")) {
+						mKeepAlive = false;
+					} else if (lower.contains("keep-alive")) {
+						mKeepAlive = true;
+					}
+				}
+			}
+			mHeaderEnd = end + 4;
+			mChunkPosition = mHeaderEnd;
+			return true;
+		}
+
+		/**
+		 * De-chunk the chunks that have arrived since the last call, moving their data down in place to follow the
+		 * body de-chunked so far, so each byte is de-chunked once however many reads the body takes.
+		 *
+		 * @return The length of the de-chunked body, which starts at mHeaderEnd, or -1 if not all of it has arrived.
+		 */
+		private int dechunk() throws IOException {
+			while (true) {
+				int lineEnd = indexOfCrlf(mChunkPosition);
+				if (lineEnd < 0) {
+					return -1;
+				}
+				if (mLastChunk) {
+					// Skip any trailers up to the blank line ending the body.
+					if (lineEnd == mChunkPosition) {
+						return mBodyLength;
+					}
+					mChunkPosition = lineEnd + 2;
+					continue;
+				}
+				String sizeLine = new String(mData, mChunkPosition, lineEnd - mChunkPosition, ASCII);
+				int semicolon = sizeLine.indexOf(';');
+				int size;
+				try {
+					size = Integer.parseInt((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed chunk size: " + sizeLine);
+				}
+				int position = lineEnd + 2;
+				if (size == 0) {
+					mLastChunk = true;
+					mChunkPosition = position;
+					continue;
+				}
+				if (position + size + 2 > mLength) {
+					return -1;
+				}
+				System.arraycopy(mData, position, mData, mHeaderEnd + mBodyLength, size);
+				mBodyLength += size;
+				mChunkPosition = position + size + 2;
+			}
+		}
+
+		private int indexOfCrlf(int from) {
+			for (int i = from; i + 1 < mLength; i++) {
+				if (mData[i] == '\r' && mData[i + 1] == '\n') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return The offset of the first blank line, CRLF CRLF, in the first @a length bytes of @a data at or after
+		 *         @a from, or -1.
+		 */
+		private static int indexOf(byte[] data, int length, int from) {
+			for (int i = from; i + 3 < length; i++) {
+				if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Decompress the first @a length bytes of @a data into an array borrowed from @a bodies, or a larger array if
+		 * it does not fit, leaving the decompressed length in mGunzipped. The borrowed array is given back if
+		 * decompression fails or outgrows it.
+		 *
+		 * @return The array holding the decompressed bytes.
+		 */
+		private byte[] gunzip(byte[] data, int length, ByteArrayPool bodies) throws IOException {
+			byte[] out = bodies.acquire();
+			try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data, 0, length))) {
+				int total = 0;
+				int n;
+				while ((n = in.read(out, total, out.length - total)) != -1) {
+					total += n;
+					if (total == out.length) {
+						byte[] grown = new byte[out.length * 2];
+						System.arraycopy(out, 0, grown, 0, total);
+						bodies.release(out);
+						out = grown;
+					}
+				}
+				mGunzipped = total;
+				return out;
+			} catch (IOException e) {
+				bodies.release(out);
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package vandy.mooc.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vandy.mooc.aidl.WeatherData;
+
+/**
+ * @class PackedWeatherStore
+ *
+ * @brief A compact store of cached WeatherData for large numbers of cities, keyed by Weather Service city id. Each
+ *        entry is a fixed-size slot of primitives in one direct ByteBuffer, so it costs 96 bytes off-heap plus two
+ *        ints of index, instead of a CacheEntry, a WeatherData and a map node on the heap. The index from city id to
+ *        slot is an open-addressing hash table over parallel int arrays, and city names, icon codes and validators
+ *        are interned in a reference-counted side table.
+ *
+ *        Lookups use the same keys and return the same CacheEntry as WeatherCache, with its time-to-live, observation
+ *        time, validators and body size, materializing a WeatherData only for the entry being read. Only city-id keys (see
+ *        LocationKeys) can be stored. Once all slots are in use, a CLOCK sweep over the slots picks the entry to
+ *        replace. A WeatherCache can use it as an overflow tier for the entries it evicts, see
+ *        WeatherCache.setOverflow().
+ */
+public class PackedWeatherStore {
+	/**
+	 * Slot layout.
+	 */
+	private static final int TIMESTAMP = 0;
+	private static final int SPEED = 8;
+	private static final int DEG = 16;
+	private static final int TEMP = 24;
+	private static final int PRESSURE = 32;
+	private static final int HUMIDITY = 40;
+	private static final int SUNRISE = 48;
+	private static final int SUNSET = 56;
+	private static final int NAME = 64;
+	private static final int ICON = 68;
+	private static final int TTL = 72;
+	private static final int BODY_SIZE = 80;
+	private static final int ETAG = 84;
+	private static final int LAST_MODIFIED = 88;
+	private static final int OBSERVED = 92;
+	private static final int SLOT_SIZE = 96;
+
+	/**
+	 * Marks an empty index bucket, as city ids are never negative.
+	 */
+	private static final int EMPTY = -1;
+
+	private final int mCapacity;
+
+	/**
+	 * Slot storage.
+	 */
+	private final ByteBuffer mSlots;
+
+	/**
+	 * City id held by each slot, or EMPTY.
+	 */
+	private final int[] mSlotIds;
+
+	/**
+	 * CLOCK reference bit of each slot.
+	 */
+	private final boolean[] mReferenced;
+
+	/**
+	 * Stack of slots freed by remove().
+	 */
+	private final int[] mFreeSlots;
+	private int mFreeSlotCount;
+
+	/**
+	 * Open-addressing index from city id to slot. The table size is a power of two at least twice the capacity.
+	 */
+	private final int[] mIndexIds;
+	private final int[] mIndexSlots;
+	private final int mIndexMask;
+
+	/**
+	 * Interned names and icon codes.
+	 */
+	private final StringTable mStrings = new StringTable();
+
+	private int mSize;
+	private int mNextFreeSlot;
+	private int mClockHand;
+
+	/**
+	 * Create a store for at most @a capacity cities.
+	 */
+	public PackedWeatherStore(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		mCapacity = capacity;
+		mSlots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+		mSlotIds = new int[capacity];
+		Arrays.fill(mSlotIds, EMPTY);
+		mReferenced = new boolean[capacity];
+		mFreeSlots = new int[capacity];
+
+		int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		mIndexIds = new int[tableSize];
+		Arrays.fill(mIndexIds, EMPTY);
+		mIndexSlots = new int[tableSize];
+		mIndexMask = tableSize - 1;
+	}
+
+	/**
+	 * Return the entry stored for the city-id @a key, or null if there is none or @a key is not a city-id key.
+	 */
+	public synchronized CacheEntry get(String key) {
+		int id = cityId(key);
+		if (id == EMPTY) {
+			return null;
+		}
+		int bucket = find(id);
+		if (mIndexIds[bucket] == EMPTY) {
+			return null;
+		}
+		int slot = mIndexSlots[bucket];
+		mReferenced[slot] = true;
+		return read(slot);
+	}
+
+	/**
+	 * Store @a entry for the city-id @a key, replacing an older entry if the store is full.
+	 *
+	 * @return false if @a key is not a city-id key, so the entry was not stored.
+	 */
+	public synchronized boolean put(String key, CacheEntry entry) {
+		int id = cityId(key);
+		if (id == EMPTY) {
+			return false;
+		}
+		int bucket = find(id);
+		int slot;
+		if (mIndexIds[bucket] != EMPTY) {
+			slot = mIndexSlots[bucket];
+			releaseStrings(slot);
+		} else {
+			slot = allocateSlot();
+			// Eviction may have moved entries around in the index.
+			bucket = find(id);
+			mIndexIds[bucket] = id;
+			mIndexSlots[bucket] = slot;
+			mSlotIds[slot] = id;
+			mSize++;
+		}
+		write(slot, entry);
+		mReferenced[slot] = true;
+		return true;
+	}
+
+	/**
+	 * Remove the entry for the city-id @a key, if any.
+	 */
+	public synchronized void remove(String key) {
+		int id = cityId(key);
+		if (id != EMPTY) {
+			int bucket = find(id);
+			if (mIndexIds[bucket] != EMPTY) {
+				freeSlot(mIndexSlots[bucket]);
+				deleteBucket(bucket);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		for (int slot = 0; slot < mCapacity; slot++) {
+			if (mSlotIds[slot] != EMPTY) {
+				clearSlot(slot);
+			}
+		}
+		Arrays.fill(mIndexIds, EMPTY);
+		mFreeSlotCount = 0;
+		mNextFreeSlot = 0;
+		mClockHand = 0;
+	}
+
+	/**
+	 * @return The number of cities stored.
+	 */
+	public synchronized int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return The number of distinct names and icon codes interned.
+	 */
+	public synchronized int internedStrings() {
+		return mStrings.size();
+	}
+
+	/**
+	 * @return The city id named by @a key, or EMPTY if it is not a city-id key that fits in an int.
+	 */
+	private static int cityId(String key) {
+		long id = LocationKeys.parseCityIdKey(key);
+		return id >= 0 && id <= Integer.MAX_VALUE ? (int) id : EMPTY;
+	}
+
+	/**
+	 * @return The bucket holding @a id, or the empty bucket where it would be inserted.
+	 */
+	private int find(int id) {
+		int bucket = mix(id) & mIndexMask;
+		while (mIndexIds[bucket] != EMPTY && mIndexIds[bucket] != id) {
+			bucket = (bucket + 1) & mIndexMask;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Empty @a bucket, shifting back later entries of its probe run so lookups still find them.
+	 */
+	private void deleteBucket(int bucket) {
+		int hole = bucket;
+		int next = (hole + 1) & mIndexMask;
+		while (mIndexIds[next] != EMPTY) {
+			int home = mix(mIndexIds[next]) & mIndexMask;
+			// Move the entry into the hole unless its home lies cyclically in (hole, next].
+			if (((next - home) & mIndexMask) >= ((next - hole) & mIndexMask)) {
+				mIndexIds[hole] = mIndexIds[next];
+				mIndexSlots[hole] = mIndexSlots[next];
+				hole = next;
+			}
+			next = (next + 1) & mIndexMask;
+		}
+		mIndexIds[hole] = EMPTY;
+	}
+
+	private static int mix(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return A free slot, evicting the entry chosen by the CLOCK hand if every slot is in use.
+	 */
+	private int allocateSlot() {
+		if (mFreeSlotCount > 0) {
+			return mFreeSlots[--mFreeSlotCount];
+		}
+		if (mNextFreeSlot < mCapacity) {
+			return mNextFreeSlot++;
+		}
+		while (mReferenced[mClockHand]) {
+			mReferenced[mClockHand] = false;
+			mClockHand = (mClockHand + 1) % mCapacity;
+		}
+		int victim = mClockHand;
+		mClockHand = (mClockHand + 1) % mCapacity;
+		deleteBucket(find(mSlotIds[victim]));
+		clearSlot(victim);
+		return victim;
+	}
+
+	private void freeSlot(int slot) {
+		clearSlot(slot);
+		mFreeSlots[mFreeSlotCount++] = slot;
+	}
+
+	private void clearSlot(int slot) {
+		releaseStrings(slot);
+		mSlotIds[slot] = EMPTY;
+		mReferenced[slot] = false;
+		mSize--;
+	}
+
+	private void releaseStrings(int slot) {
+		int base = slot * SLOT_SIZE;
+		mStrings.release(mSlots.getInt(base + NAME));
+		mStrings.release(mSlots.getInt(base + ICON));
+		mStrings.release(mSlots.getInt(base + ETAG));
+		mStrings.release(mSlots.getInt(base + LAST_MODIFIED));
+	}
+
+	private void write(int slot, CacheEntry entry) {
+		WeatherData data = entry.getData();
+		int base = slot * SLOT_SIZE;
+		mSlots.putLong(base + TIMESTAMP, entry.getTimestamp());
+		mSlots.putDouble(base + SPEED, data.mSpeed);
+		mSlots.putDouble(base + DEG, data.mDeg);
+		mSlots.putDouble(base + TEMP, data.mTemp);
+		mSlots.putDouble(base + PRESSURE, data.mPressure);
+		mSlots.putLong(base + HUMIDITY, data.mHumidity);
+		mSlots.putLong(base + SUNRISE, data.mSunrise);
+		mSlots.putLong(base + SUNSET, data.mSunset);
+		mSlots.putInt(base + NAME, mStrings.intern(data.mName));
+		mSlots.putInt(base + ICON, mStrings.intern(data.mIcon));
+		mSlots.putLong(base + TTL, entry.getTtl());
+		mSlots.putInt(base + BODY_SIZE, entry.getBodySize());
+		// Observation times are in seconds, which an unsigned int holds until 2106.
+		mSlots.putInt(base + OBSERVED, (int) entry.getObserved());
+		mSlots.putInt(base + ETAG, mStrings.intern(entry.getETag()));
+		mSlots.putInt(base + LAST_MODIFIED, mStrings.intern(entry.getLastModified()));
+	}
+
+	private CacheEntry read(int slot) {
+		int base = slot * SLOT_SIZE;
+		WeatherData data = new WeatherData(//
+				mStrings.get(mSlots.getInt(base + NAME)), //
+				mStrings.get(mSlots.getInt(base + ICON)), //
+				mSlots.getDouble(base + SPEED), //
+				mSlots.getDouble(base + DEG), //
+				mSlots.getDouble(base + TEMP), //
+				mSlots.getDouble(base + PRESSURE), //
+				mSlots.getLong(base + HUMIDITY), //
+				mSlots.getLong(base + SUNRISE), //
+				mSlots.getLong(base + SUNSET) //
+		);
+		return new CacheEntry(mSlots.getLong(base + TIMESTAMP), data, //
+				mSlots.getLong(base + TTL), //
+				mSlots.getInt(base + OBSERVED) & 0xffffffffL, //
+				mStrings.get(mSlots.getInt(base + ETAG)), //
+				mStrings.get(mSlots.getInt(base + LAST_MODIFIED)), //
+				mSlots.getInt(base + BODY_SIZE));
+	}
+
+	/**
+	 * Reference-counted table of interned strings. Reference -1 stands for null.
+	 */
+	private static class StringTable {
+		private final Map<String, Integer> mIds = new HashMap<>();
+		private final List<String> mValues = new ArrayList<>();
+		private int[] mRefs = new int[64];
+		private int[] mFree = new int[16];
+		private int mFreeCount;
+
+		int intern(String value) {
+			if (value == null) {
+				return -1;
+			}
+			Integer id = mIds.get(value);
+			if (id == null) {
+				if (mFreeCount > 0) {
+					id = mFree[--mFreeCount];
+					mValues.set(id, value);
+				} else {
+					id = mValues.size();
+					mValues.add(value);
+					if (id >= mRefs.length) {
+						mRefs = Arrays.copyOf(mRefs, mRefs.length * 2);
+					}
+				}
+				mIds.put(value, id);
+			}
+			mRefs[id]++;
+			return id;
+		}
+
+		String get(int id) {
+			return id < 0 ? null : mValues.get(id);
+		}
+
+		void release(int id) {
+			if (id < 0 || --mRefs[id] > 0) {
+				return;
+			}
+			mIds.remove(mValues.get(id));
+			mValues.set(id, null);
+			if (mFreeCount == mFree.length) {
+				mFree = Arrays.copyOf(mFree, mFree.length * 2);
+			}
+			mFree[mFreeCount++] = id;
+		}
+
+		int size() {
+			return mIds.size();
+		}
+	}
+}
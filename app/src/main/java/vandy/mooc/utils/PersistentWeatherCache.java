@@ -0,0 +1,531 @@
+package vandy.mooc.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import vandy.mooc.aidl.WeatherData;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * @class PersistentWeatherCache
+ *
+ * @brief A disk tier for the weather cache, so a restarted service starts warm. Results are appended as records to a
+ *        memory-mapped file and an in-memory index from location to the newest record is rebuilt by scanning the
+ *        file on open. The aliases of each city, the spellings of locations the Weather Service resolved to it, are
+ *        stored alongside its entries, so lookups by name find them after a restart too. Writes land in the shared
+ *        page cache, so they survive the process being killed. Superseded and expired records are dropped by
+ *        compacting into a new file once they outnumber the live ones, or when the file runs out of room. Compaction
+ *        runs on a background thread and only holds the lock to snapshot the live records and to swap in the new
+ *        file, so lookups never wait for it to write the file.
+ *
+ *        File layout: an int magic and int version, followed by records of int body length, int CRC32 of the body,
+ *        and the body itself, whose first byte tells an entry from an alias. A zero length, or a record failing its
+ *        checksum, marks the end of the data.
+ */
+public class PersistentWeatherCache implements Closeable {
+	/**
+	 * Logging tag used by the debugger.
+	 */
+	private final static String TAG = PersistentWeatherCache.class.getCanonicalName();
+
+	private static final int MAGIC = 0x57544852;
+	private static final int VERSION = 4;
+	private static final int FILE_HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	/**
+	 * First byte of the body of each kind of record.
+	 */
+	private static final byte RECORD_ENTRY = 0;
+	private static final byte RECORD_ALIAS = 1;
+
+	/**
+	 * Minimum number of dead records before a compaction is considered.
+	 */
+	private static final int MIN_DEAD_RECORDS_TO_COMPACT = 64;
+
+	private final File mFile;
+	private final int mCapacity;
+	private final long mMaxAge;
+	private final Clock mClock;
+
+	/**
+	 * Offset of the newest record for each location.
+	 */
+	private final Map<String, Integer> mIndex = new HashMap<>();
+
+	/**
+	 * Key of the city each canonical location query is an alias of.
+	 */
+	private final Map<String, String> mAliases = new HashMap<>();
+
+	private RandomAccessFile mRaf;
+	private FileChannel mChannel;
+	private MappedByteBuffer mBuffer;
+
+	/**
+	 * Offset at which the next record is appended.
+	 */
+	private int mWritePosition;
+
+	/**
+	 * Number of records superseded by a newer record for the same location.
+	 */
+	private int mDeadRecords;
+
+	/**
+	 * Offset at which the last compaction, or the scan on open, left the data to end.
+	 */
+	private int mCompactedPosition;
+
+	/**
+	 * Whether a compaction is queued or running.
+	 */
+	private boolean mCompactionScheduled;
+
+	/**
+	 * Whether a record has been dropped for lack of room since the file was last mapped, so it is only logged once
+	 * per compaction.
+	 */
+	private boolean mFullLogged;
+
+	/**
+	 * Runs compactions off the threads that put records.
+	 */
+	private final ThreadPoolExecutor mCompactor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "WeatherCacheCompactor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Open the cache stored in @a file, creating it if needed.
+	 *
+	 * @param capacity size in bytes of the mapped file.
+	 * @param maxAgeMillis age past which records are no longer returned and are dropped on compaction.
+	 */
+	public static PersistentWeatherCache open(File file, int capacity, long maxAgeMillis, Clock clock) throws IOException {
+		PersistentWeatherCache cache = new PersistentWeatherCache(file, capacity, maxAgeMillis, clock);
+		cache.map();
+		return cache;
+	}
+
+	private PersistentWeatherCache(File file, int capacity, long maxAgeMillis, Clock clock) {
+		if (capacity <= FILE_HEADER_SIZE) {
+			throw new IllegalArgumentException("capacity too small: " + capacity);
+		}
+		mFile = file;
+		mCapacity = capacity;
+		mMaxAge = maxAgeMillis;
+		mClock = clock;
+	}
+
+	/**
+	 * Return the newest entry stored for @a key, or null if there is none or it is older than the maximum age.
+	 */
+	public synchronized CacheEntry get(String key) {
+		Integer offset = mIndex.get(key);
+		if (offset == null || mBuffer == null) {
+			return null;
+		}
+		try {
+			CacheEntry entry = decode(readBody(offset));
+			if (mClock.currentTimeMillis() - entry.getTimestamp() > mMaxAge) {
+				return null;
+			}
+			return entry;
+		} catch (IOException e) {
+			Log.e(TAG, "Corrupt record for " + key, e);
+			mIndex.remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Append @a entry as the newest record for @a key, scheduling a compaction if one is due. If the file is full, the
+	 * record is dropped and a compaction scheduled to make room for later ones.
+	 */
+	public synchronized void put(String key, CacheEntry entry) {
+		if (mBuffer == null) {
+			return;
+		}
+		try {
+			int offset = append(key, encode(key, entry));
+			if (offset >= 0 && mIndex.put(key, offset) != null) {
+				mDeadRecords++;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Error persisting " + key, e);
+		}
+	}
+
+	/**
+	 * @return The key of the city the canonical location @a query is an alias of, or null if none is stored.
+	 */
+	public synchronized String getAlias(String query) {
+		return mAliases.get(query);
+	}
+
+	/**
+	 * Store @a query as an alias of the city cached under @a key, unless it already is one.
+	 */
+	public synchronized void putAlias(String query, String key) {
+		if (mBuffer == null || key.equals(mAliases.get(query))) {
+			return;
+		}
+		try {
+			if (append(query, encodeAlias(query, key)) >= 0 && mAliases.put(query, key) != null) {
+				mDeadRecords++;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Error persisting alias " + query, e);
+		}
+	}
+
+	/**
+	 * Append a record of @a body for @a key, scheduling a compaction if one is due.
+	 *
+	 * @return The offset of the record, or -1 if the file is full, in which case a compaction is scheduled to make
+	 *         room for later records.
+	 */
+	private int append(String key, byte[] body) {
+		if (mDeadRecords >= MIN_DEAD_RECORDS_TO_COMPACT && mDeadRecords > mIndex.size() + mAliases.size()) {
+			scheduleCompaction();
+		}
+		if (mWritePosition + RECORD_HEADER_SIZE + body.length > mCapacity) {
+			// Compacting again is pointless until something has been written since the last compaction.
+			if (mWritePosition > mCompactedPosition) {
+				scheduleCompaction();
+			}
+			if (!mFullLogged) {
+				Log.w(TAG, "No room to persist " + key + ", dropping records until " + mFile + " is compacted");
+				mFullLogged = true;
+			}
+			return -1;
+		}
+		int offset = mWritePosition;
+		writeRecord(mBuffer, offset, body);
+		mWritePosition += RECORD_HEADER_SIZE + body.length;
+		return offset;
+	}
+
+	/**
+	 * Rewrite the file keeping only the newest, unexpired record for each location, and the aliases of the locations
+	 * kept. The live records are copied out
+	 * under the lock, written to a new file without it, and records put meanwhile are carried over when the new file
+	 * is swapped in.
+	 */
+	public void compact() throws IOException {
+		List<byte[]> live;
+		Set<String> expired = new HashSet<>();
+		int snapshot;
+		synchronized (this) {
+			if (mBuffer == null) {
+				return;
+			}
+			long now = mClock.currentTimeMillis();
+			live = new ArrayList<>(mIndex.size() + mAliases.size());
+			for (Map.Entry<String, Integer> indexed : mIndex.entrySet()) {
+				byte[] body = readBody(indexed.getValue());
+				if (now - decode(body).getTimestamp() <= mMaxAge) {
+					live.add(body);
+				} else {
+					expired.add(indexed.getKey());
+				}
+			}
+			for (Map.Entry<String, String> alias : mAliases.entrySet()) {
+				if (mIndex.containsKey(alias.getValue()) && !expired.contains(alias.getValue())) {
+					live.add(encodeAlias(alias.getKey(), alias.getValue()));
+				}
+			}
+			snapshot = mWritePosition;
+		}
+
+		File tmp = new File(mFile.getPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			// Drop anything left by an earlier compaction that failed, so the new file holds zeros past its data.
+			raf.setLength(0);
+			raf.setLength(mCapacity);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			int position = FILE_HEADER_SIZE;
+			for (byte[] body : live) {
+				writeRecord(buffer, position, body);
+				position += RECORD_HEADER_SIZE + body.length;
+			}
+			buffer.force();
+
+			synchronized (this) {
+				if (mBuffer == null) {
+					return;
+				}
+				// Records put since the snapshot follow the live ones, so the scan on map() lets them supersede them.
+				int appended = mWritePosition - snapshot;
+				if (position + appended > mCapacity) {
+					Log.w(TAG, "No room to compact " + mFile);
+					return;
+				}
+				for (int i = 0; i < appended; i++) {
+					buffer.put(position + i, mBuffer.get(snapshot + i));
+				}
+				unmap();
+				if (!tmp.renameTo(mFile)) {
+					throw new IOException("Could not replace " + mFile + " with " + tmp);
+				}
+				map();
+				Logger.d(TAG, "Compacted to %d records, %d bytes", mIndex.size(), mWritePosition);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of locations with a stored record.
+	 */
+	public synchronized int size() {
+		return mIndex.size();
+	}
+
+	@Override
+	public synchronized void close() {
+		mCompactor.shutdown();
+		unmap();
+	}
+
+	/**
+	 * Compact the file on the compactor thread, unless a compaction is already queued or running.
+	 */
+	private void scheduleCompaction() {
+		if (mCompactionScheduled || mCompactor.isShutdown()) {
+			return;
+		}
+		mCompactionScheduled = true;
+		mCompactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				try {
+					compact();
+				} catch (IOException e) {
+					Log.e(TAG, "Error compacting " + mFile, e);
+				} finally {
+					synchronized (PersistentWeatherCache.this) {
+						mCompactionScheduled = false;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Map the file and rebuild the index by scanning its records.
+	 */
+	private void map() throws IOException {
+		mRaf = new RandomAccessFile(mFile, "rw");
+		boolean valid = mRaf.length() >= FILE_HEADER_SIZE && mRaf.readInt() == MAGIC && mRaf.readInt() == VERSION;
+		if (!valid) {
+			// New or unreadable file, so start it over. Truncating first has the file system zero it, instead of
+			// writing every byte of the mapping.
+			mRaf.setLength(0);
+		}
+		if (mRaf.length() < mCapacity) {
+			mRaf.setLength(mCapacity);
+		}
+		mChannel = mRaf.getChannel();
+		mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+		mIndex.clear();
+		mAliases.clear();
+		mDeadRecords = 0;
+		mFullLogged = false;
+
+		if (!valid) {
+			mBuffer.putInt(0, MAGIC);
+			mBuffer.putInt(4, VERSION);
+			mWritePosition = FILE_HEADER_SIZE;
+			mCompactedPosition = mWritePosition;
+			return;
+		}
+
+		int position = FILE_HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE <= mCapacity) {
+			int length = mBuffer.getInt(position);
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > mCapacity) {
+				break;
+			}
+			byte[] body;
+			String key;
+			String alias;
+			try {
+				body = readBody(position);
+				key = decodeKey(body);
+				alias = body[0] == RECORD_ALIAS ? decodeAlias(body) : null;
+			} catch (IOException e) {
+				// Torn write at the end of the data.
+				break;
+			}
+			if (alias != null ? mAliases.put(key, alias) != null : mIndex.put(key, position) != null) {
+				mDeadRecords++;
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+		mWritePosition = position;
+		mCompactedPosition = position;
+	}
+
+	private void unmap() {
+		mBuffer = null;
+		if (mRaf != null) {
+			try {
+				mRaf.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Error closing " + mFile, e);
+			}
+			mRaf = null;
+			mChannel = null;
+		}
+	}
+
+	/**
+	 * Copy out and verify the body of the record at @a offset.
+	 */
+	private byte[] readBody(int offset) throws IOException {
+		int length = mBuffer.getInt(offset);
+		int checksum = mBuffer.getInt(offset + 4);
+		byte[] body = new byte[length];
+		for (int i = 0; i < length; i++) {
+			body[i] = mBuffer.get(offset + RECORD_HEADER_SIZE + i);
+		}
+		if (crc(body) != checksum) {
+			throw new IOException("Checksum mismatch at " + offset);
+		}
+		return body;
+	}
+
+	private static void writeRecord(MappedByteBuffer buffer, int offset, byte[] body) {
+		// Write the body before the length, so a torn write never looks like a complete record.
+		for (int i = 0; i < body.length; i++) {
+			buffer.put(offset + RECORD_HEADER_SIZE + i, body[i]);
+		}
+		buffer.putInt(offset + 4, crc(body));
+		buffer.putInt(offset, body.length);
+	}
+
+	private static int crc(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] encode(String key, CacheEntry entry) throws IOException {
+		WeatherData data = entry.getData();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(RECORD_ENTRY);
+			out.writeUTF(key);
+			out.writeLong(entry.getTimestamp());
+			out.writeLong(entry.getTtl());
+			out.writeLong(entry.getObserved());
+			writeNullableString(out, entry.getETag());
+			writeNullableString(out, entry.getLastModified());
+			out.writeInt(entry.getBodySize());
+			writeNullableString(out, data.mName);
+			writeNullableString(out, data.mIcon);
+			out.writeDouble(data.mSpeed);
+			out.writeDouble(data.mDeg);
+			out.writeDouble(data.mTemp);
+			out.writeDouble(data.mPressure);
+			out.writeLong(data.mHumidity);
+			out.writeLong(data.mSunrise);
+			out.writeLong(data.mSunset);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encodeAlias(String query, String key) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(RECORD_ALIAS);
+			out.writeUTF(query);
+			out.writeUTF(key);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return The location of the entry or alias record @a body.
+	 */
+	private static String decodeKey(byte[] body) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+			in.readByte();
+			return in.readUTF();
+		}
+	}
+
+	/**
+	 * @return The key of the city the alias record @a body points to.
+	 */
+	private static String decodeAlias(byte[] body) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+			in.readByte();
+			in.readUTF();
+			return in.readUTF();
+		}
+	}
+
+	private static CacheEntry decode(byte[] body) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+			in.readByte();
+			in.readUTF();
+			long timestamp = in.readLong();
+			long ttl = in.readLong();
+			long observed = in.readLong();
+			String etag = readNullableString(in);
+			String lastModified = readNullableString(in);
+			int bodySize = in.readInt();
+			String name = readNullableString(in);
+			String icon = readNullableString(in);
+			double speed = in.readDouble();
+			double deg = in.readDouble();
+			double temp = in.readDouble();
+			double pressure = in.readDouble();
+			long humidity = in.readLong();
+			long sunrise = in.readLong();
+			long sunset = in.readLong();
+			return new CacheEntry(timestamp, new WeatherData(name, icon, speed, deg, temp, pressure, humidity, sunrise, sunset), ttl, observed, etag, lastModified, bodySize);
+		}
+	}
+
+	private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullableString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
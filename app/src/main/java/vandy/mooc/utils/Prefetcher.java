@@ -0,0 +1,324 @@
+package vandy.mooc.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * @class Prefetcher
+ *
+ * @brief Keeps the most requested locations warm. Every lookup bumps a per-location counter that is halved
+ *        periodically, so the counts track recent popularity. On each tick the most popular locations whose cached
+ *        entry is about to expire are refreshed in the background, as long as the per-minute budget of upstream calls
+ *        allows it.
+ *
+ *        A prefetch that has not replaced the entry within RETRY_DELAY, because it failed or was deferred or dropped
+ *        by the quota, may be tried again. A lookup that hits a prefetched entry after the entry it replaced would
+ *        have expired is counted as a miss avoided.
+ */
+public class Prefetcher {
+	/**
+	 * Logging tag used by the debugger.
+	 */
+	private final static String TAG = Prefetcher.class.getCanonicalName();
+
+	/**
+	 * Maximum number of locations whose popularity is tracked.
+	 */
+	private static final int MAX_TRACKED = 1024;
+
+	/**
+	 * Period in milliseconds after which all counts are halved.
+	 */
+	private static final long DECAY_PERIOD = 60000;
+
+	/**
+	 * Time in milliseconds after which a prefetch that has not replaced the entry is presumed lost and may be tried
+	 * again.
+	 */
+	static final long RETRY_DELAY = 5000;
+
+	/**
+	 * Refreshes a location in the background.
+	 */
+	public interface Loader {
+		/**
+		 * Refresh the canonical @a query, cached under @a key.
+		 */
+		void refresh(String query, String key);
+	}
+
+	private final WeatherCache mCache;
+	private final Loader mLoader;
+	private final Clock mClock;
+	private final int mTopN;
+	private final long mLeadTime;
+	private final int mCallsPerMinute;
+
+	/**
+	 * Popularity of each tracked location.
+	 */
+	private final ConcurrentHashMap<String, Popularity> mPopularity = new ConcurrentHashMap<>();
+
+	/**
+	 * Outstanding prefetch of each location.
+	 */
+	private final ConcurrentHashMap<String, Prefetch> mOutstanding = new ConcurrentHashMap<>();
+
+	private final AtomicLong mPrefetches = new AtomicLong();
+	private final AtomicLong mAvoidedMisses = new AtomicLong();
+
+	/**
+	 * Budget window, only touched by the tick thread.
+	 */
+	private long mWindowStart;
+	private int mWindowCalls;
+	private long mLastDecay;
+
+	private ScheduledExecutorService mScheduler;
+
+	/**
+	 * Create a Prefetcher that refreshes up to @a topN of the most popular locations in @a cache once their entries
+	 * are within @a leadTimeMillis of expiring, making at most @a callsPerMinute refreshes a minute through @a loader.
+	 */
+	public Prefetcher(WeatherCache cache, int topN, long leadTimeMillis, int callsPerMinute, Clock clock, Loader loader) {
+		mCache = cache;
+		mTopN = topN;
+		mLeadTime = leadTimeMillis;
+		mCallsPerMinute = callsPerMinute;
+		mClock = clock;
+		mLoader = loader;
+		mLastDecay = clock.currentTimeMillis();
+	}
+
+	/**
+	 * Record a lookup of the canonical @a query, cached under @a key.
+	 */
+	public void recordAccess(String query, String key) {
+		Popularity popularity = mPopularity.get(key);
+		if (popularity == null) {
+			if (mPopularity.size() >= MAX_TRACKED) {
+				return;
+			}
+			Popularity created = new Popularity(query);
+			popularity = mPopularity.putIfAbsent(key, created);
+			if (popularity == null) {
+				popularity = created;
+			}
+		}
+		popularity.mQuery = query;
+		popularity.mCount.incrementAndGet();
+	}
+
+	/**
+	 * Record that the canonical @a query has been resolved to the city cached under @a key, so the lookups counted
+	 * under the query's own key before the alias was known count towards the city.
+	 */
+	public void recordAlias(String query, String key) {
+		String queryKey = LocationKeys.queryKey(query);
+		if (queryKey.equals(key)) {
+			return;
+		}
+		Popularity counted = mPopularity.remove(queryKey);
+		if (counted == null) {
+			return;
+		}
+		Popularity popularity = mPopularity.putIfAbsent(key, counted);
+		if (popularity != null) {
+			popularity.mCount.addAndGet(counted.mCount.get());
+		}
+	}
+
+	/**
+	 * Record a lookup of @a key served from the cache.
+	 */
+	public void recordHit(String key) {
+		Prefetch prefetch = mOutstanding.get(key);
+		if (prefetch != null && mClock.currentTimeMillis() > prefetch.mReplacedExpiry && mOutstanding.remove(key, prefetch)) {
+			mAvoidedMisses.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Record a lookup of @a key that missed the cache, so a prefetch of it avoided nothing.
+	 */
+	public void recordMiss(String key) {
+		mOutstanding.remove(key);
+	}
+
+	/**
+	 * Start ticking every @a periodMillis on a background thread, if not already started.
+	 */
+	public synchronized void start(long periodMillis) {
+		if (mScheduler != null) {
+			return;
+		}
+		mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WeatherPrefetcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Error prefetching", e);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop ticking.
+	 */
+	public synchronized void stop() {
+		if (mScheduler != null) {
+			mScheduler.shutdownNow();
+			mScheduler = null;
+		}
+	}
+
+	/**
+	 * Refresh the popular locations that are about to expire, within the budget.
+	 */
+	void tick() {
+		long now = mClock.currentTimeMillis();
+		if (now - mLastDecay >= DECAY_PERIOD) {
+			decay();
+			mLastDecay = now;
+		}
+		if (now - mWindowStart >= 60000) {
+			mWindowStart = now;
+			mWindowCalls = 0;
+		}
+
+		for (String key : topKeys()) {
+			if (mWindowCalls >= mCallsPerMinute) {
+				return;
+			}
+			CacheEntry entry = mCache.peek(key);
+			if (entry == null) {
+				continue;
+			}
+			long expiry = entry.getTimestamp() + mCache.getTtl(entry);
+			Prefetch prefetch = mOutstanding.get(key);
+			if (prefetch != null && prefetch.mReplacedExpiry == expiry && now - prefetch.mStarted < RETRY_DELAY) {
+				// Already refreshing this entry.
+				continue;
+			}
+			if (expiry - now <= mLeadTime) {
+				Popularity popularity = mPopularity.get(key);
+				if (popularity == null) {
+					continue;
+				}
+				mOutstanding.put(key, new Prefetch(expiry, now));
+				mWindowCalls++;
+				mPrefetches.incrementAndGet();
+				mLoader.refresh(popularity.mQuery, key);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of refreshes started by the Prefetcher.
+	 */
+	public long getPrefetchCount() {
+		return mPrefetches.get();
+	}
+
+	/**
+	 * @return The number of lookups served by a prefetched entry that would otherwise have missed.
+	 */
+	public long getAvoidedMissCount() {
+		return mAvoidedMisses.get();
+	}
+
+	/**
+	 * @return Up to mTopN tracked keys, most popular first.
+	 */
+	private List<String> topKeys() {
+		List<Snapshot> snapshots = new ArrayList<>(mPopularity.size());
+		for (Map.Entry<String, Popularity> entry : mPopularity.entrySet()) {
+			snapshots.add(new Snapshot(entry.getKey(), entry.getValue().mCount.get()));
+		}
+		Collections.sort(snapshots, new Comparator<Snapshot>() {
+			@Override
+			public int compare(Snapshot lhs, Snapshot rhs) {
+				return lhs.mCount < rhs.mCount ? 1 : lhs.mCount > rhs.mCount ? -1 : 0;
+			}
+		});
+		List<String> keys = new ArrayList<>(Math.min(mTopN, snapshots.size()));
+		for (int i = 0; i < snapshots.size() && i < mTopN; i++) {
+			keys.add(snapshots.get(i).mKey);
+		}
+		return keys;
+	}
+
+	/**
+	 * Halve every count, forgetting locations whose count reaches zero.
+	 */
+	private void decay() {
+		for (Iterator<Popularity> it = mPopularity.values().iterator(); it.hasNext();) {
+			AtomicInteger count = it.next().mCount;
+			int value;
+			do {
+				value = count.get();
+			} while (!count.compareAndSet(value, value >> 1));
+			if (value >> 1 == 0) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Decaying lookup count of a location, and the query last used to look it up.
+	 */
+	private static class Popularity {
+		final AtomicInteger mCount = new AtomicInteger();
+		volatile String mQuery;
+
+		Popularity(String query) {
+			mQuery = query;
+		}
+	}
+
+	/**
+	 * Expiry time of the entry a prefetch is replacing, and when the prefetch was started.
+	 */
+	private static class Prefetch {
+		final long mReplacedExpiry;
+		final long mStarted;
+
+		Prefetch(long replacedExpiry, long started) {
+			mReplacedExpiry = replacedExpiry;
+			mStarted = started;
+		}
+	}
+
+	private static class Snapshot {
+		final String mKey;
+		final int mCount;
+
+		Snapshot(String key, int count) {
+			mKey = key;
+			mCount = count;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package vandy.mooc.utils;
+
+/**
+ * @class QuotaManager
+ *
+ * @brief Keeps calls to the Weather Service within the per-minute quota of the API key, using a token bucket that
+ *        holds up to a minute's quota and refills continuously at the quota's rate. Each call takes a token.
+ *
+ *        Interactive lookups come first. Background work, such as refreshes and prefetches, may only take a token
+ *        while the bucket holds more than the share reserved for interactive lookups, and is deferred otherwise. An
+ *        interactive lookup finding the bucket empty waits briefly for a token, and is rejected if none comes, so the
+ *        caller can serve from the cache instead of sending a call the Weather Service would refuse.
+ *
+ *        Each call says its own priority, so it does not depend on the thread that happens to make it.
+ */
+public class QuotaManager {
+	private final double mCapacity;
+	private final double mTokensPerMilli;
+	private final double mReserve;
+	private final long mMaxWait;
+	private final Clock mClock;
+
+	/**
+	 * State of the bucket, guarded by this.
+	 */
+	private double mTokens;
+	private long mLastRefill;
+	private long mInteractiveTokens;
+	private long mBackgroundTokens;
+	private long mQueued;
+	private long mRejected;
+	private long mDeferred;
+
+	/**
+	 * Create a bucket for a quota of @a callsPerMinute, keeping a fraction @a interactiveReserve of it for
+	 * interactive lookups, which wait at most @a maxWaitMillis for a token.
+	 */
+	public QuotaManager(int callsPerMinute, double interactiveReserve, long maxWaitMillis, Clock clock) {
+		if (callsPerMinute <= 0) {
+			throw new IllegalArgumentException("callsPerMinute must be positive: " + callsPerMinute);
+		}
+		mCapacity = callsPerMinute;
+		mTokensPerMilli = callsPerMinute / 60000.0;
+		mReserve = callsPerMinute * interactiveReserve;
+		mMaxWait = maxWaitMillis;
+		mClock = clock;
+		mTokens = mCapacity;
+		mLastRefill = clock.currentTimeMillis();
+	}
+
+	/**
+	 * Take a token for a call made at @a priority.
+	 *
+	 * @return true if the call may be made, false if it would exceed the quota.
+	 */
+	public synchronized boolean acquire(FetchPriority priority) {
+		refill();
+		if (priority == FetchPriority.BACKGROUND) {
+			if (mTokens - 1 < mReserve) {
+				mDeferred++;
+				return false;
+			}
+			mTokens--;
+			mBackgroundTokens++;
+			return true;
+		}
+
+		if (mTokens < 1) {
+			mQueued++;
+			long deadline = mClock.currentTimeMillis() + mMaxWait;
+			try {
+				while (mTokens < 1) {
+					long remaining = deadline - mClock.currentTimeMillis();
+					if (remaining <= 0) {
+						mRejected++;
+						return false;
+					}
+					// Tokens arrive with time rather than by release, so sleep until the next one is due.
+					wait(Math.max(1, Math.min(remaining, (long) Math.ceil((1 - mTokens) / mTokensPerMilli))));
+					refill();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				mRejected++;
+				return false;
+			}
+		}
+		mTokens--;
+		mInteractiveTokens++;
+		return true;
+	}
+
+	private void refill() {
+		long now = mClock.currentTimeMillis();
+		mTokens = Math.min(mCapacity, mTokens + (now - mLastRefill) * mTokensPerMilli);
+		mLastRefill = now;
+	}
+
+	/**
+	 * @return A snapshot of the bucket and its counters.
+	 */
+	public synchronized Stats getStats() {
+		refill();
+		return new Stats((int) mTokens, mInteractiveTokens, mBackgroundTokens, mQueued, mRejected, mDeferred);
+	}
+
+	/**
+	 * Immutable snapshot of the bucket and its counters.
+	 */
+	public static class Stats {
+		public final int availableTokens;
+		public final long interactiveTokens;
+		public final long backgroundTokens;
+		public final long queued;
+		public final long rejected;
+		public final long deferred;
+
+		Stats(int availableTokens, long interactiveTokens, long backgroundTokens, long queued, long rejected, long deferred) {
+			this.availableTokens = availableTokens;
+			this.interactiveTokens = interactiveTokens;
+			this.backgroundTokens = backgroundTokens;
+			this.queued = queued;
+			this.rejected = rejected;
+			this.deferred = deferred;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [availableTokens=" + availableTokens + ", interactiveTokens=" + interactiveTokens + ", backgroundTokens=" + backgroundTokens + ", queued=" + queued + ", rejected=" + rejected + ", deferred=" + deferred + "]";
+		}
+	}
+}
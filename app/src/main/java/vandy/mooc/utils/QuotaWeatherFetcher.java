@@ -0,0 +1,59 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+import vandy.mooc.jsonweather.JsonWeather;
+
+/**
+ * @class QuotaWeatherFetcher
+ *
+ * @brief A WeatherFetcher that takes a token from a QuotaManager for every fetch before handing it to another
+ *        fetcher. Fetches over the quota fail with a FetchRejectedException.
+ */
+public class QuotaWeatherFetcher implements WeatherFetcher {
+	private final WeatherFetcher mDelegate;
+	private final QuotaManager mQuota;
+
+	public QuotaWeatherFetcher(WeatherFetcher delegate, QuotaManager quota) {
+		mDelegate = delegate;
+		mQuota = quota;
+	}
+
+	@Override
+	public Result fetch(String query, CacheEntry previous, FetchPriority priority) throws IOException {
+		acquire(priority);
+		return mDelegate.fetch(query, previous, priority);
+	}
+
+	@Override
+	public void fetchAsync(String query, CacheEntry previous, FetchPriority priority, Callback callback) {
+		try {
+			acquire(priority);
+		} catch (FetchRejectedException e) {
+			callback.onFailure(e);
+			return;
+		}
+		mDelegate.fetchAsync(query, previous, priority, callback);
+	}
+
+	@Override
+	public List<JsonWeather> fetchGroup(List<Long> ids, FetchPriority priority) throws IOException {
+		acquire(priority);
+		return mDelegate.fetchGroup(ids, priority);
+	}
+
+	/**
+	 * {@inheritDoc} Takes no token, since it sends no request for Weather information.
+	 */
+	@Override
+	public void warmUp() throws IOException {
+		mDelegate.warmUp();
+	}
+
+	private void acquire(FetchPriority priority) throws FetchRejectedException {
+		if (!mQuota.acquire(priority)) {
+			throw new FetchRejectedException(priority == FetchPriority.BACKGROUND ? "Quota reserved for interactive lookups" : "Quota exhausted");
+		}
+	}
+}
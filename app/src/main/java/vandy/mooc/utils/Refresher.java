@@ -0,0 +1,162 @@
+package vandy.mooc.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * @class Refresher
+ *
+ * @brief Runs cache refreshes on a small pool of background threads. At most one refresh per key is queued or
+ *        running at any time, so repeated reads of a stale or nearly expired entry do not pile up work. A refresh
+ *        may complete asynchronously, holding a thread only while it starts and counting as running until it is
+ *        done.
+ */
+public class Refresher {
+	/**
+	 * Logging tag used by the debugger.
+	 */
+	private final static String TAG = Refresher.class.getCanonicalName();
+
+	/**
+	 * A refresh that completes asynchronously.
+	 */
+	public interface AsyncRefresh {
+		/**
+		 * Start the refresh, and run @a done once it has completed, on any thread.
+		 */
+		void start(Runnable done);
+	}
+
+	/**
+	 * Keys with a refresh queued or running.
+	 */
+	private final Set<String> mPending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Executes the refreshes.
+	 */
+	private final ThreadPoolExecutor mExecutor;
+
+	/**
+	 * Number of refreshes run.
+	 */
+	private final AtomicLong mRefreshes = new AtomicLong();
+
+	/**
+	 * Create a Refresher running at most @a threads refreshes at a time.
+	 */
+	public Refresher(int threads) {
+		mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WeatherRefresher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Run @a refresh in the background unless a refresh of @a key is already queued or running.
+	 *
+	 * @return true if the refresh was scheduled.
+	 */
+	public boolean schedule(String key, final Runnable refresh) {
+		return schedule(key, new AsyncRefresh() {
+			@Override
+			public void start(Runnable done) {
+				try {
+					refresh.run();
+				} finally {
+					done.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start @a refresh in the background unless a refresh of @a key is already queued or running, which it is until
+	 * it has run its done callback.
+	 *
+	 * @return true if the refresh was scheduled.
+	 */
+	public boolean schedule(String key, AsyncRefresh refresh) {
+		if (!mPending.add(key)) {
+			return false;
+		}
+		try {
+			mExecutor.execute(new Refresh(key, refresh));
+			return true;
+		} catch (RejectedExecutionException e) {
+			mPending.remove(key);
+			return false;
+		}
+	}
+
+	/**
+	 * Drop the refreshes waiting for a thread. Running refreshes finish, and refreshes can be scheduled again.
+	 *
+	 * @return The number of refreshes dropped.
+	 */
+	public int cancelPending() {
+		List<Runnable> dropped = new ArrayList<>();
+		mExecutor.getQueue().drainTo(dropped);
+		for (Runnable refresh : dropped) {
+			mPending.remove(((Refresh) refresh).mKey);
+		}
+		return dropped.size();
+	}
+
+	/**
+	 * @return The number of refreshes run so far.
+	 */
+	public long getRefreshCount() {
+		return mRefreshes.get();
+	}
+
+	/**
+	 * A refresh of one key, which is no longer pending once it has completed.
+	 */
+	private class Refresh implements Runnable {
+		private final String mKey;
+		private final AsyncRefresh mRefresh;
+
+		Refresh(String key, AsyncRefresh refresh) {
+			mKey = key;
+			mRefresh = refresh;
+		}
+
+		@Override
+		public void run() {
+			mRefreshes.incrementAndGet();
+			final AtomicBoolean completed = new AtomicBoolean();
+			Runnable done = new Runnable() {
+				@Override
+				public void run() {
+					if (completed.compareAndSet(false, true)) {
+						mPending.remove(mKey);
+					}
+				}
+			};
+			try {
+				mRefresh.start(done);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Error refreshing " + mKey, e);
+				done.run();
+			}
+		}
+	}
+}
@@ -0,0 +1,387 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import vandy.mooc.jsonweather.JsonWeather;
+
+/**
+ * @class ResilientWeatherFetcher
+ *
+ * @brief A WeatherFetcher that shields its callers from an unreliable provider. Fetches failing with an I/O error,
+ *        a server error or 429 Too Many Requests are retried a bounded number of times after an exponentially growing, fully jittered delay. Optionally, a
+ *        fetch still running after the 95th percentile of recent latencies is hedged with a second identical fetch,
+ *        and whichever completes first wins. A circuit breaker around the provider opens after a run of failures,
+ *        during which fetches fail at once with a FetchRejectedException, so the caller can serve stale results
+ *        instead of waiting on a provider that is down.
+ *
+ *        Fetches rejected by the fetcher behind this one, such as a concurrency limiter, are neither retried nor
+ *        counted against the provider, and neither are other error statuses, which the provider answered correctly
+ *        and will answer the same way again.
+ */
+public class ResilientWeatherFetcher implements WeatherFetcher {
+	/**
+	 * Logging tag used by the debugger.
+	 */
+	private final static String TAG = ResilientWeatherFetcher.class.getCanonicalName();
+
+	/**
+	 * Number of recent latencies the hedging percentile is taken over, and the number needed before hedging starts.
+	 */
+	private static final int LATENCY_WINDOW = 256;
+	private static final int MIN_LATENCY_SAMPLES = 20;
+
+	/**
+	 * Most threads running primary and hedged fetches at once.
+	 */
+	private static final int MAX_HEDGE_THREADS = 16;
+
+	/**
+	 * A single attempt at a fetch.
+	 */
+	private interface Attempt<T> {
+		T run() throws IOException;
+	}
+
+	private volatile WeatherFetcher mDelegate;
+	private final CircuitBreaker mBreaker;
+	private final int mMaxAttempts;
+	private final long mBaseBackoff;
+	private final long mMaxBackoff;
+	private final LatencyTracker mLatency = new LatencyTracker(0.95, LATENCY_WINDOW, MIN_LATENCY_SAMPLES);
+	private final Random mRandom = new Random();
+	private final ThreadPoolExecutor mHedgeExecutor;
+	private final ScheduledThreadPoolExecutor mRetryTimer;
+	private volatile boolean mHedging;
+
+	private final AtomicLong mRetries = new AtomicLong();
+	private final AtomicLong mHedges = new AtomicLong();
+	private final AtomicLong mHedgeWins = new AtomicLong();
+
+	/**
+	 * Create a fetcher making up to @a maxAttempts attempts at each fetch through @a delegate, backing off between
+	 * them for a random time up to @a baseBackoffMillis doubled after each attempt and capped at
+	 * @a maxBackoffMillis, with the provider guarded by @a breaker.
+	 */
+	public ResilientWeatherFetcher(WeatherFetcher delegate, CircuitBreaker breaker, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+		}
+		mDelegate = delegate;
+		mBreaker = breaker;
+		mMaxAttempts = maxAttempts;
+		mBaseBackoff = baseBackoffMillis;
+		mMaxBackoff = maxBackoffMillis;
+		mHedgeExecutor = new ThreadPoolExecutor(0, MAX_HEDGE_THREADS, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WeatherHedge");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mRetryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WeatherRetry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mRetryTimer.setKeepAliveTime(30, TimeUnit.SECONDS);
+		mRetryTimer.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Fetch through @a delegate from now on.
+	 */
+	public void setDelegate(WeatherFetcher delegate) {
+		mDelegate = delegate;
+	}
+
+	/**
+	 * Enable or disable hedging of slow fetches. Off by default, since a hedge costs a thread hop on every fetch and a
+	 * second request on slow ones.
+	 */
+	public void setHedging(boolean enabled) {
+		mHedging = enabled;
+	}
+
+	@Override
+	public Result fetch(final String query, final CacheEntry previous, final FetchPriority priority) throws IOException {
+		return call(new Attempt<Result>() {
+			@Override
+			public Result run() throws IOException {
+				return mDelegate.fetch(query, previous, priority);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc} Retried like fetch(), waiting out the back-off on a timer thread rather than any caller's, but
+	 * never hedged.
+	 */
+	@Override
+	public void fetchAsync(String query, CacheEntry previous, FetchPriority priority, Callback callback) {
+		attemptAsync(query, previous, priority, callback, 0);
+	}
+
+	@Override
+	public List<JsonWeather> fetchGroup(final List<Long> ids, final FetchPriority priority) throws IOException {
+		return call(new Attempt<List<JsonWeather>>() {
+			@Override
+			public List<JsonWeather> run() throws IOException {
+				return mDelegate.fetchGroup(ids, priority);
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc} Made once, bypassing the circuit breaker, since a failed warm-up only means the first fetch pays
+	 * for the connection itself.
+	 */
+	@Override
+	public void warmUp() throws IOException {
+		mDelegate.warmUp();
+	}
+
+	/**
+	 * @return A snapshot of the breaker state and the retry and hedging counters.
+	 */
+	public Stats getStats() {
+		return new Stats(mBreaker.getState(), mBreaker.getOpenCount(), mBreaker.getRefusedCount(), mRetries.get(), mHedges.get(), mHedgeWins.get(), mLatency.get());
+	}
+
+	/**
+	 * Run @a attempt, retrying it on I/O errors and retryable error statuses, unless the breaker is open.
+	 */
+	private <T> T call(Attempt<T> attempt) throws IOException {
+		IOException failure = null;
+		for (int i = 0; i < mMaxAttempts; i++) {
+			if (i > 0) {
+				mRetries.incrementAndGet();
+				backOff(i);
+			}
+			if (!mBreaker.allowRequest()) {
+				throw new FetchRejectedException("Circuit breaker open");
+			}
+			long start = System.currentTimeMillis();
+			try {
+				T result = mHedging ? hedge(attempt) : attempt.run();
+				mBreaker.onSuccess();
+				mLatency.record(System.currentTimeMillis() - start);
+				return result;
+			} catch (IOException e) {
+				if (!failed(e, i)) {
+					throw e;
+				}
+				failure = e;
+			} catch (RuntimeException e) {
+				mBreaker.onFailure();
+				throw e;
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * Make attempt number @a attempt, counting from 0, at fetching @a query asynchronously, unless the breaker is
+	 * open, and schedule the next one after a back-off if it fails with an error worth retrying.
+	 */
+	private void attemptAsync(final String query, final CacheEntry previous, final FetchPriority priority, final Callback callback, final int attempt) {
+		if (!mBreaker.allowRequest()) {
+			callback.onFailure(new FetchRejectedException("Circuit breaker open"));
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		mDelegate.fetchAsync(query, previous, priority, new Callback() {
+			@Override
+			public void onResult(Result result) {
+				mBreaker.onSuccess();
+				mLatency.record(System.currentTimeMillis() - start);
+				callback.onResult(result);
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				if (!failed(e, attempt) || attempt + 1 >= mMaxAttempts) {
+					callback.onFailure(e);
+					return;
+				}
+				mRetries.incrementAndGet();
+				try {
+					mRetryTimer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							attemptAsync(query, previous, priority, callback, attempt + 1);
+						}
+					}, backOffDelay(attempt + 1), TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException rejected) {
+					callback.onFailure(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Record the failure of attempt number @a attempt, counting from 0, with @a e on the breaker. Fetches turned away
+	 * before reaching the provider or interrupted tell nothing about it, and neither do error statuses that are not
+	 * worth retrying, which the provider answered correctly.
+	 *
+	 * @return true if the fetch is worth retrying.
+	 */
+	private boolean failed(IOException e, int attempt) {
+		if (e instanceof FetchRejectedException || e instanceof InterruptedIOException) {
+			mBreaker.onAbandoned();
+			return false;
+		}
+		if (e instanceof HttpStatusException && !((HttpStatusException) e).isRetryable()) {
+			mBreaker.onSuccess();
+			return false;
+		}
+		mBreaker.onFailure();
+		Logger.d(TAG, "Attempt %d of %d failed: %s", attempt + 1, mMaxAttempts, e);
+		return true;
+	}
+
+	/**
+	 * @return A random time to wait before attempt number @a attempt, counting from 0.
+	 */
+	private long backOffDelay(int attempt) {
+		long ceiling = Math.min(mMaxBackoff, mBaseBackoff << Math.min(attempt - 1, 30));
+		return (long) (mRandom.nextDouble() * ceiling);
+	}
+
+	/**
+	 * Sleep before attempt number @a attempt, counting from 0.
+	 */
+	private void backOff(int attempt) throws InterruptedIOException {
+		try {
+			Thread.sleep(backOffDelay(attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while backing off");
+		}
+	}
+
+	/**
+	 * Run @a attempt on a pool thread, and run it again alongside if it has not completed within the 95th percentile
+	 * of recent latencies.
+	 *
+	 * @return The result of whichever attempt succeeds first.
+	 */
+	private <T> T hedge(final Attempt<T> attempt) throws IOException {
+		long p95 = mLatency.get();
+		if (p95 < 0) {
+			return attempt.run();
+		}
+		Callable<T> task = new Callable<T>() {
+			@Override
+			public T call() throws IOException {
+				return attempt.run();
+			}
+		};
+		CompletionService<T> completion = new ExecutorCompletionService<>(mHedgeExecutor);
+		Future<T> primary;
+		try {
+			primary = completion.submit(task);
+		} catch (RejectedExecutionException e) {
+			return attempt.run();
+		}
+
+		Future<T> hedge = null;
+		try {
+			Future<T> done = completion.poll(p95, TimeUnit.MILLISECONDS);
+			int outstanding = 1;
+			if (done == null) {
+				try {
+					hedge = completion.submit(task);
+					mHedges.incrementAndGet();
+					outstanding = 2;
+				} catch (RejectedExecutionException e) {
+					// No thread to spare, so just wait for the primary.
+				}
+			}
+			IOException failure = null;
+			for (; outstanding > 0; outstanding--) {
+				if (done == null) {
+					done = completion.take();
+				}
+				try {
+					T result = done.get();
+					if (done == hedge) {
+						mHedgeWins.incrementAndGet();
+					}
+					return result;
+				} catch (ExecutionException e) {
+					failure = toIOException(e.getCause());
+				}
+				done = null;
+			}
+			throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for fetch");
+		} finally {
+			primary.cancel(true);
+			if (hedge != null) {
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	private static IOException toIOException(Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IOException(cause);
+	}
+
+	/**
+	 * Immutable snapshot of the breaker state and the retry and hedging counters.
+	 */
+	public static class Stats {
+		public final CircuitBreaker.State breakerState;
+		public final long breakerOpenings;
+		public final long refused;
+		public final long retries;
+		public final long hedges;
+		public final long hedgeWins;
+		public final long p95Latency;
+
+		Stats(CircuitBreaker.State breakerState, long breakerOpenings, long refused, long retries, long hedges, long hedgeWins, long p95Latency) {
+			this.breakerState = breakerState;
+			this.breakerOpenings = breakerOpenings;
+			this.refused = refused;
+			this.retries = retries;
+			this.hedges = hedges;
+			this.hedgeWins = hedgeWins;
+			this.p95Latency = p95Latency;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [breakerState=" + breakerState + ", breakerOpenings=" + breakerOpenings + ", refused=" + refused + ", retries=" + retries + ", hedges=" + hedges + ", hedgeWins=" + hedgeWins + ", p95Latency=" + p95Latency + "]";
+		}
+	}
+}
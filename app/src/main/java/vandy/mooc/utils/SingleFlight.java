@@ -0,0 +1,120 @@
+package vandy.mooc.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * @class SingleFlight
+ *
+ * @brief Coalesces concurrent loads of the same key into a single call. The first caller for a key runs the loader
+ *        on its own thread, while any caller arriving for that key before it finishes waits for and shares the same
+ *        result. Loads for different keys never wait on each other. A load may also be completed later by its owner,
+ *        such as the callback of an asynchronous fetch, while blocking callers share it in the same way.
+ */
+public class SingleFlight<K, V> {
+	/**
+	 * Loads currently in progress, keyed by the key being loaded.
+	 */
+	private final ConcurrentMap<K, FutureTask<V>> mInFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Return the value produced by @a loader for @a key, or join a load of @a key that is already in progress.
+	 *
+	 * Unchecked exceptions thrown by the loader are rethrown to every caller sharing that load.
+	 *
+	 * @return The loaded value, or null if the calling thread was interrupted while waiting.
+	 */
+	public V execute(K key, Callable<V> loader) {
+		FutureTask<V> task = new FutureTask<>(loader);
+		FutureTask<V> existing = mInFlight.putIfAbsent(key, task);
+
+		if (existing == null) {
+			// We own this load, so run it on the calling thread.
+			try {
+				task.run();
+			} finally {
+				mInFlight.remove(key, task);
+			}
+			existing = task;
+		}
+
+		try {
+			return existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Start a load of @a key that completes later, off the calling thread, unless a load of @a key is already in
+	 * progress. Callers of execute() arriving for @a key before it completes wait for and share its result.
+	 *
+	 * @return The load, which its owner must complete, or null if one was already in progress.
+	 */
+	public Flight begin(K key) {
+		Flight flight = new Flight(key);
+		return mInFlight.putIfAbsent(key, flight) == null ? flight : null;
+	}
+
+	/**
+	 * Wait for a load of @a key already in progress, if any, to finish, whatever its outcome.
+	 */
+	public void await(K key) {
+		FutureTask<V> existing = mInFlight.get(key);
+		if (existing == null) {
+			return;
+		}
+		try {
+			existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// The caller only waited for the load to end.
+		}
+	}
+
+	/**
+	 * @return The number of loads currently in progress.
+	 */
+	public int inFlight() {
+		return mInFlight.size();
+	}
+
+	/**
+	 * A load started by begin(), which its owner completes once the value has arrived.
+	 */
+	public class Flight extends FutureTask<V> {
+		private final K mKey;
+
+		Flight(K key) {
+			super(new Callable<V>() {
+				@Override
+				public V call() {
+					throw new IllegalStateException("Completed by its owner");
+				}
+			});
+			mKey = key;
+		}
+
+		/**
+		 * Hand @a value to every caller sharing the load, and end it.
+		 */
+		public void complete(V value) {
+			set(value);
+			mInFlight.remove(mKey, this);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package vandy.mooc.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @class StripedCounter
+ *
+ * @brief A counter that many threads can increment without contending on a single memory location. Each thread
+ *        increments one of several padded cells chosen by its id, and reads sum the cells.
+ */
+public class StripedCounter {
+	/**
+	 * Number of longs between cells, so each cell sits on its own cache line.
+	 */
+	private static final int PADDING = 8;
+
+	/**
+	 * Number of cells, a power of two.
+	 */
+	private static final int STRIPES = 16;
+
+	private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * Add one to the counter.
+	 */
+	public void increment() {
+		mCells.incrementAndGet(index());
+	}
+
+	/**
+	 * Add @a delta to the counter.
+	 */
+	public void add(long delta) {
+		mCells.addAndGet(index(), delta);
+	}
+
+	/**
+	 * @return The current value of the counter. Increments racing with the read may or may not be included.
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += mCells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	private static int index() {
+		return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+	}
+}
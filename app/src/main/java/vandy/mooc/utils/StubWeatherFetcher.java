@@ -0,0 +1,204 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import vandy.mooc.jsonweather.JsonWeather;
+import vandy.mooc.jsonweather.WeatherFields;
+import vandy.mooc.jsonweather.WeatherJSONParser;
+
+/**
+ * @class StubWeatherFetcher
+ *
+ * @brief An in-process stand-in for the Weather web service, for profiling and load-testing the cache and services
+ *        without the network. Each fetch sleeps for a latency drawn from a log-normal distribution, fails at the
+ *        configured rates, and otherwise parses a payload rendered from a template, so parsing costs the same as for
+ *        a real response.
+ *
+ *        The template may contain the placeholders {id}, {name} and {dt}, replaced by the city id, the query and the
+ *        observation time. A location query is given a stable made-up city id. Observations change every ten
+ *        minutes, and each carries an ETag so conditional fetches can be answered as not modified.
+ */
+public class StubWeatherFetcher implements WeatherFetcher {
+	/**
+	 * A typical response of the Weather web service.
+	 */
+	public static final String DEFAULT_PAYLOAD = "{\"coord\":{\"lon\":-86.78,\"lat\":36.17},"
+			+ "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"clear sky\",\"icon\":\"01d\"}],"
+			+ "\"base\":\"stations\","
+			+ "\"main\":{\"temp\":21.5,\"pressure\":1017,\"humidity\":52,\"temp_min\":19.4,\"temp_max\":23.3},"
+			+ "\"visibility\":16093,\"wind\":{\"speed\":3.6,\"deg\":200},\"clouds\":{\"all\":1},"
+			+ "\"dt\":{dt},\"sys\":{\"type\":1,\"id\":1234,\"message\":0.0045,\"country\":\"US\",\"sunrise\":1445862826,\"sunset\":1445901637},"
+			+ "\"id\":{id},\"name\":\"{name}\",\"cod\":200}";
+
+	private static final String NOT_FOUND_PAYLOAD = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+	/**
+	 * Interval in seconds between observations.
+	 */
+	private static final long OBSERVATION_INTERVAL = 600;
+
+	private final Random mRandom;
+	private final Clock mClock;
+
+	private volatile long mMedianLatency;
+	private volatile double mLatencySigma;
+	private volatile double mIoErrorRate;
+	private volatile double mNotFoundRate;
+	private volatile String mPayload = DEFAULT_PAYLOAD;
+
+	private final AtomicLong mFetches = new AtomicLong();
+	private final AtomicLong mGroupFetches = new AtomicLong();
+
+	/**
+	 * Create a stub with no latency and no errors, drawing from a Random seeded with @a seed so runs can be repeated.
+	 */
+	public StubWeatherFetcher(long seed, Clock clock) {
+		mRandom = new Random(seed);
+		mClock = clock;
+	}
+
+	/**
+	 * Make each fetch take a log-normally distributed time with a median of @a medianMillis. A @a sigma of 0 makes
+	 * every fetch take the median, and around 1 gives a 99th percentile ten times the median.
+	 */
+	public void setLatency(long medianMillis, double sigma) {
+		mMedianLatency = medianMillis;
+		mLatencySigma = sigma;
+	}
+
+	/**
+	 * Make a fraction @a ioErrorRate of fetches fail with an IOException, and a fraction @a notFoundRate of the
+	 * remaining single fetches be rejected with a 404.
+	 */
+	public void setErrorRates(double ioErrorRate, double notFoundRate) {
+		mIoErrorRate = ioErrorRate;
+		mNotFoundRate = notFoundRate;
+	}
+
+	/**
+	 * Render responses from the template @a payload instead of DEFAULT_PAYLOAD.
+	 */
+	public void setPayload(String payload) {
+		mPayload = payload;
+	}
+
+	/**
+	 * @return The number of single fetches and of group fetches made.
+	 */
+	public long getFetchCount() {
+		return mFetches.get();
+	}
+
+	public long getGroupFetchCount() {
+		return mGroupFetches.get();
+	}
+
+	@Override
+	public Result fetch(String query, CacheEntry previous, FetchPriority priority) throws IOException {
+		mFetches.incrementAndGet();
+		simulateLatency();
+
+		if (mRandom.nextDouble() < mNotFoundRate) {
+			byte[] body = NOT_FOUND_PAYLOAD.getBytes("UTF-8");
+			return new Result(parse(body), -1, null, null, body.length);
+		}
+
+		long id = LocationKeys.isCityId(query) ? Long.parseLong(query) : cityIdFor(query);
+		long dt = observationTime();
+		String etag = "\"" + id + "-" + dt + "\"";
+		if (previous != null && etag.equals(previous.getETag())) {
+			return Result.notModified(-1);
+		}
+		byte[] body = render(id, query, dt).getBytes("UTF-8");
+		return new Result(parse(body), -1, etag, null, body.length);
+	}
+
+	/**
+	 * {@inheritDoc} Fetches on the calling thread.
+	 */
+	@Override
+	public void fetchAsync(String query, CacheEntry previous, FetchPriority priority, Callback callback) {
+		Result result;
+		try {
+			result = fetch(query, previous, priority);
+		} catch (IOException e) {
+			callback.onFailure(e);
+			return;
+		}
+		callback.onResult(result);
+	}
+
+	@Override
+	public List<JsonWeather> fetchGroup(List<Long> ids, FetchPriority priority) throws IOException {
+		mGroupFetches.incrementAndGet();
+		simulateLatency();
+
+		long dt = observationTime();
+		StringBuilder body = new StringBuilder(ids.size() * (mPayload.length() + 16) + 32);
+		body.append("{\"cnt\":").append(ids.size()).append(",\"list\":[");
+		for (int i = 0; i < ids.size(); i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+			body.append(render(ids.get(i), Long.toString(ids.get(i)), dt));
+		}
+		body.append("]}");
+		byte[] bytes = body.toString().getBytes("UTF-8");
+		return new WeatherJSONParser().parseJsonGroup(bytes, bytes.length);
+	}
+
+	/**
+	 * {@inheritDoc} The stub has nothing to connect to.
+	 */
+	@Override
+	public void warmUp() {
+	}
+
+	/**
+	 * Sleep for a latency drawn from the configured distribution, then fail at the configured I/O error rate.
+	 */
+	private void simulateLatency() throws IOException {
+		long median = mMedianLatency;
+		if (median > 0) {
+			long latency = (long) (median * Math.exp(mLatencySigma * mRandom.nextGaussian()));
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			}
+		}
+		if (mRandom.nextDouble() < mIoErrorRate) {
+			throw new IOException("Simulated I/O error");
+		}
+	}
+
+	private String render(long id, String name, long dt) {
+		return mPayload.replace("{id}", Long.toString(id)).replace("{name}", name.replace("\"", "")).replace("{dt}", Long.toString(dt));
+	}
+
+	private static WeatherFields parse(byte[] body) throws IOException {
+		JsonWeather jsonWeather = new WeatherJSONParser().parseJson(body, body.length);
+		WeatherFields fields = new WeatherFields().set(jsonWeather);
+		WeatherJSONParser.recycle(jsonWeather);
+		return fields;
+	}
+
+	/**
+	 * @return The time in seconds of the latest observation.
+	 */
+	private long observationTime() {
+		long now = mClock.currentTimeMillis() / 1000;
+		return now - now % OBSERVATION_INTERVAL;
+	}
+
+	/**
+	 * @return A stable made-up city id for the location @a query.
+	 */
+	private static long cityIdFor(String query) {
+		return 1000000 + (query.hashCode() & 0x7fffffff) % 9000000;
+	}
+}
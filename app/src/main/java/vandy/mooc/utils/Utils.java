@@ -1,19 +1,26 @@
 package vandy.mooc.utils;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import vandy.mooc.R;
 import vandy.mooc.aidl.WeatherData;
 import vandy.mooc.jsonweather.JsonWeather;
+import vandy.mooc.jsonweather.WeatherByteParser;
+import vandy.mooc.jsonweather.WeatherFields;
 import vandy.mooc.jsonweather.WeatherJSONParser;
 import android.app.Activity;
 import android.content.Context;
 import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Toast;
@@ -27,105 +34,1047 @@ public class Utils {
 
 	private static final int MAX_TIME_TO_KEEP_CACHED = 10000;
 
+	/**
+	 * Maximum number of locations kept in the cache.
+	 */
+	private static final int MAX_CACHED_LOCATIONS = 256;
+
+	/**
+	 * Time past MAX_TIME_TO_KEEP_CACHED during which stale results may be served while they are refreshed.
+	 */
+	private static final int MAX_TIME_TO_SERVE_STALE = 60000;
+
+	/**
+	 * Fraction of MAX_TIME_TO_KEEP_CACHED after which a read triggers a refresh ahead of expiry.
+	 */
+	private static final double REFRESH_AHEAD_FRACTION = 0.8;
+
+	/**
+	 * Upper limit on how long a downloaded result stays fresh, and the interval at which stations report new
+	 * observations. Results are kept until the next observation is due, but at least MAX_TIME_TO_KEEP_CACHED, unless
+	 * the Weather Service says otherwise with a Cache-Control max-age.
+	 */
+	private static final int MAX_TIME_TO_KEEP_FRESH = 600000;
+	private static final int OBSERVATION_INTERVAL = 600000;
+
+	/**
+	 * Decides the time-to-live of each downloaded result.
+	 */
+	private static final FreshnessPolicy freshness = new FreshnessPolicy(MAX_TIME_TO_KEEP_CACHED, MAX_TIME_TO_KEEP_FRESH, OBSERVATION_INTERVAL);
+
+	/**
+	 * Number of revalidations answered with 304 Not Modified, and the response body bytes they did not download.
+	 */
+	private static final AtomicLong notModifiedCount = new AtomicLong();
+	private static final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * Limits of the HTTP transport: time to wait for a connection and for data, and idle connections kept for reuse.
+	 */
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT = 10000;
+	private static final int MAX_IDLE_CONNECTIONS = 4;
+
+	/**
+	 * Limits of the adaptive concurrency limit on fetches: the initial, lowest and highest number in flight, how many
+	 * times the lowest latency seen a fetch may take before the limit shrinks, and how many lookups may wait for a
+	 * slot and for how long before being shed.
+	 */
+	private static final int INITIAL_FETCH_LIMIT = 4;
+	private static final int MIN_FETCH_LIMIT = 1;
+	private static final int MAX_FETCH_LIMIT = 32;
+	private static final double FETCH_LATENCY_TOLERANCE = 2.0;
+	private static final int MAX_FETCH_WAITERS = 32;
+	private static final int MAX_FETCH_WAIT = 2000;
+
+	/**
+	 * Adapts the number of fetches in flight to the provider's latency.
+	 */
+	private static final AdaptiveLimiter limiter = new AdaptiveLimiter(INITIAL_FETCH_LIMIT, MIN_FETCH_LIMIT, MAX_FETCH_LIMIT, FETCH_LATENCY_TOLERANCE, MAX_FETCH_WAITERS, MAX_FETCH_WAIT, Clock.SYSTEM);
+
+	/**
+	 * Per-minute call quota of the API key, the share of it kept for interactive lookups, and how long an interactive
+	 * lookup waits for a token before it is served from the cache instead.
+	 */
+	private static final int QUOTA_CALLS_PER_MINUTE = 60;
+	private static final double QUOTA_INTERACTIVE_RESERVE = 0.25;
+	private static final int QUOTA_MAX_WAIT = 1000;
+
+	/**
+	 * Keeps fetches within the quota, interactive lookups first.
+	 */
+	private static final QuotaManager quota = new QuotaManager(QUOTA_CALLS_PER_MINUTE, QUOTA_INTERACTIVE_RESERVE, QUOTA_MAX_WAIT, Clock.SYSTEM);
+
+	/**
+	 * Limits of the resilience layer: attempts made at each fetch, the range of the jittered exponential backoff
+	 * between them, and how many consecutive failures open the circuit breaker and for how long.
+	 */
+	private static final int MAX_FETCH_ATTEMPTS = 3;
+	private static final int BASE_BACKOFF = 100;
+	private static final int MAX_BACKOFF = 1000;
+	private static final int BREAKER_FAILURE_THRESHOLD = 5;
+	private static final int BREAKER_OPEN_PERIOD = 30000;
+
+	/**
+	 * Fields of a response that storeResults() uses, after which parsing stops. The cod and message are not among
+	 * them, since the cod comes last and only error responses, which lack the rest, carry a message.
+	 */
+	private static final int REQUIRED_FIELDS = WeatherFields.FIELD_ID | WeatherFields.FIELD_DT | WeatherFields.FIELD_NAME | WeatherFields.FIELD_COUNTRY | WeatherFields.FIELD_ICON //
+			| WeatherFields.FIELD_SPEED | WeatherFields.FIELD_DEG | WeatherFields.FIELD_TEMP | WeatherFields.FIELD_PRESSURE | WeatherFields.FIELD_HUMIDITY //
+			| WeatherFields.FIELD_SUNRISE | WeatherFields.FIELD_SUNSET;
+
+	/**
+	 * Provider of Weather information, by default the Weather web service over pooled keep-alive connections, behind
+	 * the concurrency limiter and the quota, and retried, hedged and cut off by the resilience layer.
+	 */
+	private static final HttpTransport transport = new HttpTransport(CONNECT_TIMEOUT, READ_TIMEOUT, MAX_IDLE_CONNECTIONS);
+	private static final HttpWeatherFetcher httpFetcher = new HttpWeatherFetcher(transport, REQUIRED_FIELDS);
+	private static final ResilientWeatherFetcher fetcher = new ResilientWeatherFetcher(//
+			new LimitedWeatherFetcher(new QuotaWeatherFetcher(httpFetcher, quota), limiter), //
+			new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_PERIOD, Clock.SYSTEM), //
+			MAX_FETCH_ATTEMPTS, BASE_BACKOFF, MAX_BACKOFF);
+
+	/**
+	 * The non-blocking HTTP client the Weather web service is reached through, or null while the blocking transport
+	 * is used. Set under the Utils lock.
+	 */
+	private static volatile NioHttpClient nioClient;
+
+	/**
+	 * Limits of micro-batching: the most city ids sent in one request to the group endpoint, which accepts at most
+	 * 20, and how long a lookup waits for others to join its batch.
+	 */
+	private static final int MAX_BATCH_SIZE = 20;
+	private static final int MAX_BATCH_DELAY = 5;
+
+	/**
+	 * Collects concurrent lookups of different cities by id into single requests to the group endpoint.
+	 */
+	private static final MicroBatcher<Long, WeatherFields> batcher = new MicroBatcher<>(MAX_BATCH_SIZE, MAX_BATCH_DELAY, new MicroBatcher.Loader<Long, WeatherFields>() {
+		@Override
+		public Map<Long, WeatherFields> load(List<Long> ids, FetchPriority priority) throws IOException {
+			return downloadGroup(ids, priority);
+		}
+	});
+
+	/**
+	 * Whether lookups by city id are batched. On by default.
+	 */
+	private static volatile boolean batching = true;
+
 	/**
 	 * Weather result Cache
 	 */
-	private static final Map<String, CacheEntry> cacheMap = new WeakHashMap<>();
+	private static final WeatherCache cache = new WeatherCache(MAX_CACHED_LOCATIONS, MAX_TIME_TO_KEEP_CACHED, MAX_TIME_TO_SERVE_STALE, Clock.SYSTEM);
 
 	/**
-	 * Logging tag used by the debugger.
+	 * Largest number of cities the overflow tier of the cache may be given.
 	 */
-	private final static String TAG = Utils.class.getCanonicalName();
+	private static final int MAX_OVERFLOW_CITIES = 1000000;
+
+	/**
+	 * Name and size in bytes of the memory-mapped file backing the persistent cache.
+	 */
+	private static final String PERSISTENT_CACHE_FILE = "weather.cache";
+	private static final int PERSISTENT_CACHE_CAPACITY = 1024 * 1024;
+
+	/**
+	 * Limits of the cache of failed lookups, kept separate from the result cache so bad queries cannot evict good
+	 * results.
+	 */
+	private static final int MAX_TIME_TO_KEEP_FAILURES = 5000;
+	private static final int MAX_CACHED_FAILURES = 128;
+
+	/**
+	 * Failed lookup Cache
+	 */
+	private static final NegativeCache failureCache = new NegativeCache(MAX_CACHED_FAILURES, MAX_TIME_TO_KEEP_FAILURES, Clock.SYSTEM);
+
+	/**
+	 * Maximum number of location aliases remembered.
+	 */
+	private static final int MAX_LOCATION_ALIASES = 1024;
+
+	/**
+	 * Maps each spelling of a location to the key of the city it resolved to.
+	 */
+	private static final AliasIndex aliases = new AliasIndex(MAX_LOCATION_ALIASES);
+
+	/**
+	 * Number of lookups served from an entry cached under a different spelling of the location.
+	 */
+	private static final AtomicLong aliasHits = new AtomicLong();
+
+	/**
+	 * Disk tier of the cache, consulted before the network. Null until openPersistentCache() has opened it, which it
+	 * starts at most once unless opening fails, and again once closePersistentCache() has closed it.
+	 */
+	private static volatile PersistentWeatherCache persistentCache;
+	private static final AtomicBoolean persistentCacheOpening = new AtomicBoolean();
+
+	/**
+	 * Number of services that have opened the persistent cache and not yet closed it.
+	 */
+	private static int persistentCacheUsers;
+
+	/**
+	 * Runs background refreshes of cached results.
+	 */
+	private static final Refresher refresher = new Refresher(2);
+
+	/**
+	 * Limits of predictive prefetching: how many of the most popular locations are kept warm, how long before expiry
+	 * they are refreshed, how many refreshes a minute it may spend, and how often it checks. Prefetching may spend
+	 * half of the quota left to background work, keeping the rest for refreshing the results read close to expiry.
+	 */
+	private static final int PREFETCH_TOP_N = 32;
+	private static final int PREFETCH_LEAD_TIME = 2000;
+	private static final int PREFETCH_CALLS_PER_MINUTE = (int) (QUOTA_CALLS_PER_MINUTE * (1 - QUOTA_INTERACTIVE_RESERVE) / 2);
+	private static final int PREFETCH_PERIOD = 1000;
+
+	/**
+	 * Refreshes popular locations shortly before they expire.
+	 */
+	private static final Prefetcher prefetcher = new Prefetcher(cache, PREFETCH_TOP_N, PREFETCH_LEAD_TIME, PREFETCH_CALLS_PER_MINUTE, Clock.SYSTEM, new Prefetcher.Loader() {
+		@Override
+		public void refresh(String query, String key) {
+			refreshInBackground(query, key);
+		}
+	});
+
+	/**
+	 * Number of services that have started prefetching and not yet stopped it.
+	 */
+	private static int prefetchingServices;
+
+	/**
+	 * Whether stale results are served while being refreshed in the background. Off by default.
+	 */
+	private static volatile boolean staleWhileRevalidate = false;
+
+	/**
+	 * Coalesce concurrent downloads of the same location, kept apart by priority: an interactive lookup must not
+	 * share a background load, which the quota may defer and which skips the checks of the cache.
+	 */
+	private static final SingleFlight<String, WeatherData> inFlight = new SingleFlight<>();
+	private static final SingleFlight<String, WeatherData> refreshing = new SingleFlight<>();
+
+	/**
+	 * Whether the warm-up has been started, how long it took in milliseconds, and how long the first fetch took, each
+	 * -1 until known.
+	 */
+	private static final AtomicBoolean warmUpStarted = new AtomicBoolean();
+	private static volatile long warmUpTime = -1;
+	private static final AtomicLong firstFetchTime = new AtomicLong(-1);
+
+	/**
+	 * Size in bytes of the buffer the bundled sample response is read into for the warm-up.
+	 */
+	private static final int SAMPLE_BUFFER_SIZE = 4096;
 
 	/**
-	 * URL to the Weather web service.
+	 * Logging tag used by the debugger.
 	 */
-	private final static String weather_Web_Service_URL = "http://api.openweathermap.org/data/2.5/weather?units=metric&q=";
+	private final static String TAG = Utils.class.getCanonicalName();
 
 	/**
 	 * Obtain the Weather information.
 	 *
-	 * @return The information that responds to your current weather search.
+	 * Cache hits return without waiting on any download. Concurrent misses for the same location share a single
+	 * download, while misses for different locations download in parallel. A recent failure for the location is
+	 * replayed without another download, unless a stale result can be served instead. Locations are canonicalized, and once a spelling has been resolved to a city
+	 * it shares that city's cache entry with every other spelling resolved to it.
+	 *
+	 * @return The information that responds to your current weather search, or null if the web service could not be
+	 *         reached.
+	 * @throws IllegalArgumentException with the web service's error message if it rejected the location.
 	 */
-	public static synchronized WeatherData getResults(final String location) throws IllegalArgumentException {
+	public static WeatherData getResults(final String location) throws IllegalArgumentException {
+
+		final String query = LocationKeys.normalize(location);
+		final String key = aliases.resolve(query);
+		prefetcher.recordAccess(query, key);
 
 		// check the cache first
-		WeatherData result = getResultFromCache(location);
+		WeatherData result = getResultFromCache(query, key);
 		if (result != null) {
+			if (!key.equals(LocationKeys.queryKey(query))) {
+				aliasHits.incrementAndGet();
+			}
+			prefetcher.recordHit(key);
 			return result;
 		}
+		return getMissedResults(query, key);
+	}
 
-		// A List of JsonWeather objects.
-		JsonWeather jsonWeather = null;
+	/**
+	 * Obtain the Weather information for a location that getCachedResults() has just missed, like getResults() but
+	 * without looking it up in the in-memory cache again, so the miss is only counted once.
+	 *
+	 * @return The information that responds to your current weather search, or null if the web service could not be
+	 *         reached.
+	 * @throws IllegalArgumentException with the web service's error message if it rejected the location.
+	 */
+	public static WeatherData getUncachedResults(final String location) throws IllegalArgumentException {
+		final String query = LocationKeys.normalize(location);
+		final String key = aliases.resolve(query);
+		prefetcher.recordAccess(query, key);
+		return getMissedResults(query, key);
+	}
 
-		// Append the location to create the full URL.
-		try {
-			final URL url = new URL(weather_Web_Service_URL + location);
-			Log.d(TAG, "Executing request: " + url);
-
-			// Opens a connection to the Weather Service.
-			HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-			// Sends the GET request and reads the Json results.
-			try (InputStream in = new BufferedInputStream(urlConnection.getInputStream())) {
-				// Create the parser.
-				final WeatherJSONParser parser = new WeatherJSONParser();
-
-				// Parse the Json results and create JsonWeather data
-				// objects.
-				jsonWeather = parser.parseJsonStream(in);
-			} finally {
-				urlConnection.disconnect();
+	/**
+	 * Obtain the Weather information for the canonical @a query cached under @a key, which missed the in-memory cache.
+	 */
+	private static WeatherData getMissedResults(String query, String key) throws IllegalArgumentException {
+		// replay any recent failure, unless a stale result can still be served instead
+		NegativeCache.Failure failure = failureCache.get(query);
+		if (failure != null) {
+			Logger.d(TAG, "Weather failure found in cache: %s", failure.getMessage());
+			WeatherData stale = getStaleResult(key);
+			if (stale != null) {
+				return stale;
+			}
+			if (failure.getMessage() != null) {
+				throw new IllegalArgumentException(failure.getMessage());
 			}
+			return null;
+		}
+
+		prefetcher.recordMiss(key);
+		return loadResults(query, key, FetchPriority.INTERACTIVE);
+	}
+
+	/**
+	 * Obtain the Weather information only if it can be served from the in-memory cache, without blocking on a
+	 * download or on disk. Lets the services answer cache hits on the calling thread and hand only misses to a
+	 * background thread, which then calls getResults().
+	 *
+	 * @return The cached information, or null if it is not in the in-memory cache.
+	 */
+	public static WeatherData getCachedResults(final String location) {
+		final String query = LocationKeys.normalize(location);
+		final String key = aliases.resolve(query);
+
+		WeatherData result = getResultFromCache(query, key);
+		if (result != null) {
+			prefetcher.recordAccess(query, key);
+			if (!key.equals(LocationKeys.queryKey(query))) {
+				aliasHits.incrementAndGet();
+			}
+			prefetcher.recordHit(key);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of lookups served from an entry cached under a different spelling of the location, each of
+	 *         which would otherwise have needed its own download.
+	 */
+	public static long getAliasHitCount() {
+		return aliasHits.get();
+	}
+
+	/**
+	 * Start refreshing the most popular locations shortly before they expire, if not already started. Called by the
+	 * services from onCreate().
+	 */
+	public static synchronized void startPrefetching() {
+		if (prefetchingServices++ == 0) {
+			prefetcher.start(PREFETCH_PERIOD);
+		}
+	}
+
+	/**
+	 * Stop prefetching and drop the background refreshes not yet started once every service that started
+	 * prefetching has stopped it. Called by the services from onDestroy().
+	 */
+	public static synchronized void stopPrefetching() {
+		if (prefetchingServices > 0 && --prefetchingServices == 0) {
+			prefetcher.stop();
+			int dropped = refresher.cancelPending();
+			Logger.d(TAG, "Prefetching stopped, %d refreshes dropped", dropped);
+		}
+	}
+
+	/**
+	 * @return The number of lookups served by a prefetched result that would otherwise have missed the cache.
+	 */
+	public static long getPrefetchAvoidedMissCount() {
+		return prefetcher.getAvoidedMissCount();
+	}
+
+	/**
+	 * Enable or disable stale-while-revalidate. When enabled, a result past its time-to-live but within
+	 * MAX_TIME_TO_SERVE_STALE is returned immediately and refreshed in the background, and a fresh result read close to
+	 * expiry is refreshed ahead of time.
+	 */
+	public static void setStaleWhileRevalidate(boolean enabled) {
+		staleWhileRevalidate = enabled;
+	}
+
+	/**
+	 * Keep up to @a cities results evicted from the in-memory cache in a packed overflow tier, which holds each city
+	 * in a fixed-size off-heap slot instead of several heap objects, instead of dropping them, or drop them as before
+	 * if @a cities is 0, which is the default. Only results cached under a city id are kept. Replaces any overflow
+	 * tier already in use.
+	 */
+	public static void setOverflowCapacity(int cities) {
+		if (cities < 0 || cities > MAX_OVERFLOW_CITIES) {
+			throw new IllegalArgumentException("cities must be between 0 and " + MAX_OVERFLOW_CITIES + ": " + cities);
+		}
+		cache.setOverflow(cities > 0 ? new PackedWeatherStore(cities) : null);
+	}
+
+	/**
+	 * Fetch Weather information from @a weatherFetcher from now on, for example a StubWeatherFetcher to profile the
+	 * cache and services without the network. Results already cached are kept, and fetches stay behind the
+	 * concurrency limiter, the quota and the resilience layer.
+	 */
+	public static void setFetcher(WeatherFetcher weatherFetcher) {
+		fetcher.setDelegate(new LimitedWeatherFetcher(new QuotaWeatherFetcher(weatherFetcher, quota), limiter));
+	}
+
+	/**
+	 * Send requests to the Weather web service through a NioHttpClient if @a enabled is true, or through pooled
+	 * HttpURLConnections otherwise, which is the default. Over the NioHttpClient, background refreshes and prefetches
+	 * wait for their responses without holding a thread, so many can be in flight at once on its one selector
+	 * thread. Interactive lookups still wait on their fetch threads, which is where their clients wait anyway.
+	 */
+	public static synchronized void setNonBlockingHttp(boolean enabled) {
+		if (enabled && nioClient == null) {
+			try {
+				nioClient = new NioHttpClient(CONNECT_TIMEOUT, READ_TIMEOUT, MAX_IDLE_CONNECTIONS);
+			} catch (IOException e) {
+				Log.e(TAG, "Error starting the non-blocking HTTP client", e);
+				return;
+			}
+			httpFetcher.setEngine(nioClient);
+		} else if (!enabled && nioClient != null) {
+			httpFetcher.setEngine(transport);
+			nioClient.close();
+			nioClient = null;
+		}
+	}
+
+	/**
+	 * @return A snapshot of the quota: tokens available, tokens taken by interactive and background fetches, and
+	 *         fetches queued, rejected or deferred for lack of tokens.
+	 */
+	public static QuotaManager.Stats getQuotaStats() {
+		return quota.getStats();
+	}
+
+	/**
+	 * Enable or disable hedging: a fetch still running after the 95th percentile of recent fetch latencies is sent
+	 * again, and the first response wins. Off by default.
+	 */
+	public static void setHedging(boolean enabled) {
+		fetcher.setHedging(enabled);
+	}
+
+	/**
+	 * @return A snapshot of the circuit breaker state and the retry and hedging counters.
+	 */
+	public static ResilientWeatherFetcher.Stats getFetchStats() {
+		return fetcher.getStats();
+	}
+
+	/**
+	 * @return The current limit on fetches in flight, and the number of lookups shed because the limit was reached.
+	 */
+	public static int getFetchLimit() {
+		return limiter.getLimit();
+	}
+
+	public static long getShedCount() {
+		return limiter.getShedCount();
+	}
+
+	/**
+	 * Enable or disable batching of lookups by city id, and tune it. A lookup waits up to @a maxDelayMillis for other
+	 * lookups to join its batch, and a batch is sent as soon as it holds @a maxBatchSize ids, at most 20. Longer
+	 * delays and larger batches make fewer requests under load, at the cost of latency.
+	 *
+	 * Only cities without a cached result that can be revalidated are batched; the others are revalidated with a
+	 * conditional request of their own.
+	 */
+	public static void setBatching(boolean enabled, int maxBatchSize, long maxDelayMillis) {
+		batcher.configure(Math.min(maxBatchSize, MAX_BATCH_SIZE), maxDelayMillis);
+		batching = enabled;
+	}
+
+	/**
+	 * @return The number of requests sent to the group endpoint, and the number of city ids they carried.
+	 */
+	public static long getBatchCount() {
+		return batcher.getBatchCount();
+	}
+
+	public static long getBatchedIdCount() {
+		return batcher.getKeyCount();
+	}
+
+	/**
+	 * Open the persistent cache tier in the cache directory of @a context on a background thread, if it is not already
+	 * open or opening. Called by the services from onCreate(), so results cached before the process was killed are
+	 * served without the network, and balanced by closePersistentCache(). Lookups made before it is open skip the
+	 * disk tier.
+	 */
+	public static synchronized void openPersistentCache(Context context) {
+		persistentCacheUsers++;
+		if (!persistentCacheOpening.compareAndSet(false, true)) {
+			return;
+		}
+		final File file = new File(context.getCacheDir(), PERSISTENT_CACHE_FILE);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				long start = SystemClock.elapsedRealtime();
+				try {
+					PersistentWeatherCache opened = PersistentWeatherCache.open(file, //
+							PERSISTENT_CACHE_CAPACITY, //
+							MAX_TIME_TO_KEEP_FRESH + MAX_TIME_TO_SERVE_STALE, //
+							Clock.SYSTEM);
+					Logger.d(TAG, "Opened persistent cache with %d entries in %d ms", opened.size(), SystemClock.elapsedRealtime() - start);
+					synchronized (Utils.class) {
+						if (persistentCacheUsers > 0) {
+							persistentCache = opened;
+						} else {
+							// Every service closed it while it was opening.
+							opened.close();
+							persistentCacheOpening.set(false);
+						}
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "Error opening persistent cache", e);
+					persistentCacheOpening.set(false);
+				}
+			}
+		}, "WeatherCacheOpen");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Close the persistent cache tier, stopping its compactions and unmapping its file, once every service that opened
+	 * it has closed it. Called by the services from onDestroy(). Lookups made meanwhile skip the disk tier.
+	 */
+	public static synchronized void closePersistentCache() {
+		if (persistentCacheUsers == 0 || --persistentCacheUsers > 0) {
+			return;
+		}
+		PersistentWeatherCache disk = persistentCache;
+		if (disk != null) {
+			persistentCache = null;
+			disk.close();
+			persistentCacheOpening.set(false);
+		}
+	}
+
+	/**
+	 * Warm up on a background thread, if not already started: resolve the Weather web service's host, open a
+	 * keep-alive connection to it, and parse and convert the bundled sample response, so the first lookup pays for
+	 * neither the network setup nor loading the parser. Called by the services from onCreate().
+	 */
+	public static void warmUp(Context context) {
+		if (!warmUpStarted.compareAndSet(false, true)) {
+			return;
+		}
+		final Context appContext = context.getApplicationContext();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				long start = SystemClock.elapsedRealtime();
+				try {
+					fetcher.warmUp();
+				} catch (IOException e) {
+					Logger.d(TAG, "Could not warm up the connection: %s", e.getMessage());
+				}
+				try (InputStream in = appContext.getResources().openRawResource(R.raw.sample_weather)) {
+					byte[] sample = new byte[SAMPLE_BUFFER_SIZE];
+					int length = 0;
+					int n;
+					while (length < sample.length && (n = in.read(sample, length, sample.length - length)) != -1) {
+						length += n;
+					}
+					JsonWeather jsonWeather = new WeatherJSONParser().parseJson(sample, length);
+					toWeatherData(new WeatherFields().set(jsonWeather));
+					WeatherJSONParser.recycle(jsonWeather);
+					toWeatherData(new WeatherByteParser().parse(sample, length, new WeatherFields()));
+				} catch (IOException | RuntimeException e) {
+					Log.e(TAG, "Error parsing the sample response", e);
+				}
+				warmUpTime = SystemClock.elapsedRealtime() - start;
+				Logger.d(TAG, "Warmed up in %d ms", warmUpTime);
+			}
+		}, "WeatherWarmUp");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Parse single fetches from the Weather web service with the allocation-free WeatherByteParser if @a byteParsing
+	 * is true, which is the default, or with the WeatherJSONParser otherwise. If @a verify is true, byte parses are
+	 * checked against the WeatherJSONParser and differences logged.
+	 */
+	public static void setParsing(boolean byteParsing, boolean verify) {
+		httpFetcher.setParsing(byteParsing, verify);
+	}
+
+	/**
+	 * @return The number of responses the two parsers read differently while verifying.
+	 */
+	public static long getParseMismatchCount() {
+		return httpFetcher.getParseMismatchCount();
+	}
+
+	/**
+	 * Recycle the JsonWeather data objects parsed from batch responses, and by the WeatherJSONParser, into pools once
+	 * their fields are copied out, if @a recycle is true, instead of leaving them to the garbage collector, which is the
+	 * default. If @a detectLeaks is also true, debug builds log the data objects collected without being recycled.
+	 */
+	public static void setRecycling(boolean recycle, boolean detectLeaks) {
+		WeatherJSONParser.setRecycling(recycle, detectLeaks);
+	}
+
+	/**
+	 * @return The number of JsonWeather data objects found collected without being recycled while detecting leaks.
+	 */
+	public static long getModelLeakCount() {
+		return WeatherJSONParser.getLeakCount();
+	}
+
+	/**
+	 * @return How long the warm-up took in milliseconds, or -1 if it has not finished.
+	 */
+	public static long getWarmUpTime() {
+		return warmUpTime;
+	}
+
+	/**
+	 * @return How long the first fetch from the Weather web service took in milliseconds, or -1 if there has been
+	 *         none, to compare time-to-first-result with and without warm-up.
+	 */
+	public static long getFirstFetchTime() {
+		return firstFetchTime.get();
+	}
+
+	/**
+	 * Download the results for the canonical @a query cached under @a key at @a priority, sharing any download of
+	 * that key at the same priority already in progress. Background loads are refreshes, and download even if a fresh
+	 * result is cached. An interactive load lets a background load of the key finish first, and then checks the
+	 * cache again, so a refresh already on its way is not sent twice.
+	 */
+	private static WeatherData loadResults(final String query, final String key, final FetchPriority priority) throws IllegalArgumentException {
+		SingleFlight<String, WeatherData> flights = refreshing;
+		if (priority == FetchPriority.INTERACTIVE) {
+			refreshing.await(key);
+			flights = inFlight;
+		}
+		return flights.execute(key, new Callable<WeatherData>() {
+			@Override
+			public WeatherData call() {
+				// another caller may have filled the cache while we were getting here,
+				// which is checked without counting a second lookup
+				if (priority == FetchPriority.INTERACTIVE) {
+					CacheEntry entry = cache.peek(key);
+					if (entry != null && cache.isFresh(entry)) {
+						return markCached(entry);
+					}
+					entry = getEntryFromDisk(query, key);
+					if (entry != null && cache.isFresh(entry)) {
+						Logger.d(TAG, "Weather data found in persistent cache");
+						return markCached(entry);
+					}
+				}
+				// A result cached with validators is revalidated on its own, since the group endpoint cannot answer
+				// a conditional request and a Not Modified response is cheaper than any batched download.
+				long cityId = LocationKeys.parseCityIdKey(key);
+				CacheEntry previous = cache.peek(key);
+				if (batching && cityId >= 0 && (previous == null || !previous.hasValidators())) {
+					return downloadBatched(query, key, cityId, priority);
+				}
+				return downloadResults(query, key, priority);
+			}
+		});
+	}
+
+	/**
+	 * Refresh the results for the canonical @a query cached under @a key in the background, at background priority
+	 * for the quota, and without holding a thread while the response is on its way if the non-blocking HTTP client
+	 * is in use.
+	 */
+	private static void refreshInBackground(final String query, final String key) {
+		if (nioClient != null) {
+			refresher.schedule(key, new Refresher.AsyncRefresh() {
+				@Override
+				public void start(Runnable done) {
+					refreshAsync(query, key, done);
+				}
+			});
+			return;
+		}
+		refresher.schedule(key, new Runnable() {
+			@Override
+			public void run() {
+				loadResults(query, key, FetchPriority.BACKGROUND);
+			}
+		});
+	}
+
+	/**
+	 * Refresh the results for the canonical @a query cached under @a key at background priority with an
+	 * asynchronous fetch, and run @a done once they are cached or the refresh has failed. Blocking loads of the key
+	 * at background priority share the refresh, and interactive ones wait for it before checking the cache.
+	 */
+	private static void refreshAsync(final String query, final String key, final Runnable done) {
+		final SingleFlight<String, WeatherData>.Flight flight = refreshing.begin(key);
+		if (flight == null) {
+			// A blocking background load of the key is already on its way.
+			done.run();
+			return;
+		}
+		final CacheEntry previous = cache.peek(key);
+		final long start = SystemClock.elapsedRealtime();
+		fetcher.fetchAsync(query, previous, FetchPriority.BACKGROUND, new WeatherFetcher.Callback() {
+			@Override
+			public void onResult(WeatherFetcher.Result response) {
+				WeatherData result = null;
+				try {
+					recordFetchTime(SystemClock.elapsedRealtime() - start);
+					result = fetched(query, key, previous, response);
+				} catch (IllegalArgumentException e) {
+					Logger.d(TAG, "Error refreshing %s: %s", query, e.getMessage());
+				} finally {
+					flight.complete(result);
+					done.run();
+				}
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				WeatherData result = null;
+				try {
+					result = fetchFailed(query, key, FetchPriority.BACKGROUND, e);
+				} finally {
+					flight.complete(result);
+					done.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Fetch the Weather information for the canonical @a query from the Weather web service at @a priority and cache
+	 * it under the key of the city it resolves to, recording @a query as an alias of that city.
+	 *
+	 * If a result is already cached under @a key with an ETag or Last-Modified date, the fetch is made conditional
+	 * and a Not Modified response renews the cached result without downloading or parsing a body.
+	 *
+	 * @return The downloaded information, or null if the request failed.
+	 */
+	private static WeatherData downloadResults(final String query, final String key, final FetchPriority priority) throws IllegalArgumentException {
+		// The cached result, which the fetch may revalidate instead of downloading again.
+		final CacheEntry previous = cache.peek(key);
+
+		WeatherFetcher.Result response;
+		long start = SystemClock.elapsedRealtime();
+		try {
+			response = fetcher.fetch(query, previous, priority);
+			recordFetchTime(SystemClock.elapsedRealtime() - start);
 		} catch (IOException e) {
-			Log.e(TAG, "Error running request", e);
-		}
-
-		if (jsonWeather != null) {
-			// Convert the JsonWeather data objects to our WeatherData
-			// object, which can be passed between processes.
-			if (jsonWeather.getCod() == 200) {
-				result = new WeatherData(//
-						jsonWeather.getName(), //
-						jsonWeather.getWeather().get(0).getIcon(), //
-						jsonWeather.getWind().getSpeed(), //
-						jsonWeather.getWind().getDeg(), //
-						jsonWeather.getMain().getTemp(), //
-						jsonWeather.getMain().getPressure(), //
-						jsonWeather.getMain().getHumidity(), //
-						jsonWeather.getSys().getSunrise(), //
-						jsonWeather.getSys().getSunset() //
-				);
-
-				// cache the result
-				cacheResult(location, result);
+			return fetchFailed(query, key, priority, e);
+		}
+		return fetched(query, key, previous, response);
+	}
+
+	/**
+	 * Cache the @a response to a fetch of the canonical @a query, whose result was cached under @a key as
+	 * @a previous, which may be null.
+	 *
+	 * @return The information fetched or renewed, or null if the response carried none.
+	 */
+	private static WeatherData fetched(String query, String key, CacheEntry previous, WeatherFetcher.Result response) throws IllegalArgumentException {
+		if (response.isNotModified() && previous != null) {
+			return revalidated(key, previous, response.getMaxAge());
+		}
+		if (response.getFields() == null) {
+			return null;
+		}
+		return storeResults(query, key, response.getFields(), response.getMaxAge(), response.getETag(), response.getLastModified(), response.getBodySize());
+	}
+
+	/**
+	 * Handle the failure @a e of a fetch at @a priority of the canonical @a query, cached under @a key.
+	 *
+	 * @return A stale result to serve instead, or null.
+	 */
+	private static WeatherData fetchFailed(String query, String key, FetchPriority priority, IOException e) {
+		if (e instanceof FetchRejectedException) {
+			// Nothing is known to be wrong with the location, so do not remember a failure for it.
+			Logger.d(TAG, "Request rejected: %s", e.getMessage());
+			return getStaleResult(key);
+		}
+		Log.e(TAG, "Error running request", e);
+		recordFailure(query, priority);
+		return null;
+	}
+
+	/**
+	 * Remember that a fetch of the canonical @a query at @a priority could not reach the web service, so lookups
+	 * arriving shortly after fail at once. Only interactive fetches are remembered: a refresh or prefetch failing in
+	 * the background says nothing a user has been told, and must not turn the next lookup away.
+	 */
+	private static void recordFailure(String query, FetchPriority priority) {
+		if (priority == FetchPriority.INTERACTIVE) {
+			failureCache.put(query, null);
+		}
+	}
+
+	/**
+	 * Download the Weather information for city @a cityId, looked up as the canonical @a query at @a priority, as
+	 * part of a batch of concurrent lookups sent to the group endpoint in one request, and cache it under @a key.
+	 *
+	 * A city missing from the batch response is looked up on its own, to get the Weather Service's error for it.
+	 *
+	 * @return The downloaded information, or null if the request failed.
+	 */
+	private static WeatherData downloadBatched(final String query, final String key, final long cityId, final FetchPriority priority) throws IllegalArgumentException {
+		WeatherFields fields;
+		try {
+			fields = batcher.load(cityId, priority);
+		} catch (FetchRejectedException e) {
+			Logger.d(TAG, "Batch request rejected: %s", e.getMessage());
+			return getStaleResult(key);
+		} catch (IOException e) {
+			Log.e(TAG, "Error running batch request", e);
+			recordFailure(query, priority);
+			return null;
+		}
+		if (fields == null) {
+			return downloadResults(query, key, priority);
+		}
+		return storeResults(query, key, fields, -1, null, null, 0);
+	}
+
+	/**
+	 * Download the Weather information for the cities @a ids from the group endpoint in one request at @a priority.
+	 *
+	 * @return The fields used of each city found, by city id.
+	 */
+	private static Map<Long, WeatherFields> downloadGroup(List<Long> ids, FetchPriority priority) throws IOException {
+		List<JsonWeather> jsonWeathers = fetcher.fetchGroup(ids, priority);
+		Map<Long, WeatherFields> results = new HashMap<>(jsonWeathers.size() * 2);
+		for (JsonWeather jsonWeather : jsonWeathers) {
+			// Entries of a group response carry no cod of their own.
+			WeatherFields fields = new WeatherFields().set(jsonWeather);
+			fields.setCod(200);
+			results.put(jsonWeather.getId(), fields);
+		}
+		// The data objects are not used past this point.
+		WeatherJSONParser.recycle(jsonWeathers);
+		return results;
+	}
+
+	/**
+	 * Convert @a fields, downloaded for the canonical @a query, and cache it under the key of the city it
+	 * resolves to, or @a key if it has no city id, recording @a query as an alias of that city. The cached entry keeps
+	 * the validators and body size of the response, and its time-to-live follows from the response's Cache-Control
+	 * max-age of @a maxAge seconds, or -1 if none, and the observation time of the result.
+	 *
+	 * @return The converted information.
+	 * @throws IllegalArgumentException with the web service's error message if it rejected the location.
+	 */
+	private static WeatherData storeResults(String query, String key, WeatherFields fields, long maxAge, String etag, String lastModified, int bodySize) throws IllegalArgumentException {
+		if (fields.getCod() != 200) {
+			failureCache.put(query, fields.getMessage());
+			throw new IllegalArgumentException(fields.getMessage());
+		}
+
+		WeatherData result = toWeatherData(fields);
+
+		// cache the result under the city it resolved to
+		String cityKey = fields.getId() != 0 ? LocationKeys.cityIdKey(fields.getId()) : key;
+		long now = System.currentTimeMillis();
+		long ttl = freshness.ttlFor(now, maxAge, fields.getDt());
+		cacheResult(cityKey, new CacheEntry(now, result, ttl, fields.getDt(), etag, lastModified, bodySize));
+		cacheAlias(query, cityKey);
+		if (fields.getName() != null && fields.getCountry() != null) {
+			cacheAlias(LocationKeys.normalize(fields.getName() + "," + fields.getCountry()), cityKey);
+		}
+		failureCache.remove(query);
+		return result;
+	}
+
+	/**
+	 * Convert the parsed @a fields to our WeatherData object, which can be passed between processes.
+	 */
+	private static WeatherData toWeatherData(WeatherFields fields) {
+		return new WeatherData(//
+				fields.getName(), //
+				fields.getIcon(), //
+				fields.getSpeed(), //
+				fields.getDeg(), //
+				fields.getTemp(), //
+				fields.getPressure(), //
+				fields.getHumidity(), //
+				fields.getSunrise(), //
+				fields.getSunset() //
+		);
+	}
+
+	/**
+	 * Record that a fetch took @a elapsed milliseconds, logging it if it was the first.
+	 */
+	private static void recordFetchTime(long elapsed) {
+		if (firstFetchTime.compareAndSet(-1, elapsed)) {
+			if (warmUpTime >= 0) {
+				Logger.d(TAG, "First fetch took %d ms after warming up in %d ms", elapsed, warmUpTime);
 			} else {
-				throw new IllegalArgumentException(jsonWeather.getMessage());
+				Logger.d(TAG, "First fetch took %d ms without warm-up", elapsed);
 			}
 		}
-		// Return the List of WeatherData.
-		return result;
 	}
 
-	private static synchronized WeatherData getResultFromCache(String location) {
-		location = location.trim().toLowerCase();
-		CacheEntry entry = cacheMap.get(location);
-		if (entry != null) {
-			entry.getData().mCached = true;
-			if (System.currentTimeMillis() - entry.getTimestamp() <= MAX_TIME_TO_KEEP_CACHED) {
-				Log.d(TAG, "Weather data found in cache: UPDATE");
-				return entry.getData();
+	/**
+	 * Renew @a previous, cached under @a key, after the Weather Service answered its revalidation with 304 Not
+	 * Modified and a Cache-Control max-age of @a maxAge seconds, or -1 if none. Without a max-age, the unchanged
+	 * result stays fresh until its next observation is due, as when it was first downloaded.
+	 *
+	 * @return The renewed information.
+	 */
+	private static WeatherData revalidated(String key, CacheEntry previous, long maxAge) {
+		long now = System.currentTimeMillis();
+		long ttl = freshness.ttlFor(now, maxAge, previous.getObserved());
+		cacheResult(key, new CacheEntry(now, previous.getData(), ttl, previous.getObserved(), previous.getETag(), previous.getLastModified(), previous.getBodySize()));
+		notModifiedCount.incrementAndGet();
+		bytesSaved.addAndGet(previous.getBodySize());
+		Logger.d(TAG, "Weather data not modified, saved %d bytes", previous.getBodySize());
+		return previous.getData();
+	}
+
+	private static WeatherData getResultFromCache(String query, String key) {
+		if (!staleWhileRevalidate) {
+			CacheEntry entry = cache.get(key);
+			if (entry != null) {
+				Logger.d(TAG, "Weather data found in cache: UPDATE");
+				return markCached(entry);
 			}
-			Log.d(TAG, "Weather data found in cache: STALE");
+			Logger.d(TAG, "Weather data not found in cache.");
+			return null;
+		}
+
+		CacheEntry entry = cache.getAllowStale(key);
+		if (entry == null) {
+			Logger.d(TAG, "Weather data not found in cache.");
+			return null;
+		}
+		if (!cache.isFresh(entry)) {
+			Logger.d(TAG, "Weather data found in cache: STALE, revalidating");
+			refreshInBackground(query, key);
+		} else if (cache.isDueForRefresh(entry, REFRESH_AHEAD_FRACTION)) {
+			Logger.d(TAG, "Weather data found in cache: UPDATE, refreshing ahead");
+			refreshInBackground(query, key);
 		} else {
-			Log.d(TAG, "Weather data not found in cache.");
+			Logger.d(TAG, "Weather data found in cache: UPDATE");
+		}
+		return markCached(entry);
+	}
+
+	/**
+	 * @return The result cached under @a key if it is still within the stale window, for when it cannot be fetched
+	 *         again right now, or null if there is none.
+	 */
+	private static WeatherData getStaleResult(String key) {
+		CacheEntry entry = cache.peek(key);
+		if (entry == null || !cache.isServable(entry)) {
+			return null;
+		}
+		Logger.d(TAG, "Serving stale weather data while the fetch is rejected");
+		return markCached(entry);
+	}
+
+	/**
+	 * Return a copy of the data of @a entry flagged as served from the cache, along with its age. The cached instance
+	 * itself is shared between threads and never modified.
+	 */
+	private static WeatherData markCached(CacheEntry entry) {
+		WeatherData data = new WeatherData(entry.getData());
+		data.mCached = true;
+		data.mAge = cache.getAge(entry);
+		return data;
+	}
+
+	private static void cacheResult(String key, CacheEntry entry) {
+		cache.put(key, entry);
+
+		PersistentWeatherCache disk = persistentCache;
+		if (disk != null) {
+			disk.put(key, entry);
+		}
+	}
+
+	/**
+	 * Record the canonical @a query as an alias of the city cached under @a key, in memory and on disk, so it still
+	 * resolves to that city after a restart.
+	 */
+	private static void cacheAlias(String query, String key) {
+		aliases.put(query, key);
+		prefetcher.recordAlias(query, key);
+
+		PersistentWeatherCache disk = persistentCache;
+		if (disk != null) {
+			disk.putAlias(query, key);
 		}
-		return null;
 	}
 
-	private static synchronized void cacheResult(String location, WeatherData data) {
-		location = location.trim().toLowerCase();
-		cacheMap.put(location, new CacheEntry(System.currentTimeMillis(), data));
+	/**
+	 * Look up the canonical @a query, resolved to @a key, in the persistent cache and, if found, promote it into the
+	 * in-memory cache. A query not resolved to a city yet may be an alias stored on disk before a restart, which is
+	 * then restored too.
+	 */
+	private static CacheEntry getEntryFromDisk(String query, String key) {
+		PersistentWeatherCache disk = persistentCache;
+		if (disk == null) {
+			return null;
+		}
+		CacheEntry entry = disk.get(key);
+		if (entry == null && LocationKeys.parseCityIdKey(key) < 0) {
+			String cityKey = disk.getAlias(query);
+			if (cityKey != null && (entry = disk.get(cityKey)) != null) {
+				aliases.put(query, cityKey);
+				prefetcher.recordAlias(query, cityKey);
+				key = cityKey;
+			}
+		}
+		if (entry != null) {
+			cache.put(key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * @return The number of revalidations answered with 304 Not Modified.
+	 */
+	public static long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	/**
+	 * @return The number of response body bytes not downloaded because a revalidation found the cached result
+	 *         unchanged.
+	 */
+	public static long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	/**
+	 * @return A snapshot of the weather cache counters.
+	 */
+	public static WeatherCache.Stats getCacheStats() {
+		return cache.getStats();
 	}
 
 	/**
@@ -0,0 +1,440 @@
+package vandy.mooc.utils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import vandy.mooc.aidl.WeatherData;
+
+/**
+ * @class WeatherCache
+ *
+ * @brief A bounded, strongly-referenced cache of WeatherData keyed by location. Entries are dropped as soon as they
+ *        are found to be older than their time-to-live plus the optional stale window. An entry's time-to-live is its
+ *        own if it carries one, otherwise the cache's default. Entries inside the stale window
+ *        are only returned by getAllowStale(), so callers can serve them while a refresh runs.
+ *
+ *        Reads take no locks: entries live in a ConcurrentHashMap and a read only sets a referenced bit on the node it
+ *        finds. Writes are striped by the map. Once the cache holds more than its maximum number of entries, the
+ *        oldest unreferenced entry is evicted using the CLOCK approximation of LRU: nodes queue in insertion order,
+ *        and a referenced node at the head gets its bit cleared and a second chance at the tail instead of being
+ *        evicted. Cached entries and their WeatherData are never modified, so they can be shared by any number of
+ *        readers.
+ *
+ *        Optionally, entries evicted for lack of room move to an overflow tier, a PackedWeatherStore that holds each
+ *        city in a fixed-size off-heap slot instead of several heap objects, and lookups that miss the map fall back
+ *        to it. Only lookups that miss take its lock.
+ */
+public class WeatherCache {
+	/**
+	 * Maximum number of entries kept.
+	 */
+	private final int mMaxEntries;
+
+	/**
+	 * Time in milliseconds an entry stays fresh.
+	 */
+	private final long mTtl;
+
+	/**
+	 * Time in milliseconds past the time-to-live during which an entry may still be served stale.
+	 */
+	private final long mMaxStale;
+
+	/**
+	 * Source of the current time.
+	 */
+	private final Clock mClock;
+
+	/**
+	 * Current node for each key.
+	 */
+	private final ConcurrentHashMap<String, Node> mEntries = new ConcurrentHashMap<>();
+
+	/**
+	 * Nodes in CLOCK order. May also hold nodes already replaced or removed from mEntries, which are skipped.
+	 */
+	private final ConcurrentLinkedQueue<Node> mClockQueue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Approximate number of replaced or removed nodes still in mClockQueue.
+	 */
+	private final AtomicInteger mDeadNodes = new AtomicInteger();
+
+	/**
+	 * Serializes eviction and the sweeps of the queue and of expired entries.
+	 */
+	private final ReentrantLock mMaintenanceLock = new ReentrantLock();
+
+	/**
+	 * Store for entries evicted from mEntries, or null if there is none.
+	 */
+	private volatile PackedWeatherStore mOverflow;
+
+	/**
+	 * Time of the last sweep of expired entries.
+	 */
+	private volatile long mLastPurge;
+
+	/**
+	 * Counters.
+	 */
+	private final StripedCounter mHits = new StripedCounter();
+	private final StripedCounter mMisses = new StripedCounter();
+	private final StripedCounter mStaleHits = new StripedCounter();
+	private final StripedCounter mEvictions = new StripedCounter();
+	private final StripedCounter mExpirations = new StripedCounter();
+
+	/**
+	 * Create a cache holding at most @a maxEntries entries, each fresh for @a ttlMillis.
+	 */
+	public WeatherCache(int maxEntries, long ttlMillis) {
+		this(maxEntries, ttlMillis, 0, Clock.SYSTEM);
+	}
+
+	/**
+	 * Create a cache holding at most @a maxEntries entries, each fresh for @a ttlMillis and then servable stale for a
+	 * further @a maxStaleMillis, with time read from @a clock.
+	 */
+	public WeatherCache(int maxEntries, long ttlMillis, long maxStaleMillis, Clock clock) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		if (ttlMillis <= 0) {
+			throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+		}
+		if (maxStaleMillis < 0) {
+			throw new IllegalArgumentException("maxStaleMillis must not be negative: " + maxStaleMillis);
+		}
+		mMaxEntries = maxEntries;
+		mTtl = ttlMillis;
+		mMaxStale = maxStaleMillis;
+		mClock = clock;
+	}
+
+	/**
+	 * Move entries evicted for lack of room into @a overflow from now on, and fall back to it when a lookup misses, or
+	 * stop using an overflow tier if @a overflow is null, which is the default. Entries with keys the store cannot
+	 * hold, which are those not naming a city id, are dropped on eviction as before.
+	 */
+	public void setOverflow(PackedWeatherStore overflow) {
+		mOverflow = overflow;
+	}
+
+	/**
+	 * Return the fresh entry cached for @a key, or null if there is none. An entry past the stale window is removed.
+	 */
+	public CacheEntry get(String key) {
+		return lookup(key, false);
+	}
+
+	/**
+	 * Return the entry cached for @a key if it is fresh or still inside the stale window, or null if there is none.
+	 * Use isFresh() to tell the two apart.
+	 */
+	public CacheEntry getAllowStale(String key) {
+		return lookup(key, true);
+	}
+
+	/**
+	 * Return the entry cached for @a key whatever its age, without counting a lookup or marking it as used.
+	 */
+	public CacheEntry peek(String key) {
+		Node node = mEntries.get(key);
+		if (node != null) {
+			return node.mEntry;
+		}
+		PackedWeatherStore overflow = mOverflow;
+		return overflow != null ? overflow.get(key) : null;
+	}
+
+	/**
+	 * @return true if @a entry is younger than its time-to-live.
+	 */
+	public boolean isFresh(CacheEntry entry) {
+		return getAge(entry) <= getTtl(entry);
+	}
+
+	/**
+	 * @return true if @a entry is younger than its time-to-live plus the stale window, so it may still be served.
+	 */
+	public boolean isServable(CacheEntry entry) {
+		return getAge(entry) <= getTtl(entry) + mMaxStale;
+	}
+
+	/**
+	 * @return true if @a entry has been cached for at least @a fraction of its time-to-live, so a read should refresh
+	 *         it ahead of expiry.
+	 */
+	public boolean isDueForRefresh(CacheEntry entry, double fraction) {
+		return getAge(entry) >= getTtl(entry) * fraction;
+	}
+
+	/**
+	 * @return The age of @a entry in milliseconds.
+	 */
+	public long getAge(CacheEntry entry) {
+		return mClock.currentTimeMillis() - entry.getTimestamp();
+	}
+
+	/**
+	 * @return The default time in milliseconds an entry stays fresh.
+	 */
+	public long getTtl() {
+		return mTtl;
+	}
+
+	/**
+	 * @return The time in milliseconds @a entry stays fresh.
+	 */
+	public long getTtl(CacheEntry entry) {
+		return entry.getTtl() > 0 ? entry.getTtl() : mTtl;
+	}
+
+	/**
+	 * Look up @a key, counting one hit, stale hit or miss. Only an entry returned counts as a hit; an entry that is
+	 * too old to return counts as a miss.
+	 */
+	private CacheEntry lookup(String key, boolean allowStale) {
+		Node node = mEntries.get(key);
+		PackedWeatherStore overflow = null;
+		CacheEntry entry;
+		if (node != null) {
+			entry = node.mEntry;
+		} else {
+			overflow = mOverflow;
+			entry = overflow != null ? overflow.get(key) : null;
+		}
+		if (entry == null) {
+			mMisses.increment();
+			return null;
+		}
+		long age = mClock.currentTimeMillis() - entry.getTimestamp();
+		long ttl = getTtl(entry);
+		if (age > ttl + mMaxStale) {
+			if (node == null) {
+				overflow.remove(key);
+				mExpirations.increment();
+			} else if (mEntries.remove(key, node)) {
+				mExpirations.increment();
+				mDeadNodes.incrementAndGet();
+			}
+			mMisses.increment();
+			return null;
+		}
+		if (age > ttl && !allowStale) {
+			mMisses.increment();
+			return null;
+		}
+		// Only write the bit when it changes, so hot entries do not bounce their cache line between readers.
+		if (node != null && !node.mReferenced) {
+			node.mReferenced = true;
+		}
+		if (age > ttl) {
+			mStaleHits.increment();
+		} else {
+			mHits.increment();
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache @a data for @a key, evicting the least recently used entry if the cache is full.
+	 */
+	public void put(String key, WeatherData data) {
+		put(key, new CacheEntry(mClock.currentTimeMillis(), data));
+	}
+
+	/**
+	 * Cache @a entry for @a key, keeping its original timestamp.
+	 */
+	public void put(String key, CacheEntry entry) {
+		Node node = new Node(key, entry);
+		if (mEntries.put(key, node) != null) {
+			mDeadNodes.incrementAndGet();
+		}
+		mClockQueue.add(node);
+		PackedWeatherStore overflow = mOverflow;
+		if (overflow != null) {
+			overflow.remove(key);
+		}
+		maintain();
+	}
+
+	/**
+	 * Remove the entry for @a key, if any.
+	 */
+	public void remove(String key) {
+		if (mEntries.remove(key) != null) {
+			mDeadNodes.incrementAndGet();
+		}
+		PackedWeatherStore overflow = mOverflow;
+		if (overflow != null) {
+			overflow.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all entries older than their time-to-live plus the stale window.
+	 */
+	public void purgeExpired() {
+		mMaintenanceLock.lock();
+		try {
+			long now = mClock.currentTimeMillis();
+			for (Node node : mEntries.values()) {
+				// Removing through the iterator would remove by key, and so delete an entry put since the check.
+				if (now - node.mEntry.getTimestamp() > getTtl(node.mEntry) + mMaxStale && mEntries.remove(node.mKey, node)) {
+					mExpirations.increment();
+					mDeadNodes.incrementAndGet();
+				}
+			}
+			mLastPurge = now;
+		} finally {
+			mMaintenanceLock.unlock();
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		mMaintenanceLock.lock();
+		try {
+			mEntries.clear();
+			mClockQueue.clear();
+			mDeadNodes.set(0);
+			PackedWeatherStore overflow = mOverflow;
+			if (overflow != null) {
+				overflow.clear();
+			}
+		} finally {
+			mMaintenanceLock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of entries currently held, fresh or not, not counting the overflow tier.
+	 */
+	public int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * @return A snapshot of the cache counters.
+	 */
+	public Stats getStats() {
+		PackedWeatherStore overflow = mOverflow;
+		return new Stats(mHits.get(), mMisses.get(), mStaleHits.get(), mEvictions.get(), mExpirations.get(), mEntries.size(), overflow != null ? overflow.size() : 0);
+	}
+
+	/**
+	 * Run the maintenance due after a write: sweep expired entries at most once per time-to-live, drop replaced and
+	 * removed nodes from the queue once they outnumber the cache's capacity, and evict down to the maximum size.
+	 */
+	private void maintain() {
+		if (mClock.currentTimeMillis() - mLastPurge >= mTtl) {
+			purgeExpired();
+		}
+		if (mDeadNodes.get() > mMaxEntries) {
+			sweepQueue();
+		}
+		if (mEntries.size() > mMaxEntries) {
+			evict();
+		}
+	}
+
+	/**
+	 * Remove nodes that are no longer current from the queue.
+	 */
+	private void sweepQueue() {
+		mMaintenanceLock.lock();
+		try {
+			for (Iterator<Node> it = mClockQueue.iterator(); it.hasNext();) {
+				Node node = it.next();
+				// A node replaced or removed never becomes current again, and this removes that node from the queue,
+				// not whatever its key maps to, so no current entry can be lost.
+				if (mEntries.get(node.mKey) != node) {
+					it.remove();
+				}
+			}
+			mDeadNodes.set(0);
+		} finally {
+			mMaintenanceLock.unlock();
+		}
+	}
+
+	/**
+	 * Evict entries in CLOCK order until the cache is back to its maximum size, moving those still servable to the
+	 * overflow tier if there is one.
+	 */
+	private void evict() {
+		mMaintenanceLock.lock();
+		try {
+			PackedWeatherStore overflow = mOverflow;
+			while (mEntries.size() > mMaxEntries) {
+				Node node = mClockQueue.poll();
+				if (node == null) {
+					return;
+				}
+				if (mEntries.get(node.mKey) != node) {
+					// Replaced or removed since it was queued.
+					mDeadNodes.decrementAndGet();
+				} else if (node.mReferenced) {
+					node.mReferenced = false;
+					mClockQueue.add(node);
+				} else if (mEntries.remove(node.mKey, node)) {
+					mEvictions.increment();
+					if (overflow != null && isServable(node.mEntry)) {
+						overflow.put(node.mKey, node.mEntry);
+					}
+				}
+			}
+		} finally {
+			mMaintenanceLock.unlock();
+		}
+	}
+
+	/**
+	 * A cached entry together with its CLOCK reference bit.
+	 */
+	private static class Node {
+		final String mKey;
+		final CacheEntry mEntry;
+		volatile boolean mReferenced;
+
+		Node(String key, CacheEntry entry) {
+			mKey = key;
+			mEntry = entry;
+		}
+	}
+
+	/**
+	 * Immutable snapshot of the cache counters.
+	 */
+	public static class Stats {
+		public final long hits;
+		public final long misses;
+		public final long staleHits;
+		public final long evictions;
+		public final long expirations;
+		public final int size;
+		public final int overflowSize;
+
+		Stats(long hits, long misses, long staleHits, long evictions, long expirations, int size, int overflowSize) {
+			this.hits = hits;
+			this.misses = misses;
+			this.staleHits = staleHits;
+			this.evictions = evictions;
+			this.expirations = expirations;
+			this.size = size;
+			this.overflowSize = overflowSize;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [hits=" + hits + ", misses=" + misses + ", staleHits=" + staleHits + ", evictions=" + evictions + ", expirations=" + expirations + ", size=" + size + ", overflowSize=" + overflowSize + "]";
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+import vandy.mooc.jsonweather.JsonWeather;
+import vandy.mooc.jsonweather.WeatherFields;
+
+/**
+ * @interface WeatherFetcher
+ *
+ * @brief Fetches and parses Weather information from a provider. Caching and conversion to WeatherData are left to
+ *        the caller, so the same cache can run against the Weather web service or an in-process stub.
+ */
+public interface WeatherFetcher {
+	/**
+	 * Fetch the Weather information for the canonical @a query, which is either a location or a city id, at
+	 * @a priority. If @a previous is not null and carries validators, the fetch is conditional on the information
+	 * having changed since.
+	 *
+	 * @return The result. Rejected locations return a result whose JsonWeather carries the provider's cod and message.
+	 * @throws IOException if the provider could not be reached.
+	 */
+	Result fetch(String query, CacheEntry previous, FetchPriority priority) throws IOException;
+
+	/**
+	 * Fetch like fetch(), but call @a callback with the outcome instead of returning it. Providers that can wait for
+	 * the response without holding a thread return at once; others fetch on the calling thread.
+	 */
+	void fetchAsync(String query, CacheEntry previous, FetchPriority priority, Callback callback);
+
+	/**
+	 * Fetch the Weather information for the cities @a ids in one request, at @a priority.
+	 *
+	 * @return The information for each city found, in any order.
+	 * @throws IOException if the provider could not be reached or failed the request.
+	 */
+	List<JsonWeather> fetchGroup(List<Long> ids, FetchPriority priority) throws IOException;
+
+	/**
+	 * Get ready for the first fetch, for example by resolving the provider's host and opening a connection to it, so
+	 * that fetch does not pay for them. Does not count against any quota.
+	 *
+	 * @throws IOException if the provider could not be reached.
+	 */
+	void warmUp() throws IOException;
+
+	/**
+	 * Receives the outcome of an asynchronous fetch, on any thread, so it must not block.
+	 */
+	public interface Callback {
+		void onResult(Result result);
+
+		void onFailure(IOException e);
+	}
+
+	/**
+	 * The outcome of a fetch: either new information with the validators and freshness of the response, or word
+	 * that the previous information has not changed.
+	 */
+	public static class Result {
+		private final JsonWeather mJsonWeather;
+		private WeatherFields mFields;
+		private final long mMaxAge;
+		private final String mETag;
+		private final String mLastModified;
+		private final int mBodySize;
+
+		/**
+		 * @param jsonWeather the parsed information, or null if it has not changed.
+		 * @param maxAge the Cache-Control max-age of the response in seconds, or -1 if it had none.
+		 * @param etag the ETag of the response, or null.
+		 * @param lastModified the Last-Modified date of the response, or null.
+		 * @param bodySize the size in bytes of the response body.
+		 */
+		public Result(JsonWeather jsonWeather, long maxAge, String etag, String lastModified, int bodySize) {
+			mJsonWeather = jsonWeather;
+			mMaxAge = maxAge;
+			mETag = etag;
+			mLastModified = lastModified;
+			mBodySize = bodySize;
+		}
+
+		/**
+		 * @param fields the parsed information, read by the WeatherByteParser without building a JsonWeather.
+		 * @param maxAge the Cache-Control max-age of the response in seconds, or -1 if it had none.
+		 * @param etag the ETag of the response, or null.
+		 * @param lastModified the Last-Modified date of the response, or null.
+		 * @param bodySize the size in bytes of the response body.
+		 */
+		public Result(WeatherFields fields, long maxAge, String etag, String lastModified, int bodySize) {
+			this((JsonWeather) null, maxAge, etag, lastModified, bodySize);
+			mFields = fields;
+		}
+
+		/**
+		 * @return A result saying the previous information has not changed, with a max-age of @a maxAge seconds or
+		 *         -1 if none.
+		 */
+		public static Result notModified(long maxAge) {
+			return new Result((JsonWeather) null, maxAge, null, null, 0);
+		}
+
+		public boolean isNotModified() {
+			return mJsonWeather == null && mFields == null;
+		}
+
+		/**
+		 * @return The parsed information as a JsonWeather, or null if it was parsed straight into WeatherFields or has
+		 *         not changed.
+		 */
+		public JsonWeather getJsonWeather() {
+			return mJsonWeather;
+		}
+
+		/**
+		 * @return The fields of the parsed information the app uses, however it was parsed, or null if it has not
+		 *         changed.
+		 */
+		public WeatherFields getFields() {
+			if (mFields == null && mJsonWeather != null) {
+				mFields = new WeatherFields().set(mJsonWeather);
+			}
+			return mFields;
+		}
+
+		public long getMaxAge() {
+			return mMaxAge;
+		}
+
+		public String getETag() {
+			return mETag;
+		}
+
+		public String getLastModified() {
+			return mLastModified;
+		}
+
+		public int getBodySize() {
+			return mBodySize;
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package android.util;
+
+/**
+ * @class JsonToken
+ *
+ * @brief The tokens of the JsonReader that stands in for the platform one in local unit tests.
+ */
+public enum JsonToken {
+	BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+}
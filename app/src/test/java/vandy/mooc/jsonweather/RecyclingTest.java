@@ -0,0 +1,86 @@
+package vandy.mooc.jsonweather;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import vandy.mooc.utils.StubWeatherFetcher;
+
+/**
+ * Checks that the objects a failed parse obtained from the pools go back to them, by the pools handing them out
+ * again. Each pool hands out the instance it was last given first.
+ */
+public class RecyclingTest {
+	private static final String NASHVILLE = StubWeatherFetcher.DEFAULT_PAYLOAD.replace("{id}", "4644585").replace("{name}", "Nashville").replace("{dt}", "1445883000");
+
+	/**
+	 * The response cut off inside the wind, after the weather, main and sys objects have been parsed.
+	 */
+	private static final String TRUNCATED = NASHVILLE.substring(0, NASHVILLE.indexOf("\"deg\""));
+
+	private final WeatherJSONParser mParser = new WeatherJSONParser();
+
+	@Before
+	public void setUp() {
+		WeatherJSONParser.setRecycling(true, false);
+	}
+
+	@After
+	public void tearDown() {
+		WeatherJSONParser.setRecycling(false, false);
+	}
+
+	@Test
+	public void failedParseRecyclesWhatItParsed() throws IOException {
+		JsonWeather weather = parse(NASHVILLE);
+		Sys sys = weather.getSys();
+		WeatherJSONParser.recycle(weather);
+
+		try {
+			parse(TRUNCATED);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		JsonWeather again = parse(NASHVILLE);
+		assertSame(weather, again);
+		assertSame(sys, again.getSys());
+	}
+
+	@Test
+	public void failedGroupParseRecyclesTheCitiesParsed() throws IOException {
+		JsonWeather weather = parse(NASHVILLE);
+		WeatherJSONParser.recycle(weather);
+
+		byte[] body = ("{\"cnt\":2,\"list\":[" + NASHVILLE + "," + TRUNCATED).getBytes("UTF-8");
+		try {
+			mParser.parseJsonGroup(body, body.length);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertSame(weather, JsonWeather.obtain());
+	}
+
+	@Test
+	public void poolsAreBypassedWhileRecyclingIsOff() throws IOException {
+		WeatherJSONParser.setRecycling(false, false);
+		JsonWeather weather = parse(NASHVILLE);
+		weather.recycle();
+
+		assertNotSame(weather, JsonWeather.obtain());
+	}
+
+	private JsonWeather parse(String response) throws IOException {
+		byte[] body = response.getBytes("UTF-8");
+		return mParser.parseJson(body, body.length);
+	}
+}
@@ -0,0 +1,170 @@
+package vandy.mooc.jsonweather;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import vandy.mooc.utils.StubWeatherFetcher;
+
+/**
+ * Runs the WeatherByteParser and the reference WeatherJSONParser over the same responses. For each, both must read
+ * the same fields, or both must reject it.
+ */
+public class WeatherParserDifferentialTest {
+	private static final String[] RESPONSES = { //
+			"london.json", //
+			"nashville-pretty.json", //
+			"not-found-quoted-cod.json", //
+			"not-found-numeric-cod.json", //
+			"missing-fields.json", //
+			"unicode-escapes.json", //
+			"raw-utf8.json", //
+			"long-overflow.json", //
+			"long-far-overflow.json", //
+			"long-bounds.json", //
+			"fractional-humidity.json", //
+			"quoted-numbers.json", //
+			"trailing-data.json", //
+			"truncated.json" };
+
+	private static final String NASHVILLE = StubWeatherFetcher.DEFAULT_PAYLOAD.replace("{id}", "4644585").replace("{name}", "Nashville").replace("{dt}", "1445883000");
+
+	private final WeatherByteParser mParser = new WeatherByteParser();
+
+	@Test
+	public void parsersAgreeOnRecordedResponses() throws IOException {
+		for (String response : RESPONSES) {
+			assertAgree(response, read(response));
+		}
+	}
+
+	@Test
+	public void notFoundWithQuotedCodIsReadAsNumber() throws IOException {
+		byte[] body = read("not-found-quoted-cod.json");
+		WeatherFields fields = mParser.parse(body, body.length, new WeatherFields());
+
+		assertEquals(404, fields.getCod());
+		assertEquals("city not found", fields.getMessage());
+	}
+
+	@Test
+	public void escapesAreDecoded() throws IOException {
+		byte[] body = read("unicode-escapes.json");
+
+		assertEquals("Zürich \"Kreis 1\" \\ / 😀\t", mParser.parse(body, body.length, new WeatherFields()).getName());
+	}
+
+	@Test
+	public void longJustPastTheRangeIsReadAsTheBound() throws IOException {
+		byte[] body = read("long-overflow.json");
+
+		assertEquals(Long.MAX_VALUE, mParser.parse(body, body.length, new WeatherFields()).getDt());
+	}
+
+	@Test
+	public void longFarPastTheRangeIsRejected() {
+		try {
+			byte[] body = read("long-far-overflow.json");
+			mParser.parse(body, body.length, new WeatherFields());
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void projectionReadsTheSameFieldsAsAFullParse() throws IOException {
+		int required = WeatherFields.FIELD_COD | WeatherFields.FIELD_NAME | WeatherFields.FIELD_TEMP;
+		for (String response : new String[] { "london.json", "nashville-pretty.json", "not-found-quoted-cod.json" }) {
+			byte[] body = read(response);
+			WeatherFields full = mParser.parse(body, body.length, new WeatherFields());
+			WeatherFields projected = mParser.parse(body, body.length, new WeatherFields(), required);
+
+			assertEquals(response, full.getCod(), projected.getCod());
+			assertEquals(response, full.getName(), projected.getName());
+			assertEquals(response, full.getTemp(), projected.getTemp(), 0);
+		}
+	}
+
+	@Test
+	public void parsersAgreeOnGeneratedNumbers() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			double temp;
+			switch (i % 3) {
+				case 0:
+					temp = Math.round(random.nextGaussian() * 100000) / 100.0;
+					break;
+				case 1:
+					temp = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+					break;
+				default:
+					temp = random.nextInt(100000) / 10000.0;
+			}
+			long sunrise = random.nextLong() >> random.nextInt(64);
+			String response = NASHVILLE.replace("\"temp\":21.5", "\"temp\":" + temp).replace("\"sunrise\":1445862826", "\"sunrise\":" + sunrise);
+			assertAgree(response, response.getBytes("UTF-8"));
+		}
+	}
+
+	@Test
+	public void parsersAgreeOnDamagedResponses() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder response = new StringBuilder(NASHVILLE);
+			int position = random.nextInt(response.length());
+			if (random.nextBoolean()) {
+				response.setLength(position);
+			} else {
+				response.setCharAt(position, "{}[],:\"0a- ".charAt(random.nextInt(11)));
+			}
+			assertAgree(response.toString(), response.toString().getBytes("UTF-8"));
+		}
+	}
+
+	/**
+	 * Parse @a body with both parsers, and fail unless they read the same fields or both reject it.
+	 */
+	private void assertAgree(String response, byte[] body) {
+		WeatherFields expected = null;
+		Exception expectedFailure = null;
+		try {
+			expected = new WeatherFields().set(new WeatherJSONParser().parseJson(body, body.length));
+		} catch (IOException | RuntimeException e) {
+			expectedFailure = e;
+		}
+
+		WeatherFields actual = null;
+		Exception actualFailure = null;
+		try {
+			actual = mParser.parse(body, body.length, new WeatherFields());
+		} catch (IOException | RuntimeException e) {
+			actualFailure = e;
+		}
+
+		if (expectedFailure != null || actualFailure != null) {
+			assertEquals(response + ": reference " + expectedFailure + ", byte parser " + actualFailure, expectedFailure != null, actualFailure != null);
+		} else {
+			assertEquals(response, expected, actual);
+		}
+	}
+
+	private static byte[] read(String response) throws IOException {
+		try (InputStream in = WeatherParserDifferentialTest.class.getResourceAsStream("responses/" + response)) {
+			assertNotNull(response, in);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+}
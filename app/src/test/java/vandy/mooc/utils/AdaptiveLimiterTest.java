@@ -0,0 +1,119 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+	private static final int MAX_LIMIT = 20;
+	private static final double TOLERANCE = 2;
+
+	private final FakeClock mClock = new FakeClock(1431435983000L);
+	private final Random mRandom = new Random(42);
+	private final AdaptiveLimiter mLimiter = new AdaptiveLimiter(4, 1, MAX_LIMIT, TOLERANCE, 0, 0, mClock);
+
+	@Test
+	public void limitGrowsWhileLatencyStaysLow() {
+		for (int i = 0; i < 100; i++) {
+			round(100, 0.1);
+		}
+
+		assertEquals(MAX_LIMIT, mLimiter.getLimit());
+	}
+
+	@Test
+	public void limitShrinksWhenLatencyRises() {
+		for (int i = 0; i < 100; i++) {
+			round(100, 0.1);
+		}
+		round(500, 0.1);
+
+		assertTrue(mLimiter.getLimit() < MAX_LIMIT / 2);
+	}
+
+	@Test
+	public void limitShrinksWhenCallsFail() {
+		for (int i = 0; i < 5; i++) {
+			mLimiter.acquire().release(false);
+		}
+
+		assertEquals(2, mLimiter.getLimit());
+	}
+
+	@Test
+	public void lowestLatencyIsRelearnedAfterALastingShift() {
+		for (int i = 0; i < 100; i++) {
+			round(100, 0.1);
+		}
+		round(500, 0.1);
+		int shrunk = mLimiter.getLimit();
+
+		// Once the window has passed, 500 ms is the new normal, and the limit grows back.
+		for (int i = 0; i < 200; i++) {
+			round(500, 0.1);
+		}
+
+		assertTrue(mLimiter.getLimit() > shrunk);
+		assertEquals(MAX_LIMIT, mLimiter.getLimit());
+	}
+
+	@Test
+	public void upstreamOverloadShrinksTheLimit() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 10, TOLERANCE, 0, 0, mClock);
+		WeatherFetcher fetcher = new LimitedWeatherFetcher(new HttpWeatherFetcher(new StubHttpEngine(429, "{\"cod\":429}")), limiter);
+
+		for (int i = 0; i < 5; i++) {
+			try {
+				fetcher.fetch("2643743", null, FetchPriority.INTERACTIVE);
+				fail();
+			} catch (IOException e) {
+				// 429 Too Many Requests
+			}
+		}
+
+		assertEquals(5, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void promptErrorAnswersLeaveTheLimitAlone() throws IOException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 10, TOLERANCE, 0, 0, mClock);
+		WeatherFetcher fetcher = new LimitedWeatherFetcher(new HttpWeatherFetcher(new StubHttpEngine(404, "{\"cod\":\"404\",\"message\":\"city not found\"}")), limiter);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(404, fetcher.fetch("Atlantis", null, FetchPriority.INTERACTIVE).getFields().getCod());
+		}
+
+		assertEquals(10, limiter.getLimit());
+	}
+
+	/**
+	 * Start as many calls as the limit allows at once, each taking a log-normally distributed time with a median of
+	 * @a medianMillis, and complete them in order as the clock reaches their end.
+	 */
+	private void round(long medianMillis, double sigma) {
+		int calls = mLimiter.getLimit();
+		AdaptiveLimiter.Permit[] permits = new AdaptiveLimiter.Permit[calls];
+		long[] latencies = new long[calls];
+		for (int i = 0; i < calls; i++) {
+			permits[i] = mLimiter.tryAcquire();
+			assertNotNull(permits[i]);
+			latencies[i] = (long) (medianMillis * Math.exp(sigma * mRandom.nextGaussian()));
+		}
+		Arrays.sort(latencies);
+
+		long elapsed = 0;
+		for (int i = 0; i < calls; i++) {
+			mClock.advance(latencies[i] - elapsed);
+			elapsed = latencies[i];
+			permits[i].release(true);
+		}
+	}
+}
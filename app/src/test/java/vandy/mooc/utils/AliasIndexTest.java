@@ -0,0 +1,49 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AliasIndexTest {
+	private final AliasIndex mAliases = new AliasIndex(2);
+
+	@Test
+	public void unknownQueryResolvesToItsOwnKey() {
+		assertEquals("london", mAliases.resolve("london"));
+		assertEquals(LocationKeys.queryKey("2643743"), mAliases.resolve("2643743"));
+		assertEquals(0, mAliases.getResolvedCount());
+	}
+
+	@Test
+	public void aliasResolvesToCityKey() {
+		mAliases.put("london", "#2643743");
+
+		assertEquals("#2643743", mAliases.resolve("london"));
+		assertEquals(1, mAliases.getResolvedCount());
+	}
+
+	@Test
+	public void oldestAliasIsDroppedEvenIfRecentlyUsed() {
+		mAliases.put("london", "#2643743");
+		mAliases.put("paris", "#2988507");
+		// Lookups do not reorder aliases.
+		mAliases.resolve("london");
+
+		mAliases.put("berlin", "#2950159");
+
+		assertEquals(2, mAliases.size());
+		assertEquals("london", mAliases.resolve("london"));
+		assertEquals("#2988507", mAliases.resolve("paris"));
+		assertEquals("#2950159", mAliases.resolve("berlin"));
+	}
+
+	@Test
+	public void changingAnAliasKeepsItsPlace() {
+		mAliases.put("london", "#2643743");
+		mAliases.put("paris", "#2988507");
+		mAliases.put("london", "#2643741");
+
+		assertEquals(2, mAliases.size());
+		assertEquals("#2643741", mAliases.resolve("london"));
+	}
+}
@@ -0,0 +1,24 @@
+package vandy.mooc.utils;
+
+/**
+ * A Clock that only moves when told to.
+ */
+public class FakeClock implements Clock {
+	private long mNow;
+
+	public FakeClock(long now) {
+		mNow = now;
+	}
+
+	@Override
+	public synchronized long currentTimeMillis() {
+		return mNow;
+	}
+
+	/**
+	 * Move the clock @a millis forward.
+	 */
+	public synchronized void advance(long millis) {
+		mNow += millis;
+	}
+}
@@ -0,0 +1,94 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class FreshnessPolicyTest {
+	private static final long MIN_TTL = 10000;
+	private static final long MAX_TTL = 600000;
+	private static final long OBSERVATION_INTERVAL = 600000;
+
+	/**
+	 * Observation time of a result, in seconds.
+	 */
+	private static final long DT = 1431435983L;
+
+	private final FakeClock mClock = new FakeClock(DT * 1000);
+	private final FreshnessPolicy mPolicy = new FreshnessPolicy(MIN_TTL, MAX_TTL, OBSERVATION_INTERVAL);
+
+	@Test
+	public void maxAgeWins() {
+		assertEquals(120000, mPolicy.ttlFor(mClock.currentTimeMillis(), 120, DT));
+	}
+
+	@Test
+	public void maxAgeIsClamped() {
+		assertEquals(MIN_TTL, mPolicy.ttlFor(mClock.currentTimeMillis(), 0, DT));
+		assertEquals(MAX_TTL, mPolicy.ttlFor(mClock.currentTimeMillis(), 3600, DT));
+	}
+
+	@Test
+	public void withoutMaxAgeResultIsKeptUntilNextObservation() {
+		mClock.advance(240000);
+		assertEquals(OBSERVATION_INTERVAL - 240000, mPolicy.ttlFor(mClock.currentTimeMillis(), -1, DT));
+
+		mClock.advance(300000);
+		assertEquals(OBSERVATION_INTERVAL - 540000, mPolicy.ttlFor(mClock.currentTimeMillis(), -1, DT));
+	}
+
+	@Test
+	public void overdueObservationGetsMinimumTtl() {
+		mClock.advance(OBSERVATION_INTERVAL - MIN_TTL / 2);
+		assertEquals(MIN_TTL, mPolicy.ttlFor(mClock.currentTimeMillis(), -1, DT));
+
+		mClock.advance(OBSERVATION_INTERVAL);
+		assertEquals(MIN_TTL, mPolicy.ttlFor(mClock.currentTimeMillis(), -1, DT));
+	}
+
+	@Test
+	public void unknownObservationGetsMinimumTtl() {
+		assertEquals(MIN_TTL, mPolicy.ttlFor(mClock.currentTimeMillis(), -1, 0));
+	}
+
+	@Test
+	public void observationAheadOfClockIsClampedToMaximum() {
+		assertEquals(MAX_TTL, mPolicy.ttlFor(DT * 1000 - 60000, -1, DT));
+	}
+
+	@Test
+	public void parsesMaxAge() {
+		assertEquals(-1, FreshnessPolicy.parseMaxAge(null));
+		assertEquals(-1, FreshnessPolicy.parseMaxAge("public"));
+		assertEquals(600, FreshnessPolicy.parseMaxAge("public, max-age=600"));
+		assertEquals(600, FreshnessPolicy.parseMaxAge("Max-Age=600"));
+		assertEquals(0, FreshnessPolicy.parseMaxAge("no-cache"));
+		assertEquals(0, FreshnessPolicy.parseMaxAge("no-store, max-age=600"));
+		assertEquals(-1, FreshnessPolicy.parseMaxAge("max-age=soon"));
+	}
+
+	@Test
+	public void cachedEntryFollowsPolicyTtl() {
+		WeatherCache cache = new WeatherCache(16, MIN_TTL, 0, mClock);
+		mClock.advance(240000);
+		long now = mClock.currentTimeMillis();
+		cache.put("#2643743", new CacheEntry(now, WeatherCacheTest.data("London"), mPolicy.ttlFor(now, -1, DT), DT, null, null, 0));
+
+		mClock.advance(OBSERVATION_INTERVAL - 240000);
+		assertEquals("London", cache.get("#2643743").getData().mName);
+
+		mClock.advance(1);
+		assertNull(cache.get("#2643743"));
+	}
+
+	@Test
+	public void renewedEntryKeepsTtlFromItsObservation() {
+		long now = mClock.currentTimeMillis();
+		CacheEntry previous = new CacheEntry(now, WeatherCacheTest.data("London"), mPolicy.ttlFor(now, -1, DT), DT, "\"etag\"", null, 0);
+
+		// A 304 without a max-age halfway to the next observation renews the entry until that observation is due.
+		mClock.advance(OBSERVATION_INTERVAL / 2);
+		assertEquals(OBSERVATION_INTERVAL / 2, mPolicy.ttlFor(mClock.currentTimeMillis(), -1, previous.getObserved()));
+	}
+}
@@ -0,0 +1,60 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class HttpWeatherFetcherTest {
+	private static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+	private static final String TOO_MANY_REQUESTS = "{\"cod\":429,\"message\":\"Your account is temporary blocked due to exceeding of requests limitation\"}";
+	private static final String UNAVAILABLE = "<html><body>503 Service Temporarily Unavailable</body></html>";
+
+	@Test
+	public void tooManyRequestsIsThrownAsRetryable() {
+		assertRetryable(429, new HttpWeatherFetcher(new StubHttpEngine(429, TOO_MANY_REQUESTS)));
+	}
+
+	@Test
+	public void serverErrorIsThrownAsRetryable() {
+		assertRetryable(503, new HttpWeatherFetcher(new StubHttpEngine(503, UNAVAILABLE)));
+	}
+
+	@Test
+	public void notFoundIsAnAnswer() throws IOException {
+		WeatherFetcher.Result result = new HttpWeatherFetcher(new StubHttpEngine(404, NOT_FOUND)).fetch("Atlantis", null, FetchPriority.INTERACTIVE);
+
+		assertEquals(404, result.getFields().getCod());
+	}
+
+	@Test
+	public void singleFetchesAnsweredWithServerErrorsAreRetried() throws IOException {
+		StubHttpEngine engine = new StubHttpEngine(503, UNAVAILABLE);
+		CircuitBreaker breaker = new CircuitBreaker(10, 30000, new FakeClock(1431435983000L));
+		ResilientWeatherFetcher fetcher = new ResilientWeatherFetcher(new HttpWeatherFetcher(engine), breaker, 3, 0, 0);
+
+		try {
+			fetcher.fetch("2643743", null, FetchPriority.INTERACTIVE);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(503, e.getStatus());
+		}
+		assertEquals(3, engine.getRequestCount());
+		assertEquals(2, fetcher.getStats().retries);
+	}
+
+	private static void assertRetryable(int status, WeatherFetcher fetcher) {
+		try {
+			fetcher.fetch("2643743", null, FetchPriority.INTERACTIVE);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(status, e.getStatus());
+			assertTrue(e.isRetryable());
+		} catch (IOException e) {
+			fail(e.toString());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MicroBatcherTest {
+	private final List<List<Integer>> mBatches = new CopyOnWriteArrayList<>();
+	private final List<FetchPriority> mPriorities = new CopyOnWriteArrayList<>();
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+	private final MicroBatcher.Loader<Integer, String> mLoader = new MicroBatcher.Loader<Integer, String>() {
+		@Override
+		public Map<Integer, String> load(List<Integer> keys, FetchPriority priority) {
+			mBatches.add(keys);
+			mPriorities.add(priority);
+			Map<Integer, String> values = new HashMap<>();
+			for (Integer key : keys) {
+				values.put(key, "city " + key);
+			}
+			return values;
+		}
+	};
+
+	@After
+	public void tearDown() {
+		mExecutor.shutdownNow();
+	}
+
+	@Test
+	public void fullBatchIsSentAtOnce() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(4, 60000, mLoader);
+
+		List<Future<String>> results = loadAll(batcher, FetchPriority.INTERACTIVE, 1, 2, 3, 4);
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals("city " + (i + 1), results.get(i).get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, mBatches.size());
+		assertEquals(4, mBatches.get(0).size());
+	}
+
+	@Test
+	public void batchTakesTheHighestPriorityOfItsCallers() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(3, 60000, mLoader);
+
+		// Background work opens the batch, and an interactive lookup joins it before background work fills it.
+		List<Future<String>> results = loadAll(batcher, FetchPriority.BACKGROUND, 1);
+		awaitSize(batcher, 1);
+		results.addAll(loadAll(batcher, FetchPriority.INTERACTIVE, 2));
+		awaitSize(batcher, 2);
+		results.addAll(loadAll(batcher, FetchPriority.BACKGROUND, 3));
+
+		for (Future<String> result : results) {
+			result.get(5, TimeUnit.SECONDS);
+		}
+		assertEquals(1, mPriorities.size());
+		assertEquals(FetchPriority.INTERACTIVE, mPriorities.get(0));
+	}
+
+	@Test
+	public void backgroundBatchStaysBackground() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(2, 60000, mLoader);
+
+		for (Future<String> result : loadAll(batcher, FetchPriority.BACKGROUND, 1, 2)) {
+			result.get(5, TimeUnit.SECONDS);
+		}
+		assertEquals(FetchPriority.BACKGROUND, mPriorities.get(0));
+	}
+
+	@Test
+	public void batchTimesOut() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(20, 10, mLoader);
+
+		assertEquals("city 1", batcher.load(1, FetchPriority.INTERACTIVE));
+		assertEquals(1, batcher.getBatchCount());
+	}
+
+	private List<Future<String>> loadAll(final MicroBatcher<Integer, String> batcher, final FetchPriority priority, int... keys) {
+		List<Future<String>> results = new ArrayList<>();
+		for (final int key : keys) {
+			results.add(mExecutor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return batcher.load(key, priority);
+				}
+			}));
+		}
+		return results;
+	}
+
+	/**
+	 * Wait for the open batch to hold @a size keys.
+	 */
+	private void awaitSize(MicroBatcher<Integer, String> batcher, int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (batcher.getOpenSize() < size && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(size, batcher.getOpenSize());
+	}
+}
@@ -0,0 +1,167 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioHttpClientTest {
+	private static final String BODY = "{\"coord\":{\"lon\":-0.13,\"lat\":51.51},\"name\":\"London\",\"cod\":200}";
+
+	private ServerSocket mServer;
+	private NioHttpClient mClient;
+
+	/**
+	 * Responses the server sends, one per request, each as pieces written with a pause in between.
+	 */
+	private final List<byte[][]> mResponses = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "StubServer");
+		thread.setDaemon(true);
+		thread.start();
+		mClient = new NioHttpClient(5000, 5000, 4);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		mClient.close();
+		mServer.close();
+	}
+
+	@Test
+	public void chunkedBodyArrivingInPiecesIsDechunked() throws IOException {
+		String header = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n";
+		String first = BODY.substring(0, 20);
+		String second = BODY.substring(20);
+		mResponses.add(new byte[][] { //
+				ascii(header + Integer.toHexString(first.length()) + "\r\n" + first.substring(0, 7)), //
+				ascii(first.substring(7) + "\r\n" + Integer.toHexString(second.length())), //
+				ascii("\r\n" + second + "\r\n0\r\n"), //
+				ascii("X-Trailer: 1\r\n\r\n") });
+
+		try (HttpEngine.Response response = mClient.get(url(), null)) {
+			assertEquals(200, response.getCode());
+			assertEquals(BODY, new String(response.getBody(), 0, response.getLength(), "UTF-8"));
+		}
+	}
+
+	@Test
+	public void gzippedBodyIsDecompressed() throws IOException {
+		byte[] gzipped = gzip(BODY);
+		mResponses.add(new byte[][] { ascii("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nContent-Length: " + gzipped.length + "\r\n\r\n"), gzipped });
+
+		try (HttpEngine.Response response = mClient.get(url(), null)) {
+			assertEquals(BODY, new String(response.getBody(), 0, response.getLength(), "UTF-8"));
+			assertEquals(gzipped.length, response.getWireLength());
+		}
+	}
+
+	@Test
+	public void corruptGzipFailsTheRequest() throws IOException {
+		mResponses.add(new byte[][] { ascii("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nContent-Length: 8\r\n\r\nnot gzip") });
+
+		try {
+			mClient.get(url(), null).close();
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, mClient.getInFlight());
+	}
+
+	@Test
+	public void asynchronousGetDoesNotBlockTheCaller() throws Exception {
+		final int requests = 20;
+		for (int i = 0; i < requests; i++) {
+			mResponses.add(new byte[][] { ascii("HTTP/1.1 200 OK\r\nContent-Length: " + BODY.length() + "\r\n\r\n" + BODY) });
+		}
+		final CountDownLatch done = new CountDownLatch(requests);
+		final List<Integer> codes = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			mClient.get(url(), null, new NioHttpClient.Callback() {
+				@Override
+				public void onResponse(HttpEngine.Response response) {
+					codes.add(response.getCode());
+					response.close();
+					done.countDown();
+				}
+
+				@Override
+				public void onFailure(IOException e) {
+					done.countDown();
+				}
+			});
+		}
+		done.await(10, TimeUnit.SECONDS);
+		assertEquals(requests, codes.size());
+		assertEquals(0, mClient.getInFlight());
+	}
+
+	private URL url() throws IOException {
+		return new URL("http://127.0.0.1:" + mServer.getLocalPort() + "/data/2.5/weather?id=2643743");
+	}
+
+	/**
+	 * Answer each request with the next scripted response, on a connection of its own.
+	 */
+	private void serve() {
+		int next = 0;
+		while (!mServer.isClosed()) {
+			try (Socket socket = mServer.accept()) {
+				readRequest(socket.getInputStream());
+				OutputStream out = socket.getOutputStream();
+				for (byte[] piece : mResponses.get(next++)) {
+					out.write(piece);
+					out.flush();
+					Thread.sleep(5);
+				}
+			} catch (IOException | InterruptedException | IndexOutOfBoundsException e) {
+				return;
+			}
+		}
+	}
+
+	private static void readRequest(InputStream in) throws IOException {
+		int matched = 0;
+		int b;
+		while (matched < 4 && (b = in.read()) != -1) {
+			matched = (b == '\r' || b == '\n') && (matched % 2 == 0) == (b == '\r') ? matched + 1 : (b == '\r' ? 1 : 0);
+		}
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(java.nio.charset.Charset.forName("US-ASCII"));
+	}
+
+	private static byte[] gzip(String s) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(s.getBytes("UTF-8"));
+		}
+		return bytes.toByteArray();
+	}
+}
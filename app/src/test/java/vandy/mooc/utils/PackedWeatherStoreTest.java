@@ -0,0 +1,98 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+
+public class PackedWeatherStoreTest {
+	private final PackedWeatherStore mStore = new PackedWeatherStore(4);
+
+	@Test
+	public void entryRoundTrips() {
+		WeatherData data = new WeatherData("London", "04n", 4.1, 80, 12.5, 1012, 81, 1431403200L, 1431459600L);
+		assertTrue(mStore.put("#2643743", new CacheEntry(1431435983000L, data, 240000, 1431435600L, "\"abc\"", "Tue, 12 May 2015 13:06:23 GMT", 512)));
+
+		CacheEntry entry = mStore.get("#2643743");
+
+		assertEquals(1431435983000L, entry.getTimestamp());
+		assertEquals(240000, entry.getTtl());
+		assertEquals(1431435600L, entry.getObserved());
+		assertEquals("\"abc\"", entry.getETag());
+		assertEquals("Tue, 12 May 2015 13:06:23 GMT", entry.getLastModified());
+		assertEquals(512, entry.getBodySize());
+		WeatherData read = entry.getData();
+		assertEquals("London", read.mName);
+		assertEquals("04n", read.mIcon);
+		assertEquals(4.1, read.mSpeed, 0);
+		assertEquals(80, read.mDeg, 0);
+		assertEquals(12.5, read.mTemp, 0);
+		assertEquals(1012, read.mPressure, 0);
+		assertEquals(81, read.mHumidity);
+		assertEquals(1431403200L, read.mSunrise);
+		assertEquals(1431459600L, read.mSunset);
+	}
+
+	@Test
+	public void onlyCityIdKeysAreStored() {
+		assertFalse(mStore.put("london", entry("London")));
+		assertNull(mStore.get("london"));
+		assertEquals(0, mStore.size());
+	}
+
+	@Test
+	public void replacingReleasesInternedStrings() {
+		mStore.put("#2643743", entry("London"));
+		mStore.put("#2643743", entry("Londres"));
+
+		assertEquals("Londres", mStore.get("#2643743").getData().mName);
+		assertEquals(1, mStore.size());
+		// The new name and the shared icon code.
+		assertEquals(2, mStore.internedStrings());
+	}
+
+	@Test
+	public void fullStoreReplacesUnreferencedEntry() {
+		for (int id = 1; id <= 4; id++) {
+			mStore.put("#" + id, entry("City " + id));
+		}
+		// The first put sweeps every reference bit, then reuses the first slot; reading city 2 again spares it
+		// from the next sweep.
+		mStore.put("#5", entry("City 5"));
+		mStore.get("#2");
+		mStore.put("#6", entry("City 6"));
+
+		assertEquals(4, mStore.size());
+		assertNull(mStore.get("#1"));
+		assertNotNull(mStore.get("#2"));
+		assertNull(mStore.get("#3"));
+		assertNotNull(mStore.get("#5"));
+		assertNotNull(mStore.get("#6"));
+	}
+
+	@Test
+	public void removedAndClearedEntriesAreGone() {
+		mStore.put("#1", entry("City 1"));
+		mStore.put("#2", entry("City 2"));
+
+		mStore.remove("#1");
+		assertNull(mStore.get("#1"));
+		assertNotNull(mStore.get("#2"));
+
+		mStore.clear();
+		assertNull(mStore.get("#2"));
+		assertEquals(0, mStore.size());
+		assertEquals(0, mStore.internedStrings());
+		mStore.put("#3", entry("City 3"));
+		assertEquals("City 3", mStore.get("#3").getData().mName);
+	}
+
+	private static CacheEntry entry(String name) {
+		return new CacheEntry(1431435983000L, WeatherCacheTest.data(name));
+	}
+}
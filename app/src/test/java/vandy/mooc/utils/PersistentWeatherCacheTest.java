@@ -0,0 +1,153 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentWeatherCacheTest {
+	private static final int CAPACITY = 64 * 1024;
+	private static final long MAX_AGE = 60000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private final FakeClock mClock = new FakeClock(1431435983000L);
+	private File mFile;
+	private PersistentWeatherCache mCache;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = new File(mFolder.getRoot(), "weather.cache");
+		mCache = PersistentWeatherCache.open(mFile, CAPACITY, MAX_AGE, mClock);
+	}
+
+	@After
+	public void tearDown() {
+		mCache.close();
+	}
+
+	@Test
+	public void entriesSurviveReopening() throws IOException {
+		mCache.put("#2643743", entry("London"));
+		mCache.put("#2988507", entry("Paris"));
+		mCache.close();
+
+		mCache = PersistentWeatherCache.open(mFile, CAPACITY, MAX_AGE, mClock);
+
+		assertEquals(2, mCache.size());
+		assertEquals("London", mCache.get("#2643743").getData().mName);
+		assertEquals("Paris", mCache.get("#2988507").getData().mName);
+	}
+
+	@Test
+	public void newestRecordWins() throws IOException {
+		mCache.put("#2643743", entry("London"));
+		mCache.put("#2643743", entry("London, updated"));
+		mCache.close();
+
+		mCache = PersistentWeatherCache.open(mFile, CAPACITY, MAX_AGE, mClock);
+
+		assertEquals("London, updated", mCache.get("#2643743").getData().mName);
+	}
+
+	@Test
+	public void unreadableFileStartsOver() throws IOException {
+		mCache.close();
+		try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+			raf.writeInt(0xdeadbeef);
+		}
+
+		mCache = PersistentWeatherCache.open(mFile, CAPACITY, MAX_AGE, mClock);
+
+		assertEquals(0, mCache.size());
+		assertEquals(CAPACITY, mFile.length());
+		mCache.put("#2643743", entry("London"));
+		assertNotNull(mCache.get("#2643743"));
+	}
+
+	@Test
+	public void compactionDropsExpiredAndSupersededRecords() throws IOException {
+		mCache.put("#2643743", entry("London"));
+		mClock.advance(MAX_AGE);
+		mCache.put("#2988507", entry("Paris"));
+		mCache.put("#2988507", entry("Paris, updated"));
+		mClock.advance(1);
+
+		mCache.compact();
+
+		assertEquals(1, mCache.size());
+		assertNull(mCache.get("#2643743"));
+		assertEquals("Paris, updated", mCache.get("#2988507").getData().mName);
+	}
+
+	@Test
+	public void rewritesKeepBeingPersistedThroughBackgroundCompactions() throws Exception {
+		// Many times the capacity of the file, over four locations, so it fills with superseded records.
+		for (int i = 0; i < 20000; i++) {
+			mCache.put("#" + (i % 4), entry("City " + i));
+		}
+		// Puts made while a compaction is running can be dropped for lack of room, but not once it has finished.
+		long deadline = System.currentTimeMillis() + 5000;
+		boolean persisted = false;
+		while (!persisted && System.currentTimeMillis() < deadline) {
+			persisted = true;
+			for (int i = 0; i < 4; i++) {
+				mCache.put("#" + i, entry("Final " + i));
+				persisted &= ("Final " + i).equals(mCache.get("#" + i).getData().mName);
+			}
+			Thread.sleep(10);
+		}
+		mCache.close();
+
+		mCache = PersistentWeatherCache.open(mFile, CAPACITY, MAX_AGE, mClock);
+
+		assertEquals(4, mCache.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals("Final " + i, mCache.get("#" + i).getData().mName);
+		}
+	}
+
+	@Test
+	public void aliasesSurviveReopening() throws IOException {
+		mCache.put("#2643743", entry("London"));
+		mCache.putAlias("london", "#2643743");
+		mCache.putAlias("london,gb", "#2643743");
+		mCache.close();
+
+		mCache = PersistentWeatherCache.open(mFile, CAPACITY, MAX_AGE, mClock);
+
+		assertEquals("#2643743", mCache.getAlias("london"));
+		assertEquals("#2643743", mCache.getAlias("london,gb"));
+		assertNull(mCache.getAlias("paris"));
+		assertEquals(1, mCache.size());
+	}
+
+	@Test
+	public void compactionKeepsOnlyAliasesOfKeptEntries() throws IOException {
+		mCache.put("#2643743", entry("London"));
+		mCache.putAlias("london", "#2643743");
+		mClock.advance(MAX_AGE);
+		mCache.put("#2988507", entry("Paris"));
+		mCache.putAlias("paris", "#2988507");
+		mClock.advance(1);
+
+		mCache.compact();
+
+		assertNull(mCache.getAlias("london"));
+		assertEquals("#2988507", mCache.getAlias("paris"));
+	}
+
+	private CacheEntry entry(String name) {
+		return new CacheEntry(mClock.currentTimeMillis(), WeatherCacheTest.data(name), 0, 1431435600L, "\"etag\"", null, 512);
+	}
+}
@@ -0,0 +1,65 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+
+public class PrefetcherTest {
+	private static final long TTL = 30000;
+	private static final long LEAD_TIME = 2000;
+
+	private final FakeClock mClock = new FakeClock(1431435983000L);
+	private final WeatherCache mCache = new WeatherCache(100, TTL, 0, mClock);
+	private final List<String> mRefreshed = new ArrayList<>();
+
+	/**
+	 * Records the refreshes asked for and never completes them, like a prefetch that fails.
+	 */
+	private final Prefetcher mPrefetcher = new Prefetcher(mCache, 1, LEAD_TIME, 100, mClock, new Prefetcher.Loader() {
+		@Override
+		public void refresh(String query, String key) {
+			mRefreshed.add(key);
+		}
+	});
+
+	@Test
+	public void lostPrefetchIsRetried() {
+		mCache.put("#2643743", data("London"));
+		mPrefetcher.recordAccess("london", "#2643743");
+		mClock.advance(TTL - LEAD_TIME);
+
+		mPrefetcher.tick();
+		mPrefetcher.tick();
+		assertEquals(1, mRefreshed.size());
+
+		mClock.advance(Prefetcher.RETRY_DELAY);
+		mPrefetcher.tick();
+		assertEquals(2, mRefreshed.size());
+	}
+
+	@Test
+	public void lookupsBeforeTheAliasCountTowardsTheCity() {
+		mCache.put("#2643743", data("London"));
+		mCache.put("#2988507", data("Paris"));
+		mPrefetcher.recordAccess("london", "london");
+		mPrefetcher.recordAccess("london", "london");
+		mPrefetcher.recordAccess("2988507", "#2988507");
+		mPrefetcher.recordAccess("2988507", "#2988507");
+		mPrefetcher.recordAccess("2643743", "#2643743");
+
+		mPrefetcher.recordAlias("london", "#2643743");
+		mClock.advance(TTL - LEAD_TIME);
+		mPrefetcher.tick();
+
+		assertEquals("[#2643743]", mRefreshed.toString());
+	}
+
+	private static WeatherData data(String name) {
+		return new WeatherData(name, "04d", 4.1, 230, 12.5, 1012, 81, 1431405600L, 1431461400L);
+	}
+}
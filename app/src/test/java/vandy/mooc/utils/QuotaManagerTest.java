@@ -0,0 +1,53 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QuotaManagerTest {
+	private final FakeClock mClock = new FakeClock(1431435983000L);
+	private final QuotaManager mQuota = new QuotaManager(60, 0.25, 0, mClock);
+
+	@Test
+	public void backgroundWorkLeavesTheReserve() {
+		int background = 0;
+		while (mQuota.acquire(FetchPriority.BACKGROUND)) {
+			background++;
+		}
+		assertEquals(45, background);
+
+		int interactive = 0;
+		while (mQuota.acquire(FetchPriority.INTERACTIVE)) {
+			interactive++;
+		}
+		assertEquals(15, interactive);
+
+		QuotaManager.Stats stats = mQuota.getStats();
+		assertEquals(45, stats.backgroundTokens);
+		assertEquals(15, stats.interactiveTokens);
+		assertEquals(1, stats.deferred);
+		assertEquals(1, stats.rejected);
+	}
+
+	@Test
+	public void priorityIsThatOfTheCallNotTheThread() {
+		for (int i = 0; i < 45; i++) {
+			assertTrue(mQuota.acquire(FetchPriority.BACKGROUND));
+		}
+		// The same thread makes an interactive call next, which may use the reserve.
+		assertTrue(mQuota.acquire(FetchPriority.INTERACTIVE));
+		assertFalse(mQuota.acquire(FetchPriority.BACKGROUND));
+	}
+
+	@Test
+	public void tokensRefillWithTime() {
+		while (mQuota.acquire(FetchPriority.INTERACTIVE)) {
+			// drain
+		}
+		mClock.advance(1000);
+		assertTrue(mQuota.acquire(FetchPriority.INTERACTIVE));
+		assertFalse(mQuota.acquire(FetchPriority.INTERACTIVE));
+	}
+}
@@ -0,0 +1,80 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RefresherTest {
+	private final Refresher mRefresher = new Refresher(1);
+	private final CountDownLatch mRelease = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		mRelease.countDown();
+	}
+
+	@Test
+	public void keyIsRefreshedOnceAtATime() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		assertTrue(mRefresher.schedule("#2643743", blocking(started)));
+		started.await(5, TimeUnit.SECONDS);
+
+		assertFalse(mRefresher.schedule("#2643743", blocking(null)));
+	}
+
+	@Test
+	public void cancelledRefreshesCanBeScheduledAgain() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		mRefresher.schedule("#2643743", blocking(started));
+		started.await(5, TimeUnit.SECONDS);
+		mRefresher.schedule("#2988507", blocking(null));
+		mRefresher.schedule("#5128581", blocking(null));
+
+		assertEquals(2, mRefresher.cancelPending());
+
+		// The running refresh is left alone, and the dropped ones are no longer pending.
+		assertFalse(mRefresher.schedule("#2643743", blocking(null)));
+		assertTrue(mRefresher.schedule("#2988507", blocking(null)));
+	}
+
+	@Test
+	public void asynchronousRefreshIsPendingUntilDone() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final Runnable[] done = new Runnable[1];
+		mRefresher.schedule("#2643743", new Refresher.AsyncRefresh() {
+			@Override
+			public void start(Runnable callback) {
+				done[0] = callback;
+				started.countDown();
+			}
+		});
+		started.await(5, TimeUnit.SECONDS);
+
+		// The refresh thread is free, but the key stays pending.
+		assertFalse(mRefresher.schedule("#2643743", blocking(null)));
+		done[0].run();
+		assertTrue(mRefresher.schedule("#2643743", blocking(null)));
+	}
+
+	private Runnable blocking(final CountDownLatch started) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				if (started != null) {
+					started.countDown();
+				}
+				try {
+					mRelease.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,154 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import vandy.mooc.jsonweather.JsonWeather;
+
+public class ResilientWeatherFetcherTest {
+	private static final int MAX_ATTEMPTS = 3;
+	private static final List<Long> IDS = Collections.singletonList(2643743L);
+
+	private final FakeClock mClock = new FakeClock(1431435983000L);
+
+	@Test
+	public void clientErrorsAreNotRetried() throws IOException {
+		FailingFetcher delegate = new FailingFetcher(404);
+		ResilientWeatherFetcher fetcher = new ResilientWeatherFetcher(delegate, new CircuitBreaker(1, 30000, mClock), MAX_ATTEMPTS, 0, 0);
+
+		assertStatus(404, fetcher);
+		assertEquals(1, delegate.mCalls);
+		// The provider answered, so the breaker stays closed.
+		assertStatus(404, fetcher);
+		assertEquals(CircuitBreaker.State.CLOSED, fetcher.getStats().breakerState);
+	}
+
+	@Test
+	public void serverErrorsAndTooManyRequestsAreRetried() throws IOException {
+		FailingFetcher delegate = new FailingFetcher(503);
+		assertStatus(503, new ResilientWeatherFetcher(delegate, new CircuitBreaker(10, 30000, mClock), MAX_ATTEMPTS, 0, 0));
+		assertEquals(MAX_ATTEMPTS, delegate.mCalls);
+
+		delegate = new FailingFetcher(429);
+		assertStatus(429, new ResilientWeatherFetcher(delegate, new CircuitBreaker(10, 30000, mClock), MAX_ATTEMPTS, 0, 0));
+		assertEquals(MAX_ATTEMPTS, delegate.mCalls);
+	}
+
+	@Test
+	public void asynchronousFetchesAreRetriedLikeBlockingOnes() throws Exception {
+		FailingFetcher delegate = new FailingFetcher(503);
+		ResilientWeatherFetcher fetcher = new ResilientWeatherFetcher(delegate, new CircuitBreaker(10, 30000, mClock), MAX_ATTEMPTS, 1, 1);
+		assertEquals(503, awaitFailure(fetcher).getStatus());
+		assertEquals(MAX_ATTEMPTS, delegate.mCalls);
+		assertEquals(MAX_ATTEMPTS - 1, fetcher.getStats().retries);
+
+		delegate = new FailingFetcher(401);
+		fetcher = new ResilientWeatherFetcher(delegate, new CircuitBreaker(10, 30000, mClock), MAX_ATTEMPTS, 1, 1);
+		assertEquals(401, awaitFailure(fetcher).getStatus());
+		assertEquals(1, delegate.mCalls);
+	}
+
+	@Test
+	public void shedFetchesSpendNoQuota() throws IOException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, 2, 0, 0, mClock);
+		QuotaManager quota = new QuotaManager(60, 0, 0, mClock);
+		WeatherFetcher fetcher = new LimitedWeatherFetcher(new QuotaWeatherFetcher(new FailingFetcher(404), quota), limiter);
+
+		AdaptiveLimiter.Permit busy = limiter.acquire();
+		try {
+			fetcher.fetchGroup(IDS, FetchPriority.INTERACTIVE);
+			fail();
+		} catch (FetchRejectedException e) {
+			// shed
+		}
+		busy.release(true);
+
+		assertEquals(60, quota.getStats().availableTokens);
+	}
+
+	@Test
+	public void fetchesTurnedAwayByTheQuotaLeaveTheLimitAlone() throws IOException {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 10, 2, 0, 0, mClock);
+		QuotaManager quota = new QuotaManager(1, 0, 0, mClock);
+		WeatherFetcher fetcher = new LimitedWeatherFetcher(new QuotaWeatherFetcher(new FailingFetcher(404), quota), limiter);
+
+		for (int i = 0; i < 5; i++) {
+			try {
+				fetcher.fetchGroup(IDS, FetchPriority.INTERACTIVE);
+				fail();
+			} catch (IOException e) {
+				// 404 for the first, over the quota for the others
+			}
+		}
+
+		assertEquals(10, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	private static void assertStatus(int status, WeatherFetcher fetcher) throws IOException {
+		try {
+			fetcher.fetchGroup(IDS, FetchPriority.INTERACTIVE);
+			fail();
+		} catch (HttpStatusException e) {
+			assertEquals(status, e.getStatus());
+		}
+	}
+
+	private static HttpStatusException awaitFailure(WeatherFetcher fetcher) throws InterruptedException {
+		final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+		fetcher.fetchAsync("2643743", null, FetchPriority.BACKGROUND, new WeatherFetcher.Callback() {
+			@Override
+			public void onResult(WeatherFetcher.Result result) {
+				failures.add(new IOException("unexpected result"));
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				failures.add(e);
+			}
+		});
+		return (HttpStatusException) failures.poll(5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * A provider answering every request with an error status.
+	 */
+	private static class FailingFetcher implements WeatherFetcher {
+		private final int mStatus;
+		private volatile int mCalls;
+
+		FailingFetcher(int status) {
+			mStatus = status;
+		}
+
+		@Override
+		public Result fetch(String query, CacheEntry previous, FetchPriority priority) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void fetchAsync(String query, CacheEntry previous, FetchPriority priority, Callback callback) {
+			mCalls++;
+			callback.onFailure(new HttpStatusException("Request failed with status " + mStatus, mStatus));
+		}
+
+		@Override
+		public List<JsonWeather> fetchGroup(List<Long> ids, FetchPriority priority) throws IOException {
+			mCalls++;
+			throw new HttpStatusException("Batch request failed with status " + mStatus, mStatus);
+		}
+
+		@Override
+		public void warmUp() {
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+	private static final int THREADS = 8;
+
+	private final SingleFlight<String, Object> mSingleFlight = new SingleFlight<>();
+	private final List<Thread> mThreads = new CopyOnWriteArrayList<>();
+	private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			mThreads.add(thread);
+			return thread;
+		}
+	});
+
+	@After
+	public void tearDown() {
+		mExecutor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentCallersForOneKeyShareOneLoad() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Object value = new Object();
+		final Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				loads.incrementAndGet();
+				release.await();
+				return value;
+			}
+		};
+
+		final CountDownLatch started = new CountDownLatch(THREADS);
+		List<Future<Object>> results = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			results.add(mExecutor.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					started.countDown();
+					return mSingleFlight.execute("london", loader);
+				}
+			}));
+		}
+		// Let every caller reach the load in progress before it finishes: the loader waits for the release and the
+		// others for the loader.
+		started.await();
+		awaitAllWaiting();
+		release.countDown();
+
+		for (Future<Object> result : results) {
+			assertSame(value, result.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, loads.get());
+		assertEquals(0, mSingleFlight.inFlight());
+	}
+
+	@Test
+	public void loadsOfDifferentKeysDoNotWaitOnEachOther() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		Future<Object> blocked = mExecutor.submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return mSingleFlight.execute("london", new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						release.await();
+						return "london";
+					}
+				});
+			}
+		});
+		awaitInFlight(1);
+
+		assertEquals("paris", mSingleFlight.execute("paris", constant("paris")));
+
+		release.countDown();
+		assertEquals("london", blocked.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void completedLoadsAreNotReused() {
+		assertEquals("first", mSingleFlight.execute("london", constant("first")));
+		assertEquals("second", mSingleFlight.execute("london", constant("second")));
+		assertEquals(0, mSingleFlight.inFlight());
+	}
+
+	@Test
+	public void loaderExceptionsReachTheCaller() {
+		try {
+			mSingleFlight.execute("london", new Callable<Object>() {
+				@Override
+				public Object call() {
+					throw new IllegalArgumentException("city not found");
+				}
+			});
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("city not found", e.getMessage());
+		}
+		// A failed load does not stay in flight.
+		assertEquals("london", mSingleFlight.execute("london", constant("london")));
+	}
+
+	@Test
+	public void loadCompletedByItsOwnerIsSharedWithBlockingCallers() throws Exception {
+		SingleFlight<String, Object>.Flight flight = mSingleFlight.begin("london");
+		assertNull(mSingleFlight.begin("london"));
+
+		Future<Object> joined = mExecutor.submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return mSingleFlight.execute("london", constant("loaded again"));
+			}
+		});
+		awaitAllWaiting();
+		flight.complete("london");
+
+		assertEquals("london", joined.get(5, TimeUnit.SECONDS));
+		assertEquals(0, mSingleFlight.inFlight());
+	}
+
+	@Test
+	public void awaitReturnsOnceTheLoadInProgressEnds() throws Exception {
+		final SingleFlight<String, Object>.Flight flight = mSingleFlight.begin("london");
+		Future<?> waiting = mExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				mSingleFlight.await("london");
+			}
+		});
+		awaitAllWaiting();
+		assertFalse(waiting.isDone());
+
+		flight.complete(null);
+		waiting.get(5, TimeUnit.SECONDS);
+		// Nothing in progress, so nothing to wait for.
+		mSingleFlight.await("paris");
+	}
+
+	private static Callable<Object> constant(final Object value) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() {
+				return value;
+			}
+		};
+	}
+
+	private void awaitAllWaiting() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		for (Thread thread : mThreads) {
+			while (thread.getState() != Thread.State.WAITING) {
+				if (System.currentTimeMillis() > deadline) {
+					fail(thread + " is " + thread.getState());
+				}
+				Thread.sleep(1);
+			}
+		}
+	}
+
+	private void awaitInFlight(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (mSingleFlight.inFlight() != count) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("loads in flight: " + mSingleFlight.inFlight());
+			}
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package vandy.mooc.utils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HttpEngine answering every request with the same status and body.
+ */
+public class StubHttpEngine implements HttpEngine {
+	private final int mStatus;
+	private final byte[] mBody;
+	private final AtomicInteger mRequests = new AtomicInteger();
+
+	public StubHttpEngine(int status, String body) {
+		mStatus = status;
+		mBody = body.getBytes(Charset.forName("UTF-8"));
+	}
+
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException {
+		mRequests.incrementAndGet();
+		Map<String, List<String>> none = Collections.emptyMap();
+		return new Response(mStatus, none, mBody, mBody.length, mBody.length);
+	}
+
+	/**
+	 * @return The number of requests answered.
+	 */
+	public int getRequestCount() {
+		return mRequests.get();
+	}
+}
@@ -0,0 +1,153 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+
+public class WeatherCacheConcurrencyTest {
+	private static final int THREADS = 8;
+	private static final int READS_PER_THREAD = 20000;
+	private static final int WRITES_PER_THREAD = 1000;
+	private static final long TTL = 60000;
+
+	private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS);
+
+	@After
+	public void tearDown() {
+		mExecutor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentHitsReturnTheSharedEntry() throws Exception {
+		final WeatherCache cache = new WeatherCache(16, TTL);
+		final CacheEntry entry = new CacheEntry(System.currentTimeMillis(), data("London"));
+		cache.put("#2643743", entry);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			results.add(mExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					start.await();
+					int same = 0;
+					for (int j = 0; j < READS_PER_THREAD; j++) {
+						if (cache.get("#2643743") == entry) {
+							same++;
+						}
+					}
+					return same;
+				}
+			}));
+		}
+		start.countDown();
+
+		for (Future<Integer> result : results) {
+			assertEquals(READS_PER_THREAD, result.get(30, TimeUnit.SECONDS).intValue());
+		}
+		WeatherCache.Stats stats = cache.getStats();
+		assertEquals(THREADS * READS_PER_THREAD, stats.hits);
+		assertEquals(0, stats.misses);
+		assertEquals(1, stats.size);
+	}
+
+	@Test
+	public void purgeKeepsEntriesReplacedWhileItRuns() throws Exception {
+		final int keys = 1000;
+		final WeatherCache cache = new WeatherCache(keys, TTL);
+		final CacheEntry expired = new CacheEntry(System.currentTimeMillis() - 2 * TTL, data("London"));
+		final CacheEntry fresh = new CacheEntry(System.currentTimeMillis(), data("London"));
+
+		for (int round = 0; round < 200; round++) {
+			for (int i = 0; i < keys; i++) {
+				cache.put("#" + i, expired);
+			}
+			final CountDownLatch start = new CountDownLatch(1);
+			Future<?> purger = mExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					cache.purgeExpired();
+					return null;
+				}
+			});
+			start.countDown();
+			for (int i = 0; i < keys; i++) {
+				cache.put("#" + i, fresh);
+			}
+			purger.get();
+
+			// The purge may have removed expired entries, but never one replaced after it looked at it.
+			for (int i = 0; i < keys; i++) {
+				assertSame("#" + i, fresh, cache.peek("#" + i));
+			}
+		}
+	}
+
+	@Test
+	public void hitsAreUnaffectedByConcurrentWritesOfOtherKeys() throws Exception {
+		final int capacity = THREADS / 2 * WRITES_PER_THREAD + 1;
+		final WeatherCache cache = new WeatherCache(capacity, TTL);
+		final CacheEntry hot = new CacheEntry(System.currentTimeMillis(), data("London"));
+		cache.put("#2643743", hot);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> readers = new ArrayList<>();
+		for (int i = 0; i < THREADS / 2; i++) {
+			readers.add(mExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					start.await();
+					int same = 0;
+					for (int j = 0; j < READS_PER_THREAD; j++) {
+						if (cache.get("#2643743") == hot) {
+							same++;
+						}
+					}
+					return same;
+				}
+			}));
+		}
+		List<Future<?>> writers = new ArrayList<>();
+		for (int i = 0; i < THREADS / 2; i++) {
+			final int writer = i;
+			writers.add(mExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					for (int j = 0; j < WRITES_PER_THREAD; j++) {
+						cache.put("#" + (writer * WRITES_PER_THREAD + j), data("City " + j));
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+
+		for (Future<Integer> reader : readers) {
+			assertEquals(READS_PER_THREAD, reader.get(30, TimeUnit.SECONDS).intValue());
+		}
+		for (Future<?> writer : writers) {
+			writer.get(30, TimeUnit.SECONDS);
+		}
+		assertEquals(capacity, cache.size());
+		assertEquals(THREADS / 2 * READS_PER_THREAD, cache.getStats().hits);
+	}
+
+	private static WeatherData data(String name) {
+		return new WeatherData(name, "01d", 4.1, 80, 12.5, 1012, 81, 1431403200L, 1431459600L);
+	}
+}
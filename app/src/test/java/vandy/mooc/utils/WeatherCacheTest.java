@@ -0,0 +1,222 @@
+package vandy.mooc.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import vandy.mooc.aidl.WeatherData;
+
+public class WeatherCacheTest {
+	private static final long START = 1431435983000L;
+	private static final long TTL = 10000;
+	private static final long MAX_STALE = 60000;
+
+	private final FakeClock mClock = new FakeClock(START);
+	private final WeatherCache mCache = new WeatherCache(16, TTL, MAX_STALE, mClock);
+
+	@Test
+	public void freshEntryCountsAsHit() {
+		mCache.put("#2643743", data("London"));
+
+		mCache.get("#2643743");
+
+		assertStats(1, 0, 0);
+	}
+
+	@Test
+	public void absentEntryCountsAsMiss() {
+		assertNull(mCache.get("#2643743"));
+		assertNull(mCache.getAllowStale("#2643743"));
+
+		assertStats(0, 2, 0);
+	}
+
+	@Test
+	public void staleEntryCountsAsStaleHitOnlyWhenServed() {
+		mCache.put("#2643743", data("London"));
+		mClock.advance(TTL + 1);
+
+		assertNull(mCache.get("#2643743"));
+		assertStats(0, 1, 0);
+
+		CacheEntry entry = mCache.getAllowStale("#2643743");
+		assertEquals("London", entry.getData().mName);
+		assertStats(0, 1, 1);
+	}
+
+	@Test
+	public void entryPastStaleWindowCountsAsMissAndExpires() {
+		mCache.put("#2643743", data("London"));
+		mClock.advance(TTL + MAX_STALE + 1);
+
+		assertNull(mCache.getAllowStale("#2643743"));
+
+		assertStats(0, 1, 0);
+		assertEquals(1, mCache.getStats().expirations);
+		assertEquals(0, mCache.size());
+	}
+
+	@Test
+	public void peekCountsNothing() {
+		mCache.put("#2643743", data("London"));
+		mCache.peek("#2643743");
+		mCache.peek("#2988507");
+
+		assertStats(0, 0, 0);
+	}
+
+	@Test
+	public void entryStaysFreshForItsTtl() {
+		mCache.put("#2643743", data("London"));
+
+		mClock.advance(TTL);
+		assertEquals("London", mCache.get("#2643743").getData().mName);
+
+		mClock.advance(1);
+		assertNull(mCache.get("#2643743"));
+	}
+
+	@Test
+	public void entryTtlOverridesDefault() {
+		mCache.put("#2643743", new CacheEntry(START, data("London"), 3 * TTL, 0, null, null, 0));
+
+		mClock.advance(2 * TTL);
+		CacheEntry entry = mCache.get("#2643743");
+		assertEquals(3 * TTL, mCache.getTtl(entry));
+		assertTrue(mCache.isFresh(entry));
+
+		mClock.advance(TTL + 1);
+		assertNull(mCache.get("#2643743"));
+	}
+
+	@Test
+	public void staleEntryIsServedUntilEndOfStaleWindow() {
+		mCache.put("#2643743", data("London"));
+
+		mClock.advance(TTL + MAX_STALE);
+		CacheEntry entry = mCache.getAllowStale("#2643743");
+		assertFalse(mCache.isFresh(entry));
+		assertTrue(mCache.isServable(entry));
+		assertEquals(TTL + MAX_STALE, mCache.getAge(entry));
+
+		mClock.advance(1);
+		assertFalse(mCache.isServable(entry));
+		assertNull(mCache.getAllowStale("#2643743"));
+		assertNull(mCache.peek("#2643743"));
+	}
+
+	@Test
+	public void withoutStaleWindowEntryExpiresAtTtl() {
+		WeatherCache cache = new WeatherCache(16, TTL, 0, mClock);
+		cache.put("#2643743", data("London"));
+
+		mClock.advance(TTL + 1);
+
+		assertNull(cache.getAllowStale("#2643743"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void purgeRemovesOnlyEntriesPastStaleWindow() {
+		mCache.put("#2643743", data("London"));
+		mClock.advance(MAX_STALE);
+		mCache.put("#2988507", data("Paris"));
+		mClock.advance(TTL + 1);
+
+		mCache.purgeExpired();
+
+		assertNull(mCache.peek("#2643743"));
+		assertNotNull(mCache.peek("#2988507"));
+		assertEquals(1, mCache.getStats().expirations);
+	}
+
+	@Test
+	public void entryIsDueForRefreshAheadOfExpiry() {
+		mCache.put("#2643743", data("London"));
+		CacheEntry entry = mCache.peek("#2643743");
+
+		mClock.advance(7999);
+		assertFalse(mCache.isDueForRefresh(entry, 0.8));
+
+		mClock.advance(1);
+		assertTrue(mCache.isDueForRefresh(entry, 0.8));
+		assertTrue(mCache.isFresh(entry));
+	}
+
+	@Test
+	public void refreshAheadFollowsEntryTtl() {
+		CacheEntry entry = new CacheEntry(START, data("London"), 10 * TTL, 0, null, null, 0);
+		mCache.put("#2643743", entry);
+
+		mClock.advance(TTL);
+		assertFalse(mCache.isDueForRefresh(entry, 0.8));
+
+		mClock.advance(7 * TTL);
+		assertTrue(mCache.isDueForRefresh(entry, 0.8));
+	}
+
+	@Test
+	public void evictedEntriesAreServedFromOverflow() {
+		WeatherCache cache = new WeatherCache(2, TTL, MAX_STALE, mClock);
+		cache.setOverflow(new PackedWeatherStore(16));
+		cache.put("#1", data("City 1"));
+		cache.put("#2", data("City 2"));
+		cache.put("#3", data("City 3"));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getStats().overflowSize);
+		for (int id = 1; id <= 3; id++) {
+			assertEquals("City " + id, cache.get("#" + id).getData().mName);
+		}
+		assertStats(cache, 3, 0, 0);
+	}
+
+	@Test
+	public void overflowEntriesExpireLikeCachedOnes() {
+		WeatherCache cache = new WeatherCache(1, TTL, MAX_STALE, mClock);
+		cache.setOverflow(new PackedWeatherStore(16));
+		cache.put("#1", data("City 1"));
+		cache.put("#2", data("City 2"));
+
+		mClock.advance(TTL + 1);
+		assertNull(cache.get("#1"));
+		assertNotNull(cache.getAllowStale("#1"));
+
+		mClock.advance(MAX_STALE);
+		assertNull(cache.getAllowStale("#1"));
+		assertEquals(0, cache.getStats().overflowSize);
+	}
+
+	@Test
+	public void writesReplaceOverflowEntries() {
+		WeatherCache cache = new WeatherCache(1, TTL, MAX_STALE, mClock);
+		cache.setOverflow(new PackedWeatherStore(16));
+		cache.put("#1", data("City 1"));
+		cache.put("#2", data("City 2"));
+
+		cache.put("#1", data("City 1, updated"));
+		assertEquals("City 1, updated", cache.peek("#1").getData().mName);
+
+		cache.remove("#2");
+		assertNull(cache.peek("#2"));
+	}
+
+	private void assertStats(long hits, long misses, long staleHits) {
+		assertStats(mCache, hits, misses, staleHits);
+	}
+
+	private static void assertStats(WeatherCache cache, long hits, long misses, long staleHits) {
+		WeatherCache.Stats stats = cache.getStats();
+		assertEquals("hits", hits, stats.hits);
+		assertEquals("misses", misses, stats.misses);
+		assertEquals("stale hits", staleHits, stats.staleHits);
+	}
+
+	static WeatherData data(String name) {
+		return new WeatherData(name, "01d", 4.1, 80, 12.5, 1012, 81, 1431403200L, 1431459600L);
+	}
+}
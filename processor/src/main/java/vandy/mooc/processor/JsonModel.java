@@ -0,0 +1,15 @@
+package vandy.mooc.processor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a POJO whose Json parser is generated at compile time by the JsonModelProcessor. Each String constant of the
+ * class named like name_JSON holds the key of a Json field, which is stored through the setter setName().
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+}
@@ -0,0 +1,372 @@
+package vandy.mooc.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a parser for each class annotated with @JsonModel. The parser of a class Foo is the class FooParser in the
+ * same package, with the methods
+ *
+ * public static Foo parse(JsonReader reader)
+ * public static List<Foo> parseList(JsonReader reader)
+ *
+ * that read a Json object, or an array of them, through android.util.JsonReader without reflection.
+ *
+ * The fields parsed are the String constants of Foo named like name_JSON, each read with the setter setName(). The
+ * type of the setter's parameter picks how the value is read: double, long, int, boolean and String values are read
+ * with the matching JsonReader method, and objects and Lists of other @JsonModel classes with their generated parsers.
+ * Unknown keys are skipped. Keys are dispatched on their length first, so at most a few of them are compared.
+ *
+ * If Foo has a method public static Foo obtain(), the parser takes its objects from it rather than constructing them,
+ * so they can be recycled. A List whose getter already returns one is cleared and refilled instead of replaced. If Foo
+ * also has a method void recycle(), a parse that fails recycles the objects it has obtained so far, as nothing else
+ * holds them.
+ */
+@SupportedAnnotationTypes("vandy.mooc.processor.JsonModel")
+public class JsonModelProcessor extends AbstractProcessor {
+	/**
+	 * Suffix of the names of constants holding Json keys.
+	 */
+	private static final String KEY_SUFFIX = "_JSON";
+
+	/**
+	 * Suffix of the names of generated parsers.
+	 */
+	private static final String PARSER_SUFFIX = "Parser";
+
+	/**
+	 * A Json field of a model: the constant holding its key, the key itself, its setter, and the expression reading
+	 * its value.
+	 */
+	private static class Field {
+		final String mConstant;
+		final String mKey;
+		final String mSetter;
+		final String mReader;
+
+		Field(String constant, String key, String setter, String reader) {
+			mConstant = constant;
+			mKey = key;
+			mSetter = setter;
+			mReader = reader;
+		}
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(JsonModel.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@JsonModel only applies to classes");
+				continue;
+			}
+			TypeElement model = (TypeElement) element;
+			List<Field> fields = collectFields(model);
+			if (fields == null) {
+				continue;
+			}
+			try {
+				writeParser(model, fields);
+			} catch (IOException e) {
+				error(model, "Could not write the parser of " + model.getSimpleName() + ": " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The Json fields of @a model, or null if any of them is in error, which has then been reported.
+	 */
+	private List<Field> collectFields(TypeElement model) {
+		List<Field> fields = new ArrayList<>();
+		Set<String> keys = new HashSet<>();
+		boolean valid = true;
+		for (Element member : model.getEnclosedElements()) {
+			if (member.getKind() != ElementKind.FIELD || !member.getSimpleName().toString().endsWith(KEY_SUFFIX)) {
+				continue;
+			}
+			VariableElement constant = (VariableElement) member;
+			String constantName = constant.getSimpleName().toString();
+			if (!constant.getModifiers().contains(Modifier.STATIC) || !(constant.getConstantValue() instanceof String)) {
+				error(constant, constantName + " must be a String constant");
+				valid = false;
+				continue;
+			}
+			String key = (String) constant.getConstantValue();
+			if (!keys.add(key)) {
+				error(constant, "Another constant of " + model.getSimpleName() + " already holds the key \"" + key + "\"");
+				valid = false;
+				continue;
+			}
+
+			String property = constantName.substring(0, constantName.length() - KEY_SUFFIX.length());
+			String setterName = "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+			ExecutableElement setter = findSetter(model, setterName);
+			if (setter == null) {
+				error(constant, "No method " + setterName + "() taking one parameter for " + constantName);
+				valid = false;
+				continue;
+			}
+			TypeMirror type = setter.getParameters().get(0).asType();
+			String reader = readerFor(type, packageOf(model));
+			if (reader == null) {
+				error(setter, "Cannot parse the parameter type of " + setterName + "(), " + setter.getParameters().get(0).asType());
+				valid = false;
+				continue;
+			}
+			if (reader.endsWith(".parseList(reader)") && findGetter(model, "get" + setterName.substring(3), type) != null) {
+				reader = reader.replace(".parseList(reader)", ".parseList(reader, result.get" + setterName.substring(3) + "())");
+			}
+			fields.add(new Field(constantName, key, setterName, reader));
+		}
+		return valid ? fields : null;
+	}
+
+	private static ExecutableElement findSetter(TypeElement model, String name) {
+		for (Element member : model.getEnclosedElements()) {
+			if (member.getKind() == ElementKind.METHOD && member.getSimpleName().contentEquals(name) && !member.getModifiers().contains(Modifier.STATIC)
+					&& !member.getModifiers().contains(Modifier.PRIVATE) && ((ExecutableElement) member).getParameters().size() == 1) {
+				return (ExecutableElement) member;
+			}
+		}
+		return null;
+	}
+
+	private ExecutableElement findGetter(TypeElement model, String name, TypeMirror type) {
+		for (Element member : model.getEnclosedElements()) {
+			if (member.getKind() == ElementKind.METHOD && member.getSimpleName().contentEquals(name) && !member.getModifiers().contains(Modifier.STATIC)
+					&& !member.getModifiers().contains(Modifier.PRIVATE) && ((ExecutableElement) member).getParameters().isEmpty()
+					&& processingEnv.getTypeUtils().isSameType(((ExecutableElement) member).getReturnType(), type)) {
+				return (ExecutableElement) member;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Whether @a model has a method public static obtain() returning one of its objects.
+	 */
+	private boolean hasObtain(TypeElement model) {
+		for (Element member : model.getEnclosedElements()) {
+			if (member.getKind() == ElementKind.METHOD && member.getSimpleName().contentEquals("obtain") && member.getModifiers().contains(Modifier.STATIC)
+					&& member.getModifiers().contains(Modifier.PUBLIC) && ((ExecutableElement) member).getParameters().isEmpty()
+					&& processingEnv.getTypeUtils().isSameType(((ExecutableElement) member).getReturnType(), model.asType())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Whether @a model has a non-private method void recycle().
+	 */
+	private static boolean hasRecycle(TypeElement model) {
+		for (Element member : model.getEnclosedElements()) {
+			if (member.getKind() == ElementKind.METHOD && member.getSimpleName().contentEquals("recycle") && !member.getModifiers().contains(Modifier.STATIC)
+					&& !member.getModifiers().contains(Modifier.PRIVATE) && ((ExecutableElement) member).getParameters().isEmpty()
+					&& ((ExecutableElement) member).getReturnType().getKind() == TypeKind.VOID) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The expression reading a value of @a type from the JsonReader named reader, in a parser of the package
+	 *         @a pkg, or null if there is none.
+	 */
+	private String readerFor(TypeMirror type, String pkg) {
+		switch (type.getKind()) {
+			case DOUBLE:
+				return "reader.nextDouble()";
+			case LONG:
+				return "reader.nextLong()";
+			case INT:
+				return "reader.nextInt()";
+			case BOOLEAN:
+				return "reader.nextBoolean()";
+			case DECLARED:
+				break;
+			default:
+				return null;
+		}
+		DeclaredType declared = (DeclaredType) type;
+		TypeElement element = (TypeElement) declared.asElement();
+		String name = element.getQualifiedName().toString();
+		if (name.equals("java.lang.String")) {
+			return "reader.nextString()";
+		}
+		if (element.getAnnotation(JsonModel.class) != null) {
+			return parserName(element, pkg) + ".parse(reader)";
+		}
+		if (name.equals("java.util.List") && declared.getTypeArguments().size() == 1) {
+			TypeMirror item = declared.getTypeArguments().get(0);
+			if (item instanceof DeclaredType) {
+				TypeElement itemElement = (TypeElement) ((DeclaredType) item).asElement();
+				if (itemElement.getAnnotation(JsonModel.class) != null) {
+					return parserName(itemElement, pkg) + ".parseList(reader)";
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The name of the parser generated for @a model, as written in the package @a pkg.
+	 */
+	private String parserName(TypeElement model, String pkg) {
+		String name = model.getSimpleName() + PARSER_SUFFIX;
+		return packageOf(model).equals(pkg) ? name : packageOf(model) + "." + name;
+	}
+
+	private String packageOf(TypeElement model) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(model);
+		return pkg.getQualifiedName().toString();
+	}
+
+	/**
+	 * Write the parser of @a model, reading its @a fields.
+	 */
+	private void writeParser(TypeElement model, List<Field> fields) throws IOException {
+		String pkg = packageOf(model);
+		String modelName = model.getSimpleName().toString();
+		String parserName = modelName + PARSER_SUFFIX;
+
+		// Group the fields by key length, the first test of the dispatch.
+		Map<Integer, List<Field>> byLength = new TreeMap<>();
+		for (Field field : fields) {
+			List<Field> group = byLength.get(field.mKey.length());
+			if (group == null) {
+				group = new ArrayList<>();
+				byLength.put(field.mKey.length(), group);
+			}
+			group.add(field);
+		}
+
+		StringBuilder out = new StringBuilder();
+		out.append("package ").append(pkg).append(";\n\n");
+		out.append("import java.io.IOException;\n");
+		out.append("import java.util.ArrayList;\n");
+		out.append("import java.util.List;\n\n");
+		out.append("import android.util.JsonReader;\n\n");
+		out.append("/**\n");
+		out.append(" * Parses ").append(modelName).append(" objects from Json. Generated by the JsonModelProcessor from the *_JSON constants\n");
+		out.append(" * of ").append(modelName).append("; do not edit.\n");
+		out.append(" */\n");
+		out.append("public final class ").append(parserName).append(" {\n");
+		out.append("\tprivate ").append(parserName).append("() {\n");
+		out.append("\t}\n\n");
+
+		out.append("\t/**\n");
+		out.append("\t * Parse the Json object at the current position of @a reader into a ").append(modelName).append(".\n");
+		out.append("\t */\n");
+		out.append("\tpublic static ").append(modelName).append(" parse(JsonReader reader) throws IOException {\n");
+		boolean pooled = hasObtain(model);
+		boolean recycled = pooled && hasRecycle(model);
+		out.append("\t\t").append(modelName).append(" result = ").append(pooled ? modelName + ".obtain()" : "new " + modelName + "()").append(";\n");
+		// Objects that can be recycled are parsed in a try block, so a failed parse can recycle them.
+		String indent = recycled ? "\t\t\t" : "\t\t";
+		if (recycled) {
+			out.append("\t\ttry {\n");
+		}
+		out.append(indent).append("reader.beginObject();\n");
+		out.append(indent).append("while (reader.hasNext()) {\n");
+		out.append(indent).append("\tString name = reader.nextName();\n");
+		if (!byLength.isEmpty()) {
+			out.append(indent).append("\tswitch (name.length()) {\n");
+			for (Map.Entry<Integer, List<Field>> group : byLength.entrySet()) {
+				out.append(indent).append("\t\tcase ").append(group.getKey()).append(":\n");
+				for (Field field : group.getValue()) {
+					out.append(indent).append("\t\t\tif (name.equals(").append(modelName).append('.').append(field.mConstant).append(")) {\n");
+					out.append(indent).append("\t\t\t\tresult.").append(field.mSetter).append('(').append(field.mReader).append(");\n");
+					out.append(indent).append("\t\t\t\tcontinue;\n");
+					out.append(indent).append("\t\t\t}\n");
+				}
+				out.append(indent).append("\t\t\tbreak;\n");
+			}
+			out.append(indent).append("\t}\n");
+		}
+		out.append(indent).append("\treader.skipValue();\n");
+		out.append(indent).append("}\n");
+		out.append(indent).append("reader.endObject();\n");
+		out.append(indent).append("return result;\n");
+		if (recycled) {
+			out.append("\t\t} catch (IOException | RuntimeException e) {\n");
+			out.append("\t\t\t// Recycle what was parsed so far, as nothing else holds it.\n");
+			out.append("\t\t\tresult.recycle();\n");
+			out.append("\t\t\tthrow e;\n");
+			out.append("\t\t}\n");
+		}
+		out.append("\t}\n\n");
+
+		out.append("\t/**\n");
+		out.append("\t * Parse the Json array of objects at the current position of @a reader into a List of ").append(modelName).append(".\n");
+		out.append("\t */\n");
+		out.append("\tpublic static List<").append(modelName).append("> parseList(JsonReader reader) throws IOException {\n");
+		out.append("\t\treturn parseList(reader, null);\n");
+		out.append("\t}\n\n");
+
+		out.append("\t/**\n");
+		out.append("\t * Parse the Json array of objects at the current position of @a reader into @a reuse, which is cleared first,\n");
+		out.append("\t * or into a new List if it is null.\n");
+		out.append("\t */\n");
+		out.append("\tpublic static List<").append(modelName).append("> parseList(JsonReader reader, List<").append(modelName).append("> reuse) throws IOException {\n");
+		out.append("\t\tList<").append(modelName).append("> result = reuse != null ? reuse : new ArrayList<").append(modelName).append(">();\n");
+		out.append("\t\tresult.clear();\n");
+		if (recycled) {
+			out.append("\t\ttry {\n");
+		}
+		out.append(indent).append("reader.beginArray();\n");
+		out.append(indent).append("while (reader.hasNext()) {\n");
+		out.append(indent).append("\tresult.add(parse(reader));\n");
+		out.append(indent).append("}\n");
+		out.append(indent).append("reader.endArray();\n");
+		out.append(indent).append("return result;\n");
+		if (recycled) {
+			out.append("\t\t} catch (IOException | RuntimeException e) {\n");
+			out.append("\t\t\t// Recycle the objects parsed so far and empty the List, so whoever holds it does not recycle them again.\n");
+			out.append("\t\t\tfor (").append(modelName).append(" item : result) {\n");
+			out.append("\t\t\t\titem.recycle();\n");
+			out.append("\t\t\t}\n");
+			out.append("\t\t\tresult.clear();\n");
+			out.append("\t\t\tthrow e;\n");
+			out.append("\t\t}\n");
+		}
+		out.append("\t}\n");
+		out.append("}\n");
+
+		try (Writer writer = processingEnv.getFiler().createSourceFile(pkg + "." + parserName, model).openWriter()) {
+			writer.write(out.toString());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}